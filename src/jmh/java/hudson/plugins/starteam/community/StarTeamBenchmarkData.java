@@ -0,0 +1,68 @@
+package hudson.plugins.starteam.community;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Synthetic workspaces for the benchmarks: files spread over modules of 10,000 files and
+ * packages of 100 files, like a large source tree.
+ */
+final class StarTeamBenchmarkData {
+
+  static final long BASE_TIME = 1262304000000L;
+
+  private StarTeamBenchmarkData() {
+  }
+
+  static String path(String root, int i) {
+    return root + "/module" + (i / 10000) + "/pkg" + (i / 100 % 100) + "/File" + i + ".java";
+  }
+
+  static List<StarTeamFilePoint> filePoints(String root, int count) {
+    List<StarTeamFilePoint> result = new ArrayList<StarTeamFilePoint>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(new StarTeamFilePoint(path(root, i), 1 + i % 7, BASE_TIME + i * 1000L));
+    }
+    return result;
+  }
+
+  static List<StarTeamChangeLogEntry> changes(int count) {
+    List<StarTeamChangeLogEntry> result = new ArrayList<StarTeamChangeLogEntry>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(new StarTeamChangeLogEntry("File" + i + ".java", 1 + i % 7, new Date(BASE_TIME + i * 1000L),
+          "user" + (i % 50), "Fix <issue> #" + (i % 1000) + " & tidy up", i % 10 == 0 ? "added" : "change"));
+    }
+    return result;
+  }
+
+  /**
+   * @return a connection to the simulated repository, initialized for polling
+   */
+  static StarTeamConnection connect(SimulatedStarTeamRepository repository, int checkoutThreads)
+      throws StarTeamSCMException {
+    StarTeamConnection connection = new StarTeamConnection("simulator", 49201, "user", "password", "project",
+        "view", "folder", null);
+    connection.setRepository(repository);
+    connection.setCheckoutThreads(checkoutThreads);
+    connection.initialize(-1);
+    return connection;
+  }
+
+  /**
+   * Creates empty files on disk.
+   */
+  static void createFiles(File root, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      File file = new File(path(root.getPath(), i));
+      if (i % 100 == 0) {
+        file.getParentFile().mkdirs();
+      }
+      if (!file.createNewFile() && !file.isFile()) {
+        throw new IOException("Cannot create " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and parsing <tt>changelog.xml</tt>, one entry per changed file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StarTeamChangeLogBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int files;
+
+  private StarTeamChangeSet changeSet;
+  private byte[] changeLog;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    changeSet = new StarTeamChangeSet();
+    for (StarTeamChangeLogEntry change : StarTeamBenchmarkData.changes(files)) {
+      changeSet.addChange(change);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    StarTeamChangeLogBuilder.writeChangeLog(bytes, changeSet);
+    changeLog = bytes.toByteArray();
+  }
+
+  @Benchmark
+  public boolean writeChangeLog() throws IOException {
+    return StarTeamChangeLogBuilder.writeChangeLog(new NullOutputStream(), changeSet);
+  }
+
+  @Benchmark
+  public StarTeamChangeLogSet parse() throws IOException {
+    return StarTeamChangeLogParser.parse(null, new ByteArrayInputStream(changeLog));
+  }
+}
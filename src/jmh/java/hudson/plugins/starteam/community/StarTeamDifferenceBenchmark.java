@@ -0,0 +1,68 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparing the file points of a view with those of the previous build, where one file in
+ * a hundred was deleted and the rest is unchanged on the server and on disk.
+ * <p>
+ * No file changed, so this measures the comparison itself and not the change log entries
+ * made for changes; {@link StarTeamSimulatedPollingBenchmark} covers those.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StarTeamDifferenceBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int files;
+
+  private StarTeamConnection connection;
+  private List<StarTeamFilePoint> current;
+  private List<StarTeamFilePoint> historic;
+  private Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> onDisk;
+  private PrintStream logger;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    connection = new StarTeamConnection("localhost", 49201, "user", "password", "project", "view", "folder", null);
+    historic = StarTeamBenchmarkData.filePoints("/workspace/job", files);
+    current = StarTeamBenchmarkData.filePoints("/workspace/job", files);
+    for (int i = current.size() - 1; i >= 0; i -= 100) {
+      current.remove(i);
+    }
+    onDisk = new HashMap<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes>(files * 2);
+    for (StarTeamFilePoint filePoint : historic) {
+      onDisk.put(filePoint.getPath(), new StarTeamWorkspaceScanner.FileAttributes(0, filePoint.getLastModifyDate()));
+    }
+    logger = new PrintStream(new NullOutputStream());
+  }
+
+  @Benchmark
+  public StarTeamChangeSet computeDifference() {
+    return connection.computeDifference(current, historic, new StarTeamChangeSet(),
+        Collections.<StarTeamPath, StarTeamItem>emptyMap(), onDisk, logger);
+  }
+}
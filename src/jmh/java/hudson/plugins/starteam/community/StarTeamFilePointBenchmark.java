@@ -0,0 +1,77 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting, storing and loading the file points of a build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StarTeamFilePointBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int files;
+
+  private List<StarTeamFilePoint> filePoints;
+  private File stored;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    filePoints = StarTeamBenchmarkData.filePoints("/workspace/job", files);
+    stored = File.createTempFile("starteam-filepoints", ".dat");
+    OutputStream os = new BufferedOutputStream(new FileOutputStream(stored));
+    try {
+      StarTeamFilePointFunctions.storeCollection(os, filePoints);
+    } finally {
+      os.close();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    FileUtils.deleteQuietly(stored);
+  }
+
+  @Benchmark
+  public Map<File, StarTeamFilePoint> convertToFilePointMap() {
+    return StarTeamFilePointFunctions.convertToFilePointMap(filePoints);
+  }
+
+  @Benchmark
+  public void storeCollection() throws IOException {
+    StarTeamFilePointFunctions.storeCollection(new NullOutputStream(), filePoints);
+  }
+
+  @Benchmark
+  public Collection<StarTeamFilePoint> loadCollection() throws IOException {
+    return StarTeamFilePointFunctions.loadCollection(stored);
+  }
+}
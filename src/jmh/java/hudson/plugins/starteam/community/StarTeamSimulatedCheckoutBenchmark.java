@@ -0,0 +1,88 @@
+package hudson.plugins.starteam.community;
+
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking out a simulated view of 4 KB files into an empty workspace, end to end: opening
+ * the view, listing it, verifying the workspace, checking out and storing the file points.
+ * The simulated link has 100 Mbit/s; every call to the server waits for the latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class StarTeamSimulatedCheckoutBenchmark {
+
+  @Param({"10000", "100000"})
+  public int files;
+
+  @Param({"0", "2"})
+  public int latencyMillis;
+
+  @Param({"1", "4"})
+  public int checkoutThreads;
+
+  private SimulatedStarTeamRepository repository;
+  private File parent;
+  private File workspace;
+  private PrintStream logger;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    repository = new SimulatedStarTeamRepository(1, Math.max(1, files / 100), files);
+    repository.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+    repository.setBytesPerSecond(12500000);
+    parent = File.createTempFile("starteam-simulated", "");
+    parent.delete();
+    logger = new PrintStream(new NullOutputStream());
+  }
+
+  @Setup(Level.Iteration)
+  public void emptyWorkspace() throws IOException {
+    FileUtils.deleteDirectory(parent);
+    workspace = new File(parent, "workspace");
+    if (!workspace.mkdirs()) {
+      throw new IOException("Cannot create " + workspace);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(parent);
+  }
+
+  @Benchmark
+  public StarTeamChangeSet checkOut() throws IOException, StarTeamSCMException {
+    StarTeamConnection connection = StarTeamBenchmarkData.connect(repository, checkoutThreads);
+    try {
+      StarTeamChangeSet changeSet = connection.computeChangeSet(workspace, null, logger);
+      connection.checkOut(changeSet, workspace, logger,
+          new FilePath(new File(parent, StarTeamConnection.FILE_POINT_FILENAME)));
+      return changeSet;
+    } finally {
+      connection.close();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package hudson.plugins.starteam.community;
+
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polling a simulated view against the file points of a checked out workspace, after
+ * every iteration committed the given number of modified files, so the changes found add
+ * up over the iterations. The workspace is checked out once per trial, with small files
+ * and without latency to keep that short.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StarTeamSimulatedPollingBenchmark {
+
+  @Param({"10000", "100000"})
+  public int files;
+
+  @Param({"0", "2"})
+  public int latencyMillis;
+
+  @Param({"0", "100"})
+  public int changes;
+
+  private SimulatedStarTeamRepository repository;
+  private File parent;
+  private File workspace;
+  private Collection<StarTeamFilePoint> filePoints;
+  private PrintStream logger;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, StarTeamSCMException {
+    repository = new SimulatedStarTeamRepository(1, Math.max(1, files / 100), files);
+    repository.setAverageFileSize(64);
+    parent = File.createTempFile("starteam-simulated", "");
+    parent.delete();
+    workspace = new File(parent, "workspace");
+    logger = new PrintStream(new NullOutputStream());
+    StarTeamConnection connection = StarTeamBenchmarkData.connect(repository, 1);
+    try {
+      StarTeamChangeSet changeSet = connection.computeChangeSet(workspace, null, logger);
+      connection.checkOut(changeSet, workspace, logger,
+          new FilePath(new File(parent, StarTeamConnection.FILE_POINT_FILENAME)));
+      filePoints = changeSet.getFilePointsToRemember();
+    } finally {
+      connection.close();
+    }
+    repository.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Setup(Level.Iteration)
+  public void commit() {
+    repository.commit(changes, 0, 0);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(parent);
+  }
+
+  @Benchmark
+  public StarTeamChangeSet poll() throws IOException, StarTeamSCMException {
+    StarTeamConnection connection = StarTeamBenchmarkData.connect(repository, 1);
+    try {
+      return connection.computeChangeSet(workspace, filePoints, logger);
+    } finally {
+      connection.close();
+    }
+  }
+}
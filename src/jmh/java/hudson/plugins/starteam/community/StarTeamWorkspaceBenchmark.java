@@ -0,0 +1,56 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing a workspace of empty files. The tree is created once per trial, which takes a
+ * while at a million files; the file system cache is warm for every measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StarTeamWorkspaceBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  public int files;
+
+  private File workspace;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workspace = File.createTempFile("starteam-workspace", "");
+    workspace.delete();
+    StarTeamBenchmarkData.createFiles(workspace, files);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(workspace);
+  }
+
+  @Benchmark
+  public Collection<File> listAllFiles() {
+    return StarTeamFilePointFunctions.listAllFiles(workspace);
+  }
+}
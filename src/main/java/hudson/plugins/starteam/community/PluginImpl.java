@@ -19,4 +19,10 @@ public class PluginImpl extends Plugin {
     //nothing to do with new extension functionality.
   }
 
+  @Override
+  public void stop() throws Exception {
+    // the subscriptions to StarTeam events keep their connections open until closed
+    StarTeamSCM.DESCRIPTOR.getEvents().closeAll();
+  }
+
 }
@@ -0,0 +1,776 @@
+package hudson.plugins.starteam.community;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory StarTeam repository, for benchmarking checkouts and polling without a
+ * server.
+ * <p>
+ * Everything is derived from a seed: the folder tree, the files and their revisions, who
+ * made them, their content, the labels and the promotion states. Two repositories with the
+ * same seed and settings list the same files and check out the same bytes. The history
+ * covers the year 2017; labels <tt>Build 1</tt> to <tt>Build n</tt> are spread over it and
+ * promotion states <tt>State 1</tt>, <tt>State 2</tt>... point at the newest labels. The
+ * server clock is simulated as well and only moves when {@link #commit} adds revisions.
+ * Project, view and folder names are not checked, every one of them opens the whole tree.
+ * <p>
+ * Every call to the simulated server waits for the configured latency, and the bytes of
+ * the listings and of the file content go through a link of the configured bandwidth
+ * that all sessions share.
+ * <p>
+ * Connections use the simulator when the system property
+ * <tt>hudson.plugins.starteam.community.StarTeamConnection.simulator</tt> is set to its
+ * settings, see {@link #parse(String)}, or when given one with
+ * {@link StarTeamConnection#setRepository}.
+ */
+public class SimulatedStarTeamRepository implements StarTeamRepository {
+
+  /**
+   * 2017-01-01 00:00 UTC, when the history starts.
+   */
+  static final long EPOCH = 1483228800000L;
+
+  static final long HISTORY_MILLIS = TimeUnit.DAYS.toMillis(365);
+
+  /**
+   * How far {@link #commit} moves the server clock.
+   */
+  static final long COMMIT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  /**
+   * What listing one file costs on the link: its properties as the populator reads them.
+   */
+  static final int LISTING_BYTES_PER_FILE = 200;
+
+  /**
+   * Bytes a query for modified files transfers per folder, for its path.
+   */
+  static final int FOLDER_BYTES = 16;
+
+  /**
+   * Bytes a query for modified files transfers per file, for its name.
+   */
+  static final int NAME_BYTES = 16;
+
+  private static final String[] EXTENSIONS = {".java", ".xml", ".properties", ".txt", ".html", ".c", ".h"};
+
+  // attributes, each derived from its own hash
+  private static final long FOLDER_PARENT = 1;
+  private static final long FILE_FOLDER = 2;
+  private static final long FILE_EXTENSION = 3;
+  private static final long REVISION_COUNT = 4;
+  private static final long REVISION_TIME = 5;
+  private static final long REVISION_USER = 6;
+  private static final long REVISION_SIZE = 7;
+  private static final long REVISION_CONTENT = 8;
+  private static final long COMMIT = 9;
+
+  private static final Map<String, SimulatedStarTeamRepository> SHARED =
+      new HashMap<String, SimulatedStarTeamRepository>();
+
+  private final long seed;
+  private final int folders;
+  private final int baseFiles;
+  private int revisions = 3;
+  private int users = 20;
+  private int labels = 10;
+  private int promotionStates = 3;
+  private int averageFileSize = 4096;
+  private long latencyNanos;
+  private long bytesPerSecond;
+
+  // generated on first use
+  private String[] folderPaths;
+  private final Map<String, Long> labelTimes = new LinkedHashMap<String, Long>();
+  private final Map<String, String> promotionLabels = new LinkedHashMap<String, String>();
+
+  // revisions made by commit(), by file, and when files were deleted
+  private final Map<Integer, long[]> committed = new ConcurrentHashMap<Integer, long[]>();
+  private final Map<Integer, Long> deleted = new ConcurrentHashMap<Integer, Long>();
+  // the folder files were last moved to by swapFolders(), and when
+  private final Map<Integer, long[]> moved = new ConcurrentHashMap<Integer, long[]>();
+  private int fileCount;
+  private int commits;
+  private long now = EPOCH + HISTORY_MILLIS;
+
+  // the simulated link
+  private final Object link = new Object();
+  private long linkFreeAt;
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+
+  /**
+   * @param seed    where everything is derived from
+   * @param folders the number of folders, including the root folder
+   * @param files   the number of files at the start
+   */
+  public SimulatedStarTeamRepository(long seed, int folders, int files) {
+    if (folders < 1 || files < 0) {
+      throw new IllegalArgumentException("Need at least one folder and no negative number of files");
+    }
+    this.seed = seed;
+    this.folders = folders;
+    this.baseFiles = files;
+    this.fileCount = files;
+  }
+
+  /**
+   * Creates a repository from comma separated settings, for instance
+   * <tt>seed=1,folders=500,files=50000,latencyMillis=20,bytesPerSecond=10000000</tt>.
+   * Besides those, <tt>revisions</tt>, <tt>users</tt>, <tt>labels</tt>,
+   * <tt>promotionStates</tt> and <tt>fileSize</tt> are recognized, see their setters.
+   *
+   * @param settings the settings
+   * @return the repository
+   * @throws IllegalArgumentException if a setting is not known or not a number
+   */
+  public static SimulatedStarTeamRepository parse(String settings) {
+    Map<String, Long> values = new HashMap<String, Long>();
+    values.put("seed", 0L);
+    values.put("folders", 100L);
+    values.put("files", 10000L);
+    for (String setting : settings.split(",")) {
+      if (setting.trim().isEmpty()) {
+        continue;
+      }
+      int eq = setting.indexOf('=');
+      if (eq < 0) {
+        throw new IllegalArgumentException("Expected name=value: " + setting);
+      }
+      values.put(setting.substring(0, eq).trim(), Long.valueOf(setting.substring(eq + 1).trim()));
+    }
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(values.remove("seed"),
+        values.remove("folders").intValue(), values.remove("files").intValue());
+    for (Map.Entry<String, Long> value : values.entrySet()) {
+      int v = value.getValue().intValue();
+      if ("revisions".equals(value.getKey())) {
+        repository.setRevisions(v);
+      } else if ("users".equals(value.getKey())) {
+        repository.setUsers(v);
+      } else if ("labels".equals(value.getKey())) {
+        repository.setLabels(v);
+      } else if ("promotionStates".equals(value.getKey())) {
+        repository.setPromotionStates(v);
+      } else if ("fileSize".equals(value.getKey())) {
+        repository.setAverageFileSize(v);
+      } else if ("latencyMillis".equals(value.getKey())) {
+        repository.setLatency(value.getValue(), TimeUnit.MILLISECONDS);
+      } else if ("bytesPerSecond".equals(value.getKey())) {
+        repository.setBytesPerSecond(value.getValue());
+      } else {
+        throw new IllegalArgumentException("Unknown simulator setting " + value.getKey());
+      }
+    }
+    return repository;
+  }
+
+  /**
+   * @return the repository for the given settings, the same one for all connections of
+   * this JVM so that they see the same commits.
+   */
+  static SimulatedStarTeamRepository shared(String settings) {
+    synchronized (SHARED) {
+      SimulatedStarTeamRepository repository = SHARED.get(settings);
+      if (repository == null) {
+        repository = parse(settings);
+        SHARED.put(settings, repository);
+      }
+      return repository;
+    }
+  }
+
+  /**
+   * @param revisions the highest number of revisions a file has at the start, at least 1
+   */
+  public void setRevisions(int revisions) {
+    this.revisions = Math.max(1, revisions);
+  }
+
+  public void setUsers(int users) {
+    this.users = Math.max(1, users);
+  }
+
+  /**
+   * @param labels the number of view labels, set before the repository is first opened
+   */
+  public void setLabels(int labels) {
+    this.labels = Math.max(0, labels);
+  }
+
+  /**
+   * @param promotionStates the number of promotion states, set before the repository is
+   *                        first opened; states without a label select the tip
+   */
+  public void setPromotionStates(int promotionStates) {
+    this.promotionStates = Math.max(0, promotionStates);
+  }
+
+  /**
+   * @param averageFileSize the average size of the content of a revision, in bytes; sizes
+   *                        are spread evenly between half and one and a half times this
+   */
+  public void setAverageFileSize(int averageFileSize) {
+    this.averageFileSize = Math.max(0, averageFileSize);
+  }
+
+  /**
+   * @param latency how long every call to the server waits, 0 for not at all
+   */
+  public void setLatency(long latency, TimeUnit unit) {
+    this.latencyNanos = Math.max(0, unit.toNanos(latency));
+  }
+
+  /**
+   * @param bytesPerSecond the bandwidth of the link to the server, 0 for unlimited
+   */
+  public void setBytesPerSecond(long bytesPerSecond) {
+    this.bytesPerSecond = Math.max(0, bytesPerSecond);
+  }
+
+  /**
+   * @return the number of calls made to the simulated server so far
+   */
+  public long getCalls() {
+    return calls.get();
+  }
+
+  /**
+   * @return the number of bytes sent over the simulated link so far
+   */
+  public long getBytesTransferred() {
+    return bytes.get();
+  }
+
+  /**
+   * Moves the server clock on by a minute and makes a revision of that time: modifies,
+   * adds and deletes files chosen from the seed and the number of earlier commits.
+   *
+   * @param modified the number of files to modify
+   * @param added    the number of files to add
+   * @param removed  the number of files to delete
+   */
+  public synchronized void commit(int modified, int added, int removed) {
+    generate();
+    now += COMMIT_INTERVAL_MILLIS;
+    Random random = new Random(hash(COMMIT, commits++, 0));
+    for (int i = 0; i < modified && fileCount > 0; i++) {
+      int file = random.nextInt(fileCount);
+      if (!deleted.containsKey(file)) {
+        long[] times = committed.get(file);
+        times = times == null ? new long[1] : Arrays.copyOf(times, times.length + 1);
+        times[times.length - 1] = now;
+        committed.put(file, times);
+      }
+    }
+    for (int i = 0; i < added; i++) {
+      committed.put(fileCount++, new long[]{now});
+    }
+    for (int i = 0; i < removed && fileCount > 0; i++) {
+      int file = random.nextInt(fileCount);
+      if (!deleted.containsKey(file)) {
+        deleted.put(file, now);
+      }
+    }
+  }
+
+  /**
+   * Moves the server clock on by a minute and moves two files each into the folder of the
+   * other. Neither gets a revision and every folder keeps its number of files.
+   *
+   * @param file  a file
+   * @param other another file
+   * @return false, and nothing is moved, if both files are in the same folder
+   */
+  public synchronized boolean swapFolders(int file, int other) {
+    generate();
+    int folder = folder(file, now);
+    int otherFolder = folder(other, now);
+    if (folder == otherFolder) {
+      return false;
+    }
+    now += COMMIT_INTERVAL_MILLIS;
+    moved.put(file, new long[]{otherFolder, now});
+    moved.put(other, new long[]{folder, now});
+    return true;
+  }
+
+  public Snapshot open(String projectName, String viewName, String folderName, StarTeamViewSelector configSelector,
+                       int buildNumber, StarTeamPhaseTimings timings) throws StarTeamSCMException {
+    long mark = System.nanoTime();
+    call();
+    mark = timings.record(StarTeamPhaseTimings.Phase.CONNECT, mark);
+    call();
+    mark = timings.record(StarTeamPhaseTimings.Phase.LOGON, mark);
+    call();
+    mark = timings.record(StarTeamPhaseTimings.Phase.PROJECT_VIEW_LOOKUP, mark);
+    call();
+    long cutoff;
+    int files;
+    synchronized (this) {
+      generate();
+      cutoff = configure(configSelector, viewName, buildNumber);
+      files = fileCount;
+    }
+    timings.record(StarTeamPhaseTimings.Phase.VIEW_CONFIGURATION, mark);
+    return new SimulatedSnapshot(cutoff, files);
+  }
+
+  /**
+   * @return the time the configured view shows the files at
+   */
+  private long configure(StarTeamViewSelector configSelector, String viewName, int buildNumber)
+      throws StarTeamSCMException {
+    String configInfo = configSelector == null ? null : configSelector.getConfigInfo();
+    if (configInfo == null || configInfo.isEmpty()) {
+      return now;
+    }
+    String configType = configSelector.getConfigType();
+    if ("LABEL".equals(configType)) {
+      String labelName = StarTeamViewSelector.expandLabelPattern(configInfo, buildNumber);
+      if (!configInfo.equals(labelName)) {
+        // polls use the tip, builds label it
+        if (buildNumber == -1) {
+          return now;
+        }
+        if (!labelTimes.containsKey(labelName)) {
+          labelTimes.put(labelName, now);
+        }
+      }
+      Long time = labelTimes.get(labelName);
+      if (time == null) {
+        throw new StarTeamSCMException("Couldn't find label [" + labelName + "] in view " + viewName);
+      }
+      return time;
+    } else if ("PROMOTION".equals(configType)) {
+      if (!promotionLabels.containsKey(configInfo)) {
+        throw new StarTeamSCMException("Couldn't find promotion state " + configInfo + " in view " + viewName);
+      }
+      String labelName = promotionLabels.get(configInfo);
+      return labelName == null ? now : labelTimes.get(labelName);
+    } else if ("TIME".equals(configType)) {
+      SimpleDateFormat df = new SimpleDateFormat("yyyy/M/d HH:mm:ss");
+      try {
+        return df.parse(configInfo).getTime();
+      } catch (ParseException e) {
+        throw new StarTeamSCMException("Could not correctly parse configuration date: " + e.getMessage());
+      }
+    }
+    return now;
+  }
+
+  private void generate() {
+    if (folderPaths != null) {
+      return;
+    }
+    folderPaths = new String[folders];
+    folderPaths[0] = "";
+    for (int k = 1; k < folders; k++) {
+      String parent = folderPaths[random(FOLDER_PARENT, k, 0, k)];
+      folderPaths[k] = parent + "folder" + k + java.io.File.separator;
+    }
+    for (int k = 1; k <= labels; k++) {
+      labelTimes.put("Build " + k, EPOCH + HISTORY_MILLIS / (labels + 1) * k);
+    }
+    for (int k = 1; k <= promotionStates; k++) {
+      promotionLabels.put("State " + k, k <= labels ? "Build " + (labels - k + 1) : null);
+    }
+  }
+
+  /**
+   * @return the view version of a file at a time, 0 if it did not exist then
+   */
+  int revisionAt(int file, long time) {
+    Long deletedAt = deleted.get(file);
+    if (deletedAt != null && deletedAt <= time) {
+      return 0;
+    }
+    int revision = 0;
+    if (file < baseFiles) {
+      int count = baseRevisions(file);
+      for (int r = count; r > 0; r--) {
+        if (revisionTime(file, r) <= time) {
+          revision = r;
+          break;
+        }
+      }
+      if (revision < count) {
+        return revision;
+      }
+    }
+    long[] times = committed.get(file);
+    if (times != null) {
+      for (long t : times) {
+        if (t <= time) {
+          revision++;
+        }
+      }
+    }
+    return revision;
+  }
+
+  private int baseRevisions(int file) {
+    return file < baseFiles ? 1 + random(REVISION_COUNT, file, 0, revisions) : 0;
+  }
+
+  /**
+   * @return when a revision of a file was made
+   */
+  long revisionTime(int file, int revision) {
+    int base = baseRevisions(file);
+    if (revision <= base) {
+      long slot = HISTORY_MILLIS / revisions;
+      return EPOCH + (revision - 1) * slot + (hash(REVISION_TIME, file, revision) >>> 1) % slot;
+    }
+    return committed.get(file)[revision - base - 1];
+  }
+
+  /**
+   * @return the path of the file at the time
+   */
+  String path(int file, long time) {
+    return folderPaths[folder(file, time)] + name(file);
+  }
+
+  private int folder(int file, long time) {
+    long[] move = moved.get(file);
+    return move != null && move[1] <= time ? (int) move[0] : random(FILE_FOLDER, file, 0, folders);
+  }
+
+  String name(int file) {
+    return "file" + file + EXTENSIONS[random(FILE_EXTENSION, file, 0, EXTENSIONS.length)];
+  }
+
+  String user(int file, int revision) {
+    return "user" + random(REVISION_USER, file, revision, users);
+  }
+
+  long size(int file, int revision) {
+    if (averageFileSize == 0) {
+      return 0;
+    }
+    return averageFileSize / 2 + (hash(REVISION_SIZE, file, revision) >>> 1) % (averageFileSize + 1);
+  }
+
+  /**
+   * Writes the content of a revision: printable characters derived from the seed.
+   */
+  void writeContent(int file, int revision, OutputStream out) throws IOException {
+    long size = size(file, revision);
+    long x = hash(REVISION_CONTENT, file, revision) | 1;
+    byte[] buffer = new byte[(int) Math.min(size, 8192)];
+    for (long written = 0; written < size; ) {
+      int n = (int) Math.min(buffer.length, size - written);
+      for (int i = 0; i < n; i++) {
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        buffer[i] = (byte) (i % 64 == 63 ? '\n' : ' ' + (x & 63));
+      }
+      out.write(buffer, 0, n);
+      written += n;
+    }
+  }
+
+  String contentMD5(int file, int revision) {
+    final MessageDigest digest = newMD5Digest();
+    try {
+      writeContent(file, revision, new OutputStream() {
+        @Override
+        public void write(int b) {
+          digest.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+          digest.update(b, off, len);
+        }
+      });
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return toHex(digest.digest());
+  }
+
+  static String fileMD5(java.io.File file) throws IOException {
+    MessageDigest digest = newMD5Digest();
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return toHex(digest.digest());
+  }
+
+  private static MessageDigest newMD5Digest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] data) {
+    StringBuilder sb = new StringBuilder(data.length * 2);
+    for (byte b : data) {
+      sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+    }
+    return sb.toString();
+  }
+
+  private long hash(long attribute, long index, long sub) {
+    return mix(seed ^ mix(attribute ^ mix(index ^ mix(sub))));
+  }
+
+  private int random(long attribute, long index, long sub, int bound) {
+    return (int) ((hash(attribute, index, sub) >>> 1) % bound);
+  }
+
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * One round trip to the server.
+   */
+  private void call() {
+    calls.incrementAndGet();
+    pause(latencyNanos);
+  }
+
+  /**
+   * Sends bytes over the link, after the bytes of all sessions that were sent before.
+   */
+  private void transfer(long count) {
+    bytes.addAndGet(count);
+    if (bytesPerSecond == 0) {
+      return;
+    }
+    long wait;
+    synchronized (link) {
+      long start = Math.max(System.nanoTime(), linkFreeAt);
+      linkFreeAt = start + (long) (count * 1e9 / bytesPerSecond);
+      wait = linkFreeAt - System.nanoTime();
+    }
+    pause(wait);
+  }
+
+  private static void pause(long nanos) {
+    if (nanos <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "simulated StarTeam repository (seed " + seed + ", " + folders + " folders, " + fileCount + " files, "
+        + calls.get() + " calls, " + bytes.get() + " bytes transferred)";
+  }
+
+  /**
+   * The tree as of the time the view was configured for.
+   */
+  private final class SimulatedSnapshot implements Snapshot {
+    private final long cutoff;
+    private final int files;
+
+    SimulatedSnapshot(long cutoff, int files) {
+      this.cutoff = cutoff;
+      this.files = files;
+    }
+
+    public Collection<StarTeamItem> listFiles(java.io.File workFolder) {
+      call();
+      transfer((long) files * LISTING_BYTES_PER_FILE);
+      java.io.File root = workFolder.getAbsoluteFile();
+      List<StarTeamItem> result = new ArrayList<StarTeamItem>(files);
+      for (int file = 0; file < files; file++) {
+        int revision = revisionAt(file, cutoff);
+        if (revision > 0) {
+          result.add(new SimulatedItem(SimulatedStarTeamRepository.this, file, revision,
+              new java.io.File(root, path(file, cutoff)).getPath()));
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Answers as a server side query would: only the modified files and the names of the
+     * files by folder are transferred.
+     */
+    public Modifications listModifiedSince(java.io.File workFolder, long since) {
+      call();
+      java.io.File root = workFolder.getAbsoluteFile();
+      Map<String, List<String>> fileNames = new HashMap<String, List<String>>();
+      int modified = 0;
+      int listed = 0;
+      for (int file = 0; file < files; file++) {
+        int revision = revisionAt(file, cutoff);
+        if (revision > 0) {
+          String folder = new java.io.File(root, path(file, cutoff)).getParent();
+          List<String> names = fileNames.get(folder);
+          if (names == null) {
+            names = new ArrayList<String>();
+            fileNames.put(folder, names);
+          }
+          names.add(name(file));
+          listed++;
+          if (revisionTime(file, revision) > since) {
+            modified++;
+          }
+        }
+      }
+      transfer((long) modified * LISTING_BYTES_PER_FILE + (long) listed * NAME_BYTES
+          + (long) fileNames.size() * FOLDER_BYTES);
+      return new Modifications(modified, fileNames);
+    }
+
+    public void checkOut(List<StarTeamItem> items, CheckoutObserver observer, PrintStream logger, String prefix)
+        throws IOException {
+      for (StarTeamItem i : items) {
+        SimulatedItem item = (SimulatedItem) i;
+        if (Thread.interrupted()) {
+          throw new InterruptedIOException("Interrupted while checking out");
+        }
+        observer.startFile();
+        call();
+        transfer(item.getSize());
+        java.io.File workingFile = new java.io.File(item.getFullName());
+        try {
+          java.io.File parent = workingFile.getParentFile();
+          if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+          }
+          OutputStream out = new BufferedOutputStream(new FileOutputStream(workingFile));
+          try {
+            writeContent(item.file, item.revision, out);
+          } finally {
+            out.close();
+          }
+          if (!workingFile.setLastModified(item.getContentModifiedTime())) {
+            throw new IOException("Cannot set the modification time of " + workingFile);
+          }
+          observer.progress(workingFile, item.getSize(), null);
+        } catch (IOException e) {
+          observer.progress(workingFile, item.getSize(), "Checkout of " + workingFile + " failed: " + e);
+        }
+      }
+    }
+
+    public Map<String, String> loadEmailAddresses() {
+      call();
+      Map<String, String> emailAddresses = new HashMap<String, String>(users * 4 / 3 + 1);
+      for (int k = 0; k < users; k++) {
+        emailAddresses.put("user" + k, "user" + k + "@example.com");
+      }
+      return emailAddresses;
+    }
+
+    public long getServerTime() {
+      call();
+      synchronized (SimulatedStarTeamRepository.this) {
+        return now;
+      }
+    }
+
+    public void close() {
+      // nothing is held
+    }
+  }
+
+  /**
+   * A revision of a simulated file. Everything but the path is derived when asked for.
+   */
+  static final class SimulatedItem implements StarTeamItem {
+    private final SimulatedStarTeamRepository repository;
+    private final int file;
+    private final int revision;
+    private final String fullName;
+
+    SimulatedItem(SimulatedStarTeamRepository repository, int file, int revision, String fullName) {
+      this.repository = repository;
+      this.file = file;
+      this.revision = revision;
+      this.fullName = fullName;
+    }
+
+    public String getFullName() {
+      return fullName;
+    }
+
+    public String getName() {
+      return repository.name(file);
+    }
+
+    public int getRevisionNumber() {
+      return revision;
+    }
+
+    public long getContentModifiedTime() {
+      return repository.revisionTime(file, revision);
+    }
+
+    public long getModifiedTime() {
+      return repository.revisionTime(file, revision);
+    }
+
+    public String getModifiedBy() {
+      return repository.user(file, revision);
+    }
+
+    public String getComment() {
+      return "Simulated revision " + revision + " of " + getName();
+    }
+
+    public long getSize() {
+      return repository.size(file, revision);
+    }
+
+    public String describeContentMismatch(java.io.File localFile) throws IOException {
+      String localMD5 = fileMD5(localFile);
+      String expectedMD5 = repository.contentMD5(file, revision);
+      if (localMD5.equals(expectedMD5)) {
+        return null;
+      }
+      return "  localfileMD5:" + localMD5 + "\n  starteam MD5:" + expectedMD5;
+    }
+
+    @Override
+    public String toString() {
+      return fullName;
+    }
+  }
+}
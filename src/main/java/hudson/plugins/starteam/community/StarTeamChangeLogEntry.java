@@ -4,8 +4,8 @@ import hudson.model.User;
 import hudson.scm.ChangeLogSet;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
 
 /**
  * <p>
@@ -46,9 +46,7 @@ public class StarTeamChangeLogEntry extends hudson.scm.ChangeLogSet.Entry {
 
   @Override
   public Collection<String> getAffectedPaths() {
-    Collection<String> list = new LinkedList<String>();
-    list.add(fileName);
-    return list;
+    return Collections.singletonList(fileName);
   }
 
   /**
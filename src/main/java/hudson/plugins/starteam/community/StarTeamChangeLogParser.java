@@ -7,18 +7,19 @@ import hudson.model.AbstractBuild;
 import hudson.scm.ChangeLogParser;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.ChangeLogSet.Entry;
-import org.dom4j.Document;
-import org.dom4j.Node;
-import org.dom4j.io.SAXReader;
 import org.xml.sax.SAXException;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * ChangeLogParser implementation for the StarTeam SCM.
@@ -33,8 +34,12 @@ public class StarTeamChangeLogParser extends ChangeLogParser {
   @Override
   public ChangeLogSet<? extends Entry> parse(AbstractBuild build,
                                              File changelogFile) throws IOException, SAXException {
-    return parse0(build, new FileInputStream(changelogFile),
-        changelogFile.getAbsolutePath());
+    InputStream is = new FileInputStream(changelogFile);
+    try {
+      return parse0(build, is, changelogFile.getAbsolutePath());
+    } finally {
+      is.close();
+    }
   }
 
   /**
@@ -57,68 +62,119 @@ public class StarTeamChangeLogParser extends ChangeLogParser {
         }
       };
 
-  @SuppressWarnings("unchecked")
+  private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    return factory;
+  }
+
+  /**
+   * Reads the entries in a single forward pass. As before only the first occurrence of
+   * each field in an entry counts and its value is all the text it contains. Repeated user
+   * names and change types are stored once by the change log set.
+   */
   private static StarTeamChangeLogSet parse0(AbstractBuild aBuild,
                                              InputStream aChangeLogStream, String filePath) throws IOException {
 
-    ArrayList<StarTeamChangeLogEntry> changeLogEntries =
-        new ArrayList<StarTeamChangeLogEntry>();
-
-    SAXReader reader = new SAXReader();
-    Document changeDoc = null;
-    StarTeamChangeLogSet changeLogSet =
-        new StarTeamChangeLogSet(aBuild, changeLogEntries);
+    StarTeamChangeLogSet.Builder changeLogEntries = new StarTeamChangeLogSet.Builder();
 
     try {
-      changeDoc = reader.read(aChangeLogStream);
-
-      Node historyNode = changeDoc.selectSingleNode("/changelog");
-      if (historyNode == null) {
-        return changeLogSet;
-      }
-
-      List<Node> entries = historyNode.selectNodes("entry");
-      if (entries == null) {
-        return changeLogSet;
-      }
-
-      for (Node node : entries) {
-        StarTeamChangeLogEntry change = new StarTeamChangeLogEntry();
-
-        if (node.selectSingleNode("fileName") != null) {
-          change
-              .setFileName(node.selectSingleNode("fileName").getStringValue());
+      XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(aChangeLogStream);
+      try {
+        nextTag(reader);
+        if (!"changelog".equals(reader.getLocalName())) {
+          return changeLogEntries.build(aBuild);
         }
-        if (node.selectSingleNode("revisionNumber") != null) {
-          change.setRevisionNumber(Integer.parseInt((node
-              .selectSingleNode("revisionNumber").getStringValue())));
+        SimpleDateFormat dateFormat = TIME_FORMATTER.get();
+        StringBuilder text = new StringBuilder();
+        while (nextTag(reader) == XMLStreamConstants.START_ELEMENT) {
+          if (!"entry".equals(reader.getLocalName())) {
+            skipElement(reader, null);
+            continue;
+          }
+          StarTeamChangeLogEntry change = new StarTeamChangeLogEntry();
+          Set<String> seen = new HashSet<String>();
+          while (nextTag(reader) == XMLStreamConstants.START_ELEMENT) {
+            String name = reader.getLocalName();
+            text.setLength(0);
+            skipElement(reader, text);
+            if (!seen.add(name)) {
+              continue;
+            }
+            String value = text.toString();
+            if ("fileName".equals(name)) {
+              change.setFileName(value);
+            } else if ("revisionNumber".equals(name)) {
+              change.setRevisionNumber(Integer.parseInt(value));
+            } else if ("date".equals(name)) {
+              change.setDate(dateFormat.parse(value));
+            } else if ("message".equals(name)) {
+              change.setMsg(value);
+            } else if ("user".equals(name)) {
+              change.setUsername(value);
+            } else if ("changeType".equals(name)) {
+              change.setChangeType(value);
+            }
+          }
+          changeLogEntries.add(change);
         }
-
-        if (node.selectSingleNode("date") != null) {
-          change.setDate(TIME_FORMATTER.get().parse(
-              node.selectSingleNode("date").getStringValue()));
-        }
-
-        if (node.selectSingleNode("message") != null) {
-          change.setMsg(node.selectSingleNode("message").getStringValue());
-        }
-
-        if (node.selectSingleNode("user") != null) {
-          change.setUsername(node.selectSingleNode("user").getStringValue());
-        }
-
-        if (node.selectSingleNode("changeType") != null) {
-          change.setChangeType(node.selectSingleNode("changeType")
-              .getStringValue());
-        }
-
-        change.setParent(changeLogSet); // Assign Parent
-        changeLogEntries.add(change);
+      } finally {
+        reader.close();
       }
     } catch (Exception e) {
       throw new IOException("Failed to parse changelog file"
           + (filePath != null ? filePath : "") + ": " + e.getMessage(), e);
     }
-    return changeLogSet;
+    return changeLogEntries.build(aBuild);
+  }
+
+  /**
+   * Moves to the next start or end element, as {@link XMLStreamReader#nextTag} does, but
+   * skips text between elements instead of failing on it, as the SAX parser did before.
+   *
+   * @return the event the reader is positioned on
+   */
+  private static int nextTag(XMLStreamReader reader) throws XMLStreamException {
+    int event = reader.next();
+    while (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+      if (event == XMLStreamConstants.END_DOCUMENT) {
+        throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+      }
+      event = reader.next();
+    }
+    return event;
+  }
+
+  /**
+   * Moves past the end of the current element.
+   *
+   * @param reader positioned on a start element
+   * @param text   receives the text of the element and its descendants, or null
+   */
+  private static void skipElement(XMLStreamReader reader, StringBuilder text) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          if (text != null) {
+            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          }
+          break;
+        default:
+          break;
+      }
+    }
   }
 }
@@ -3,21 +3,50 @@ package hudson.plugins.starteam.community;
 import hudson.model.AbstractBuild;
 import hudson.scm.ChangeLogSet;
 
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
  * Implementation of {@link ChangeLogSet} for StarTeam SCM.
  * </p>
+ * <p>
+ * Builds stay loaded on the master, so the entries are not kept as objects: each field is
+ * stored in its own array, with user names, messages and change types stored once in a
+ * string table and referenced by index. Entries are created when they are read, and the
+ * views can ask for a single page of them.
+ * </p>
  *
  * @author Eric D. Broyles
  * @version 1.0
  */
 public class StarTeamChangeLogSet extends ChangeLogSet<StarTeamChangeLogEntry> {
 
-  private List<StarTeamChangeLogEntry> history = null;
+  /**
+   * Number of entries the change summary of a build shows.
+   */
+  public static final int DIGEST_SIZE = 50;
+
+  /**
+   * Number of entries per page of the changes page.
+   */
+  public static final int PAGE_SIZE = 500;
+
+  private static final long NO_DATE = Long.MIN_VALUE;
+
+  private final int size;
+  private final String[] fileNames;
+  private final int[] revisionNumbers;
+  private final long[] dates;
+  private final int[] usernames;
+  private final int[] msgs;
+  private final int[] changeTypes;
+  private final String[] strings;
 
   /**
    * default constructor for log set.
@@ -27,29 +56,189 @@ public class StarTeamChangeLogSet extends ChangeLogSet<StarTeamChangeLogEntry> {
    */
   public StarTeamChangeLogSet(AbstractBuild<?, ?> aBuild,
                               List<StarTeamChangeLogEntry> logs) {
+    this(aBuild, builder(logs));
+  }
+
+  private StarTeamChangeLogSet(AbstractBuild<?, ?> aBuild, Builder builder) {
     super(aBuild);
-    this.history = Collections.unmodifiableList(logs);
+    this.size = builder.size;
+    this.fileNames = Arrays.copyOf(builder.fileNames, size);
+    this.revisionNumbers = Arrays.copyOf(builder.revisionNumbers, size);
+    this.dates = Arrays.copyOf(builder.dates, size);
+    this.usernames = Arrays.copyOf(builder.usernames, size);
+    this.msgs = Arrays.copyOf(builder.msgs, size);
+    this.changeTypes = Arrays.copyOf(builder.changeTypes, size);
+    this.strings = builder.strings.toArray();
+  }
+
+  private static Builder builder(List<StarTeamChangeLogEntry> logs) {
+    Builder builder = new Builder();
+    for (StarTeamChangeLogEntry log : logs) {
+      builder.add(log);
+    }
+    return builder;
   }
 
   @Override
   public boolean isEmptySet() {
-    return history.isEmpty();
+    return size == 0;
+  }
+
+  /**
+   * @return the number of log entries.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  public int getDigestSize() {
+    return DIGEST_SIZE;
+  }
+
+  public int getPageSize() {
+    return PAGE_SIZE;
+  }
+
+  /**
+   * @param start the start index requested by the changes page, may be null or invalid
+   * @return the first index of the page holding that index
+   */
+  public int getPageStart(String start) {
+    int index = 0;
+    if (start != null) {
+      try {
+        index = Math.max(0, Math.min(Integer.parseInt(start.trim()), size - 1));
+      } catch (NumberFormatException e) {
+        index = 0;
+      }
+    }
+    return index - index % PAGE_SIZE;
   }
 
   /**
    * return an iterator over all change log entries.
    */
   public Iterator<StarTeamChangeLogEntry> iterator() {
-    return history.iterator();
+    return getHistory().iterator();
   }
 
   /**
    * Return the history for this change log set.
    *
-   * @return a List of all log entries
+   * @return a List of all log entries, each created when it is read
    */
   public List<StarTeamChangeLogEntry> getHistory() {
-    return history;
+    return getPage(0, size);
+  }
+
+  /**
+   * Return part of the history for this change log set.
+   *
+   * @param start the index of the first entry
+   * @param count the maximum number of entries
+   * @return the log entries from start on, each created when it is read
+   */
+  public List<StarTeamChangeLogEntry> getPage(int start, int count) {
+    final int from = Math.max(0, Math.min(start, size));
+    final int to = (int) Math.min((long) from + Math.max(0, count), size);
+    return new AbstractList<StarTeamChangeLogEntry>() {
+      @Override
+      public StarTeamChangeLogEntry get(int index) {
+        if (index < 0 || index >= to - from) {
+          throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return entry(from + index);
+      }
+
+      @Override
+      public int size() {
+        return to - from;
+      }
+    };
+  }
+
+  private StarTeamChangeLogEntry entry(int index) {
+    long date = dates[index];
+    StarTeamChangeLogEntry entry = new StarTeamChangeLogEntry(fileNames[index], revisionNumbers[index],
+        date == NO_DATE ? null : new Date(date), string(usernames[index]), string(msgs[index]),
+        string(changeTypes[index]));
+    entry.setParent(this);
+    return entry;
+  }
+
+  private String string(int index) {
+    return index < 0 ? null : strings[index];
   }
 
+  /**
+   * Collects entries into columns; used by the parser so that no list of entries is kept.
+   */
+  static final class Builder {
+    private int size;
+    private String[] fileNames = new String[16];
+    private int[] revisionNumbers = new int[16];
+    private long[] dates = new long[16];
+    private int[] usernames = new int[16];
+    private int[] msgs = new int[16];
+    private int[] changeTypes = new int[16];
+    private final StringTable strings = new StringTable();
+
+    /**
+     * Appends the fields of an entry, the entry itself is not kept.
+     *
+     * @param entry the entry to add
+     */
+    void add(StarTeamChangeLogEntry entry) {
+      if (size == fileNames.length) {
+        int capacity = size * 2;
+        fileNames = Arrays.copyOf(fileNames, capacity);
+        revisionNumbers = Arrays.copyOf(revisionNumbers, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        usernames = Arrays.copyOf(usernames, capacity);
+        msgs = Arrays.copyOf(msgs, capacity);
+        changeTypes = Arrays.copyOf(changeTypes, capacity);
+      }
+      fileNames[size] = entry.getFileName();
+      revisionNumbers[size] = entry.getRevisionNumber();
+      Date date = entry.getDate();
+      dates[size] = date == null ? NO_DATE : date.getTime();
+      usernames[size] = strings.indexOf(entry.getUsername());
+      // the entry reports a missing message as the empty string
+      msgs[size] = strings.indexOf(entry.getMsg());
+      changeTypes[size] = strings.indexOf(entry.getChangeType());
+      size++;
+    }
+
+    StarTeamChangeLogSet build(AbstractBuild<?, ?> aBuild) {
+      return new StarTeamChangeLogSet(aBuild, this);
+    }
+  }
+
+  /**
+   * Distinct strings by first occurrence, -1 stands for null.
+   */
+  private static final class StringTable {
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+    private String[] values = new String[16];
+
+    int indexOf(String value) {
+      if (value == null) {
+        return -1;
+      }
+      Integer index = indexes.get(value);
+      if (index == null) {
+        index = indexes.size();
+        if (index == values.length) {
+          values = Arrays.copyOf(values, index * 2);
+        }
+        values[index] = value;
+        indexes.put(value, index);
+      }
+      return index;
+    }
+
+    String[] toArray() {
+      return Arrays.copyOf(values, indexes.size());
+    }
+  }
 }
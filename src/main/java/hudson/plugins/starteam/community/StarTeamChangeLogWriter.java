@@ -0,0 +1,151 @@
+package hudson.plugins.starteam.community;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * Writes <tt>changelog.xml</tt> one entry at a time, in the format of
+ * {@link StarTeamChangeLogBuilder}, so that a change set can hand its entries over as they
+ * are computed instead of keeping them all until the checkout is done.
+ * <p>
+ * Values are escaped straight into the buffered writer through a reused character
+ * buffer. The first write failure is kept and thrown by {@link #close()}, so callers that
+ * cannot throw (the change set) can still add entries.
+ */
+final class StarTeamChangeLogWriter implements Closeable {
+
+  private static final int BUFFER_SIZE = 65536;
+
+  private final Writer writer;
+  private final SimpleDateFormat dateFormat;
+  private char[] chars = new char[256];
+  private int count;
+  private long nanos;
+  private IOException failure;
+  private boolean closed;
+
+  StarTeamChangeLogWriter(OutputStream outputStream) {
+    writer = new BufferedWriter(new OutputStreamWriter(outputStream, Charset.forName("UTF-8")), BUFFER_SIZE);
+    dateFormat = new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss");
+    dateFormat.setCalendar((GregorianCalendar) Calendar.getInstance());
+    dateFormat.setLenient(false);
+    try {
+      writer.write("<?xml version='1.0' encoding='UTF-8'?>\n<changelog>\n");
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+
+  /**
+   * Appends an entry.
+   *
+   * @param change the entry to write
+   */
+  void write(StarTeamChangeLogEntry change) {
+    if (failure != null) {
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      writer.write("\t<entry>\n");
+      element("fileName", change.getFileName());
+      element("revisionNumber", Integer.toString(change.getRevisionNumber()));
+      Date date = change.getDate();
+      element("date", date == null ? null : dateFormat.format(date));
+      element("message", change.getMsg());
+      element("user", change.getUsername());
+      element("changeType", change.getChangeType());
+      writer.write("\t</entry>\n");
+      count++;
+    } catch (IOException e) {
+      failure = e;
+    }
+    nanos += System.nanoTime() - start;
+  }
+
+  /**
+   * @return the number of entries written so far.
+   */
+  int getCount() {
+    return count;
+  }
+
+  /**
+   * @return the time spent writing entries so far, in nanoseconds.
+   */
+  long getNanos() {
+    return nanos;
+  }
+
+  private void element(String name, String value) throws IOException {
+    writer.write("\t\t<");
+    writer.write(name);
+    writer.write('>');
+    if (value != null) {
+      escape(value);
+    }
+    writer.write("</");
+    writer.write(name);
+    writer.write(">\n");
+  }
+
+  private void escape(String value) throws IOException {
+    int length = value.length();
+    if (length > chars.length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+    }
+    value.getChars(0, length, chars, 0);
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      String entity;
+      switch (chars[i]) {
+        case '<':
+          entity = "&lt;";
+          break;
+        case '>':
+          entity = "&gt;";
+          break;
+        case '&':
+          entity = "&amp;";
+          break;
+        default:
+          continue;
+      }
+      writer.write(chars, start, i - start);
+      writer.write(entity);
+      start = i + 1;
+    }
+    writer.write(chars, start, length - start);
+  }
+
+  /**
+   * Ends the document and closes the stream.
+   *
+   * @throws IOException if any write failed
+   */
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (failure == null) {
+        writer.write("</changelog>\n");
+      }
+    } finally {
+      writer.close();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
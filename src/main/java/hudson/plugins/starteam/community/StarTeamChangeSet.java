@@ -1,7 +1,5 @@
 package hudson.plugins.starteam.community;
 
-import com.starteam.File;
-
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -18,37 +16,63 @@ import java.util.Collection;
  * states, etc).  For this reason we persist a list of the filepoints used upon checkout in the
  * build folder.  This is then used to compare current v.s. historic and compute the changelist.
  * <p>
- * Changes to log: LogEntries for changes. This is information to be written to change log
+ * Changes to log: LogEntries for changes. This is information to be written to change log.
+ * When a {@link StarTeamChangeLogWriter} is set they are written as they are added rather
+ * than kept in memory.
+ * <p>
+ * Historic file points: the file points of the previous build, so the new ones can be
+ * stored as a delta to them.
  */
 public class StarTeamChangeSet {
 
   private boolean comparisonAvailable;
 
-  private Collection<java.io.File> filesToRemove = new ArrayList<java.io.File>();
+  private Collection<StarTeamPath> filesToRemove = new ArrayList<StarTeamPath>();
 
-  private Collection<File> filesToCheckout = new ArrayList<File>();
+  private Collection<StarTeamItem> filesToCheckout = new ArrayList<StarTeamItem>();
 
   private Collection<StarTeamFilePoint> filePointsToRemember = new ArrayList<StarTeamFilePoint>();
 
   private Collection<StarTeamChangeLogEntry> changes = new ArrayList<StarTeamChangeLogEntry>();
 
+  private StarTeamChangeLogWriter changeLogWriter;
+
+  private int changeCount;
+
+  private Collection<StarTeamFilePoint> historicFilePoints;
+
+  private int historicBuildNumber = -1;
+
+  private int historicDepth = -1;
+
+  private String storedFilePointsDigest;
+
+  private boolean storedAsDelta;
+
   public boolean hasChanges() {
-    return !changes.isEmpty();
+    return changeCount > 0;
+  }
+
+  /**
+   * @return the number of changes added, including the ones only written to the change log.
+   */
+  public int getChangeCount() {
+    return changeCount;
   }
 
-  public Collection<java.io.File> getFilesToRemove() {
+  public Collection<StarTeamPath> getFilesToRemove() {
     return filesToRemove;
   }
 
-  public void setFilesToRemove(Collection<java.io.File> filesToRemove) {
+  public void setFilesToRemove(Collection<StarTeamPath> filesToRemove) {
     this.filesToRemove = filesToRemove;
   }
 
-  public Collection<File> getFilesToCheckout() {
+  public Collection<StarTeamItem> getFilesToCheckout() {
     return filesToCheckout;
   }
 
-  public void setFilesToCheckout(Collection<File> filesToCheckout) {
+  public void setFilesToCheckout(Collection<StarTeamItem> filesToCheckout) {
     this.filesToCheckout = filesToCheckout;
   }
 
@@ -60,6 +84,51 @@ public class StarTeamChangeSet {
     return filePointsToRemember;
   }
 
+  public Collection<StarTeamFilePoint> getHistoricFilePoints() {
+    return historicFilePoints;
+  }
+
+  public void setHistoricFilePoints(Collection<StarTeamFilePoint> historicFilePoints) {
+    this.historicFilePoints = historicFilePoints;
+  }
+
+  public int getHistoricBuildNumber() {
+    return historicBuildNumber;
+  }
+
+  public int getHistoricDepth() {
+    return historicDepth;
+  }
+
+  /**
+   * @param historicBuildNumber the number of the build the historic file points belong to
+   * @param historicDepth       the delta depth of its file points, 0 if they are stored in full
+   */
+  public void setHistoricBuild(int historicBuildNumber, int historicDepth) {
+    this.historicBuildNumber = historicBuildNumber;
+    this.historicDepth = historicDepth;
+  }
+
+  /**
+   * @return the MD5 of the file the file points were stored in by the checkout, or null if
+   * they were not stored
+   */
+  public String getStoredFilePointsDigest() {
+    return storedFilePointsDigest;
+  }
+
+  /**
+   * @return true if the file points were stored as a delta to the historic ones
+   */
+  public boolean isStoredAsDelta() {
+    return storedAsDelta;
+  }
+
+  void setStoredFilePoints(String digest, boolean delta) {
+    this.storedFilePointsDigest = digest;
+    this.storedAsDelta = delta;
+  }
+
   public boolean isComparisonAvailable() {
     return comparisonAvailable;
   }
@@ -68,10 +137,25 @@ public class StarTeamChangeSet {
     this.comparisonAvailable = comparisonAvailable;
   }
 
+  /**
+   * @param changeLogWriter where to write changes added from now on, instead of keeping them
+   */
+  void setChangeLogWriter(StarTeamChangeLogWriter changeLogWriter) {
+    this.changeLogWriter = changeLogWriter;
+  }
+
   public void addChange(StarTeamChangeLogEntry value) {
-    changes.add(value);
+    changeCount++;
+    if (changeLogWriter != null) {
+      changeLogWriter.write(value);
+    } else {
+      changes.add(value);
+    }
   }
 
+  /**
+   * @return the changes kept in memory, without the ones written to a change log writer.
+   */
   public Collection<StarTeamChangeLogEntry> getChanges() {
     return changes;
   }
@@ -79,7 +163,7 @@ public class StarTeamChangeSet {
   @Override
   public String toString() {
     final StringBuilder builder = new StringBuilder();
-    builder.append(" changes: ").append(changes.size());
+    builder.append(" changes: ").append(changeCount);
     return builder.toString();
   }
 }
@@ -1,7 +1,6 @@
 package hudson.plugins.starteam.community;
 
 import com.google.common.base.Strings;
-import com.starteam.Folder;
 import hudson.FilePath;
 import hudson.FilePath.FileCallable;
 import hudson.model.AbstractBuild;
@@ -12,6 +11,7 @@ import org.jenkinsci.remoting.RoleChecker;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.Collections;
 
 /**
  * A helper class for transparent checkout operations over the network. Can be
@@ -43,9 +43,11 @@ class StarTeamCheckoutActor implements FileCallable<Boolean>, Serializable {
   private final String foldername;
   private final String subfolder;
   private final StarTeamViewSelector config;
-  private final Collection<StarTeamFilePoint> historicFilePoints;
+  private final StarTeamFilePointReference historicFilePoints;
+  private final String job;
   private final FilePath filePointFilePath;
   private final int buildNumber;
+  private final int checkoutThreads;
 
   /**
    * Default constructor for the checkout actor.
@@ -66,6 +68,22 @@ class StarTeamCheckoutActor implements FileCallable<Boolean>, Serializable {
                                String passwd, boolean cleanupstate, String projectname, String viewname,
                                String foldername, String subfolder, StarTeamViewSelector config, FilePath changelogFile,
                                BuildListener listener, AbstractBuild<?, ?> build, FilePath filePointFilePath) {
+    this(hostname, port, agentHost, agentPort, user, passwd, cleanupstate, projectname, viewname, foldername,
+        subfolder, config, changelogFile, listener, build, filePointFilePath, 1);
+  }
+
+  /**
+   * Constructor for the checkout actor.
+   *
+   * @param checkoutThreads number of sessions checking out files in parallel
+   * @see #StarTeamCheckoutActor(String, int, String, int, String, String, boolean, String, String, String, String,
+   * StarTeamViewSelector, FilePath, BuildListener, AbstractBuild, FilePath)
+   */
+  public StarTeamCheckoutActor(String hostname, int port, String agentHost, int agentPort, String user,
+                               String passwd, boolean cleanupstate, String projectname, String viewname,
+                               String foldername, String subfolder, StarTeamViewSelector config, FilePath changelogFile,
+                               BuildListener listener, AbstractBuild<?, ?> build, FilePath filePointFilePath,
+                               int checkoutThreads) {
     this.hostname = hostname;
     this.port = port;
     this.agenthost = agentHost;
@@ -81,6 +99,7 @@ class StarTeamCheckoutActor implements FileCallable<Boolean>, Serializable {
     this.listener = listener;
     this.config = config;
     this.filePointFilePath = filePointFilePath;
+    this.checkoutThreads = checkoutThreads;
     // Would like to store build in its entirety, but it is not serializable.
     if (build == null) {
       this.buildNumber = -1;
@@ -88,25 +107,21 @@ class StarTeamCheckoutActor implements FileCallable<Boolean>, Serializable {
       this.buildNumber = build.getNumber();
     }
 
+    this.job = (build == null || build.getProject() == null) ? null : build.getProject().getFullName();
+
     // Previous versions stored the build object as a member of StarTeamCheckoutActor. AbstractBuild
     // objects are not serializable, therefore the starteam plugin would break when remoting to
     // another machine. Instead of storing the build object the information from the build object
-    // that is needed (historicFilePoints) is stored.
-
-    // Get a list of files that require updating
-    Collection<StarTeamFilePoint> starTeamFilePoints = null;
+    // that is needed (historicFilePoints) is stored. Only a reference to the file points is sent,
+    // the agent gets them from its cache or streams them from the master.
+    StarTeamFilePointReference reference = null;
     AbstractBuild<?, ?> lastBuild = (build == null) ? null : build.getPreviousBuild();
-    if (lastBuild != null) {
-      try {
-        File filePointFile = new File(lastBuild.getRootDir(), StarTeamConnection.FILE_POINT_FILENAME);
-        if (filePointFile.exists()) {
-          starTeamFilePoints = StarTeamFilePointFunctions.loadCollection(filePointFile);
-        }
-      } catch (IOException e) {
-        e.printStackTrace(listener.getLogger());
-      }
+    try {
+      reference = StarTeamFilePointReference.create(lastBuild);
+    } catch (IOException e) {
+      e.printStackTrace(listener.getLogger());
     }
-    this.historicFilePoints = starTeamFilePoints;
+    this.historicFilePoints = reference;
   }
 
   /*
@@ -121,6 +136,7 @@ class StarTeamCheckoutActor implements FileCallable<Boolean>, Serializable {
     StarTeamConnection connection = new StarTeamConnection(
         hostname, port, agenthost, agentport, user, passwd,
         projectname, viewname, foldername, config, cleanupstate);
+    connection.setCheckoutThreads(checkoutThreads);
     try {
       try {
         connection.initialize(buildNumber);
@@ -129,26 +145,49 @@ class StarTeamCheckoutActor implements FileCallable<Boolean>, Serializable {
         return false;
       }
       listener.getLogger().println("Initialized StarTeam connection. took " + (System.currentTimeMillis() - start) + " ms.");
+      listener.getLogger().println("StarTeam session pool " + StarTeamSessionPool.getInstance().getStatistics());
+      // before the files are listed, so that polls ask for what was modified after it
+      long serverTime = connection.getServerTimeMillis();
 
       listener.getLogger().println(String.format("Computing change set for %s-%s-%s", projectname, viewname, foldername));
 
       StarTeamChangeSet changeSet;
+      StarTeamFilePointCache cache = new StarTeamFilePointCache(workspace);
+      Collection<StarTeamFilePoint> historic = null;
+      if (historicFilePoints != null) {
+        try {
+          historic = cache.load(historicFilePoints, listener.getLogger());
+        } catch (IOException e) {
+          e.printStackTrace(listener.getLogger());
+        }
+      }
 
-      Folder rootFolder = connection.getRootFolder();
       File workFolder = Strings.isNullOrEmpty(subfolder) ? workspace : new File(workspace, subfolder.trim());
-      changeSet = connection.computeChangeSet(rootFolder, workFolder, historicFilePoints, listener.getLogger());
+      // changes are streamed to the change log while they are computed
+      listener.getLogger().println("creating change log file ");
+      StarTeamChangeLogWriter changeLogWriter = new StarTeamChangeLogWriter(changelog.write());
+      try {
+        changeSet = connection.computeChangeSet(workFolder, historic, listener.getLogger(), changeLogWriter);
+      } finally {
+        long closing = System.nanoTime();
+        closeChangeLog(changeLogWriter);
+        connection.getTimings().record(StarTeamPhaseTimings.Phase.CHANGELOG_WRITE, closing);
+      }
+      if (connection.getPopulateReport() != null) {
+        listener.getLogger().println("StarTeam " + connection.getPopulateReport());
+      }
+      if (historic != null) {
+        changeSet.setHistoricBuild(historicFilePoints.getBuildNumber(), historicFilePoints.getDepth());
+      }
       // Check 'em out
       listener.getLogger().println("performing checkout ...");
 
       connection.checkOut(changeSet, workFolder, listener.getLogger(), filePointFilePath);
-
-      listener.getLogger().println("creating change log file ");
-      try {
-        createChangeLog(changeSet, workFolder, changelog, listener, connection);
-      } catch (InterruptedException e) {
-        listener.getLogger().println("unable to create changelog file " + e.getMessage());
-        Thread.currentThread().interrupt();
-      }
+      cacheStoredFilePoints(cache, changeSet);
+      writeRevisionState(StarTeamRevisionState.ofFilePoints(changeSet.getFilePointsToRemember(), workFolder,
+          serverTime));
+      listener.getLogger().println("StarTeam " + connection.getTimings());
+      writeTimings(connection.getTimings());
     } catch (Exception e) {
       e.printStackTrace(listener.getLogger());
       return false;
@@ -161,46 +200,76 @@ class StarTeamCheckoutActor implements FileCallable<Boolean>, Serializable {
   }
 
   /**
-   * create the change log file.
-   *
-   * @param aRootFile      starteam root file
-   * @param aChangelogFile the file containing changes
-   * @param aListener      the build listener
-   * @param aConnection    the starteam connection.
-   * @return true if changelog file has been created, false if not.
-   * @throws IOException
-   * @throws InterruptedException
+   * Caches the file points just stored on the master, so that the next poll finds them here.
    */
-  protected boolean createChangeLog(
-      StarTeamChangeSet changes, File aRootFile,
-      FilePath aChangelogFile, BuildListener aListener, StarTeamConnection aConnection)
-      throws IOException, InterruptedException {
-
-
-    // create empty change log during call.
-    if (changes == null) {
-      listener.getLogger().println("last build date is null, creating an empty change log file");
-      createEmptyChangeLog(aChangelogFile, aListener, "log");
-      return true;
+  private void cacheStoredFilePoints(StarTeamFilePointCache cache, StarTeamChangeSet changeSet) {
+    String stored = changeSet.getStoredFilePointsDigest();
+    if (stored == null || buildNumber < 0) {
+      return;
     }
+    if (!changeSet.isStoredAsDelta()) {
+      cache.store(job, buildNumber, stored, changeSet.getFilePointsToRemember());
+    } else if (historicFilePoints != null) {
+      cache.store(job, buildNumber, StarTeamFilePointReference.chain(historicFilePoints.getDigest(), stored),
+          changeSet.getFilePointsToRemember());
+    }
+  }
 
-
-    OutputStream os = new BufferedOutputStream(aChangelogFile.write());
-
-    boolean created = false;
+  /**
+   * Stores the revision state next to the file points, for polling to compare with. Without
+   * it the next poll cannot compare and reports a change, which is no reason to fail the build.
+   */
+  private void writeRevisionState(StarTeamRevisionState state) throws InterruptedException {
+    FilePath file = filePointFilePath.sibling(StarTeamRevisionState.FILENAME);
     try {
-      created = StarTeamChangeLogBuilder.writeChangeLog(os, changes);
-    } catch (Exception ex) {
-      listener.getLogger().println("change log creation failed due to unexpected error : " + ex.getMessage());
-    } finally {
-      os.close();
+      Writer writer = new OutputStreamWriter(file.write(), Charset.forName("UTF-8"));
+      try {
+        state.write(writer);
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      listener.getLogger().println("unable to store the StarTeam revision state: " + e.getMessage());
+      try {
+        // a partly written state must not be compared with
+        file.delete();
+      } catch (IOException ignore) {
+        // the next poll finds it corrupt and lists the folder
+      }
     }
+  }
 
-    if (!created) {
-      createEmptyChangeLog(aChangelogFile, aListener, "log");
+  /**
+   * Stores the phase timings next to the file points, for the master to pick up. They are
+   * telemetry, failing to store them does not fail the build.
+   */
+  private void writeTimings(StarTeamPhaseTimings timings) throws InterruptedException {
+    try {
+      Writer writer = new OutputStreamWriter(filePointFilePath.sibling(StarTeamPhaseTimings.FILENAME).write(),
+          Charset.forName("UTF-8"));
+      try {
+        timings.writePrometheus(writer, Collections.<String, String>emptyMap());
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      listener.getLogger().println("unable to store the StarTeam timings: " + e.getMessage());
     }
+  }
 
-    return true;
+  /**
+   * Closes a streamed change log, replacing it by an empty one if it could not be written.
+   *
+   * @param changeLogWriter the writer the change set wrote to
+   * @throws InterruptedException
+   */
+  private void closeChangeLog(StarTeamChangeLogWriter changeLogWriter) throws InterruptedException {
+    try {
+      changeLogWriter.close();
+    } catch (IOException e) {
+      listener.getLogger().println("change log creation failed due to unexpected error : " + e.getMessage());
+      createEmptyChangeLog(changelog, listener, "log");
+    }
   }
 
   /**
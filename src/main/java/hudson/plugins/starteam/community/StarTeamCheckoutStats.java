@@ -0,0 +1,272 @@
+package hudson.plugins.starteam.community;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts what a checkout did: files, bytes, errors, the time each file took and the
+ * slowest files, and writes it as <tt>starteam-checkout.json</tt> next to the file points
+ * of the build.
+ * <p>
+ * Recording a file does not allocate: latencies go into a fixed log-linear histogram
+ * (32 buckets per power of two, so percentiles are within about 3%) and the slowest files
+ * into small fixed arrays. A recorder is used by one checkout listener; the recorders of
+ * a partitioned checkout are merged once they are done.
+ */
+final class StarTeamCheckoutStats {
+
+  static final String REPORT_FILENAME = "starteam-checkout.json";
+
+  static final int SLOWEST = 10;
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS;
+
+  private final int expected;
+  private final long startNanos;
+  private long endNanos;
+  private int files;
+  private int errors;
+  private long bytes;
+  private int partitions = 1;
+  private final int[] histogram = new int[BUCKETS];
+  private long maxNanos;
+
+  private int slowCount;
+  private final long[] slowNanos = new long[SLOWEST];
+  private final long[] slowBytes = new long[SLOWEST];
+  private final java.io.File[] slowFiles = new java.io.File[SLOWEST];
+  private int slowMin;
+
+  /**
+   * @param expected the number of files the checkout was asked for
+   */
+  StarTeamCheckoutStats(int expected) {
+    this.expected = expected;
+    this.startNanos = System.nanoTime();
+    this.endNanos = startNanos;
+  }
+
+  /**
+   * Records a file that has been checked out.
+   *
+   * @param file    the local file, kept only if it is among the slowest
+   * @param size    its size in bytes
+   * @param latency the time it took, in nanoseconds
+   */
+  void fileDone(java.io.File file, long size, long latency) {
+    files++;
+    bytes += size;
+    add(latency, 1);
+    slow(file, size, latency);
+    endNanos = System.nanoTime();
+  }
+
+  void error() {
+    errors++;
+  }
+
+  /**
+   * Adds the counts of another partition of the same checkout.
+   *
+   * @param other a recorder that is done
+   */
+  void merge(StarTeamCheckoutStats other) {
+    files += other.files;
+    errors += other.errors;
+    bytes += other.bytes;
+    partitions += other.partitions;
+    for (int i = 0; i < BUCKETS; i++) {
+      histogram[i] += other.histogram[i];
+    }
+    maxNanos = Math.max(maxNanos, other.maxNanos);
+    for (int i = 0; i < other.slowCount; i++) {
+      slow(other.slowFiles[i], other.slowBytes[i], other.slowNanos[i]);
+    }
+    endNanos = Math.max(endNanos, other.endNanos);
+  }
+
+  int getExpected() {
+    return expected;
+  }
+
+  int getFiles() {
+    return files;
+  }
+
+  int getErrors() {
+    return errors;
+  }
+
+  long getBytes() {
+    return bytes;
+  }
+
+  long getMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos);
+  }
+
+  /**
+   * @return the files checked out per second, from the start of the checkout to the last file
+   */
+  double getFilesPerSecond() {
+    return perSecond(files);
+  }
+
+  double getBytesPerSecond() {
+    return perSecond(bytes);
+  }
+
+  private double perSecond(long count) {
+    long nanos = endNanos - startNanos;
+    return nanos <= 0 ? 0 : count * 1e9 / nanos;
+  }
+
+  /**
+   * @param quantile between 0 and 1
+   * @return the latency in nanoseconds that this share of the files did not exceed
+   */
+  long getLatency(double quantile) {
+    if (files == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * files));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += histogram[i];
+      if (seen >= rank) {
+        return Math.min(highestValue(i), maxNanos);
+      }
+    }
+    return maxNanos;
+  }
+
+  private void add(long latency, int count) {
+    long value = Math.max(0, latency);
+    histogram[bucket(value)] += count;
+    if (value > maxNanos) {
+      maxNanos = value;
+    }
+  }
+
+  static int bucket(long value) {
+    int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1));
+    return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  static long highestValue(int bucket) {
+    if (bucket < 2 * HALF_SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / HALF_SUB_BUCKETS - 1;
+    long top = bucket - shift * HALF_SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+
+  private void slow(java.io.File file, long size, long latency) {
+    int slot;
+    if (slowCount < SLOWEST) {
+      slot = slowCount++;
+    } else if (latency > slowNanos[slowMin]) {
+      slot = slowMin;
+    } else {
+      return;
+    }
+    slowNanos[slot] = latency;
+    slowBytes[slot] = size;
+    slowFiles[slot] = file;
+    slowMin = 0;
+    for (int i = 1; i < slowCount; i++) {
+      if (slowNanos[i] < slowNanos[slowMin]) {
+        slowMin = i;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ENGLISH,
+        "%d files, %d bytes in %d ms (%.1f files/s, %.0f bytes/s), %d errors, latency p50 %.1f ms p95 %.1f ms p99 %.1f ms",
+        files, bytes, getMillis(), getFilesPerSecond(), getBytesPerSecond(), errors, millis(getLatency(0.5)),
+        millis(getLatency(0.95)), millis(getLatency(0.99)));
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  /**
+   * Writes the report as a JSON object.
+   *
+   * @param writer where to write, not closed
+   * @throws IOException if writing fails
+   */
+  void writeJson(Writer writer) throws IOException {
+    writer.write(String.format(Locale.ENGLISH,
+        "{\n  \"expectedFiles\": %d,\n  \"files\": %d,\n  \"errors\": %d,\n  \"bytes\": %d,\n"
+            + "  \"millis\": %d,\n  \"partitions\": %d,\n  \"filesPerSecond\": %.3f,\n  \"bytesPerSecond\": %.3f,\n"
+            + "  \"latencyMillis\": {\"p50\": %.3f, \"p95\": %.3f, \"p99\": %.3f, \"max\": %.3f},\n"
+            + "  \"slowest\": [",
+        expected, files, errors, bytes, getMillis(), partitions, getFilesPerSecond(), getBytesPerSecond(),
+        millis(getLatency(0.5)), millis(getLatency(0.95)), millis(getLatency(0.99)), millis(maxNanos)));
+    Integer[] order = new Integer[slowCount];
+    for (int i = 0; i < slowCount; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        long n1 = slowNanos[o1];
+        long n2 = slowNanos[o2];
+        return n1 > n2 ? -1 : (n1 == n2 ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < order.length; i++) {
+      int slot = order[i];
+      writer.write(i == 0 ? "\n    {\"file\": " : ",\n    {\"file\": ");
+      string(writer, slowFiles[slot] == null ? null : slowFiles[slot].getPath());
+      writer.write(String.format(Locale.ENGLISH, ", \"millis\": %.3f, \"bytes\": %d}", millis(slowNanos[slot]),
+          slowBytes[slot]));
+    }
+    writer.write(order.length == 0 ? "]\n}\n" : "\n  ]\n}\n");
+  }
+
+  private static void string(Writer writer, String value) throws IOException {
+    if (value == null) {
+      writer.write("null");
+      return;
+    }
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          writer.write("\\\"");
+          break;
+        case '\\':
+          writer.write("\\\\");
+          break;
+        case '\n':
+          writer.write("\\n");
+          break;
+        case '\r':
+          writer.write("\\r");
+          break;
+        case '\t':
+          writer.write("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            writer.write(String.format("\\u%04x", (int) c));
+          } else {
+            writer.write(c);
+          }
+      }
+    }
+    writer.write('"');
+  }
+}
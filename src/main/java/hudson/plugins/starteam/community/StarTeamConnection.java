@@ -11,15 +11,21 @@ import com.starteam.events.CheckoutListener;
 import com.starteam.exceptions.DuplicateServerListEntryException;
 import com.starteam.exceptions.LogonException;
 import com.starteam.util.DateTime;
-import com.starteam.util.MD5;
 import hudson.FilePath;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import java.io.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.text.NumberFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * StarTeamActor is a class that implements connecting to a StarTeam repository,
@@ -35,7 +41,46 @@ import java.util.*;
 public class StarTeamConnection implements Serializable {
   private static final long serialVersionUID = 1L;
 
-  public static final String FILE_POINT_FILENAME = "starteam-filepoints.csv";
+  public static final String FILE_POINT_FILENAME = "starteam-filepoints.dat";
+  /**
+   * File points of builds made before the binary format, still read if present.
+   */
+  public static final String LEGACY_FILE_POINT_FILENAME = "starteam-filepoints.csv";
+  /**
+   * File points stored as the difference to an earlier build, see {@link StarTeamFilePointDelta}.
+   */
+  public static final String FILE_POINT_DELTA_FILENAME = "starteam-filepoints.delta";
+  /**
+   * A partitioned checkout gives every session at least this many files.
+   */
+  static final int MIN_FILES_PER_PARTITION = 500;
+  /**
+   * The most sessions a partitioned checkout opens, whatever the job asks for.
+   */
+  private static final int MAX_CHECKOUT_THREADS = Math.max(1,
+      Integer.getInteger(StarTeamConnection.class.getName() + ".maxCheckoutThreads", 8));
+  /**
+   * Settings of a {@link SimulatedStarTeamRepository} all connections use instead of the server.
+   */
+  private static final String SIMULATOR = System.getProperty(StarTeamConnection.class.getName() + ".simulator");
+
+  /**
+   * Set to true to list every file on every poll.
+   */
+  private static final boolean FULL_POLLING = Boolean.getBoolean(StarTeamConnection.class.getName() + ".fullPolling");
+
+  /**
+   * How much earlier than the last listing a poll looks for modified files, for revisions
+   * being committed while it listed.
+   */
+  private static final long MODIFIED_SINCE_MARGIN_MILLIS = 1000L * Long.getLong(
+      StarTeamConnection.class.getName() + ".modifiedSinceMarginSeconds", 60L);
+
+  /**
+   * How many polls in a row may find nothing changed without listing every file.
+   */
+  static final int MAX_UNLISTED_POLLS = Integer.getInteger(
+      StarTeamConnection.class.getName() + ".maxUnlistedPolls", 10);
   private SimpleDateFormat sdf = new SimpleDateFormat("MM/dd HH:mm:ss");
   private final String hostName;
   private final int port;
@@ -49,11 +94,14 @@ public class StarTeamConnection implements Serializable {
   private final StarTeamViewSelector configSelector;
   private final boolean cleanupstate;
 
-  private transient Server server;
-  private transient View view;
-  private transient Folder rootFolder;
-  private transient Project project;
-  private transient boolean canReadUserAccts = true;
+  private transient StarTeamRepository repository;
+  private transient StarTeamRepository.Snapshot snapshot;
+  private transient int buildNumber = -1;
+  private transient StarTeamPhaseTimings timings;
+  private transient long userResolutionNanos;
+  private int checkoutThreads = 1;
+  // partitions open sessions of their own, a build must not wait on the pool it holds a lease of
+  private transient boolean pooled = true;
 
   static {
     try {
@@ -90,7 +138,9 @@ public class StarTeamConnection implements Serializable {
   public StarTeamConnection(String hostName, int port, String agentHost, int agentPort, String userName,
                             String password, String projectName, String viewName, String folderName,
                             StarTeamViewSelector configSelector, boolean cleanupstate) {
-    checkParameters(hostName, port, userName, password, projectName, viewName, folderName);
+    checkParameters(hostName, port, userName, password, projectName, viewName);
+    if (null == folderName)
+      throw new NullPointerException("folderName cannot be null");
     this.hostName = hostName;
     this.port = port;
     this.userName = userName;
@@ -104,6 +154,26 @@ public class StarTeamConnection implements Serializable {
     this.cleanupstate = cleanupstate;
   }
 
+  /**
+   * A connection to a whole view, without a folder, which only opens sessions with
+   * {@link #openUnpooledSession()} and is never initialized.
+   */
+  StarTeamConnection(String hostName, int port, String agentHost, int agentPort, String userName, String password,
+                     String projectName, String viewName) {
+    checkParameters(hostName, port, userName, password, projectName, viewName);
+    this.hostName = hostName;
+    this.port = port;
+    this.userName = userName;
+    this.password = password;
+    this.projectName = projectName;
+    this.viewName = viewName;
+    this.folderName = null;
+    this.configSelector = null;
+    this.agentHost = agentHost;
+    this.agentPort = agentPort;
+    this.cleanupstate = false;
+  }
+
   public StarTeamConnection(StarTeamConnection oldConnection, StarTeamViewSelector configSelector) {
     this(oldConnection.hostName, oldConnection.port, oldConnection.userName, oldConnection.password,
         oldConnection.projectName, oldConnection.viewName, oldConnection.folderName, configSelector);
@@ -148,7 +218,7 @@ public class StarTeamConnection implements Serializable {
   }
 
   private void checkParameters(String hostName, int port, String userName, String password, String projectName,
-                               String viewName, String folderName) {
+                               String viewName) {
     if (null == hostName)
       throw new NullPointerException("hostName cannot be null");
     if (null == userName)
@@ -159,8 +229,6 @@ public class StarTeamConnection implements Serializable {
       throw new NullPointerException("projectName cannot be null");
     if (null == viewName)
       throw new NullPointerException("viewName cannot be null");
-    if (null == folderName)
-      throw new NullPointerException("folderName cannot be null");
 
     if ((port < 1) || (port > 65535))
       throw new IllegalArgumentException("Invalid port: " + port);
@@ -174,6 +242,10 @@ public class StarTeamConnection implements Serializable {
    * @throws StarTeamSCMException if logging on fails.
    */
   public void initialize(int buildNumber) throws StarTeamSCMException {
+    if (folderName == null) {
+      throw new IllegalStateException("A connection to the whole view " + viewName + " has no folder to initialize");
+    }
+    this.buildNumber = buildNumber;
     /*
      * Identify this as the StarTeam Hudson Plugin so that it can support the
      * new AppControl capability in StarTeam 2009 which allows a StarTeam
@@ -185,35 +257,101 @@ public class StarTeamConnection implements Serializable {
      */
     // Application.setName("StarTeam Plugin for Jenkins");
 
-    server = new Server(createServerInfo());
-    server.connect();
+    if (repository == null && SIMULATOR != null) {
+      repository = SimulatedStarTeamRepository.shared(SIMULATOR);
+    }
+    if (repository != null) {
+      snapshot = repository.open(projectName, viewName, folderName, configSelector, buildNumber, getTimings());
+    } else {
+      snapshot = openServerSnapshot(buildNumber);
+    }
+  }
+
+  /**
+   * Lease a session to the server, configure its view and find the folder.
+   *
+   * @param buildNumber a job build number, or -1 if not associated with a job.
+   * @return the folder on the server.
+   * @throws StarTeamSCMException if logging on fails.
+   */
+  private ServerSnapshot openServerSnapshot(int buildNumber) throws StarTeamSCMException {
+    final StarTeamPhaseTimings timings = getTimings();
+    final StarTeamSessionPool.Key key = new StarTeamSessionPool.Key(hostName, port, userName, password,
+        projectName, viewName, configSelector);
+    ServerSnapshot opened = new ServerSnapshot(!pooled ? openSession(key)
+        : StarTeamSessionPool.getInstance().lease(key, new StarTeamSessionPool.SessionFactory() {
+          public StarTeamSession open() throws StarTeamSCMException {
+            return openSession(key);
+          }
+        }), pooled);
+    long mark = System.nanoTime();
     try {
-      server.logOn(userName, password);
+      opened.view = opened.session.configureView(configSelector, buildNumber);
+      mark = timings.record(StarTeamPhaseTimings.Phase.VIEW_CONFIGURATION, mark);
+    } catch (StarTeamSCMException e) {
+      opened.release(false);
+      throw e;
+    }
+    try {
+      opened.rootFolder = StarTeamFunctions.findFolderInView(opened.view, folderName);
+      // the folder outlives this connection when the session is pooled, see close()
+      opened.rootAlternatePath = opened.rootFolder.getAlternatePathFragment();
+      timings.record(StarTeamPhaseTimings.Phase.PROJECT_VIEW_LOOKUP, mark);
+      // populated when the files are listed, polls may need less
+      return opened;
+    } catch (StarTeamSCMException e) {
+      opened.release(true);
+      throw e;
+    } catch (RuntimeException e) {
+      opened.release(false);
+      throw e;
+    }
+  }
+
+  /**
+   * Connect and log on to the server outside the {@link StarTeamSessionPool}, for a session
+   * kept open as long as its owner needs it.
+   *
+   * @return a new session, not yet configured.
+   * @throws StarTeamSCMException if logging on fails.
+   */
+  StarTeamSession openUnpooledSession() throws StarTeamSCMException {
+    return openSession(new StarTeamSessionPool.Key(hostName, port, userName, password, projectName, viewName,
+        configSelector));
+  }
+
+  /**
+   * Connect and log on to the server, then find the project and view.
+   *
+   * @param key the pool key of the new session
+   * @return a new session, not yet configured.
+   * @throws StarTeamSCMException if logging on fails.
+   */
+  private StarTeamSession openSession(StarTeamSessionPool.Key key) throws StarTeamSCMException {
+    StarTeamPhaseTimings timings = getTimings();
+    long mark = System.nanoTime();
+    Server newServer = new Server(createServerInfo());
+    newServer.connect();
+    mark = timings.record(StarTeamPhaseTimings.Phase.CONNECT, mark);
+    try {
+      newServer.logOn(userName, password);
     } catch (LogonException e) {
+      newServer.disconnect();
       throw new StarTeamSCMException("Could not log on: " + e.getErrorMessage());
     }
-    if (server.isMPXAvailable()) {
-      server.locateCacheAgent(agentHost, agentPort);
+    if (newServer.isMPXAvailable()) {
+      newServer.locateCacheAgent(agentHost, agentPort);
     }
-    project = findProjectOnServer(server, projectName);
-    view = findViewInProject(project, viewName);
-    if (configSelector != null) {
-      View configuredView = null;
-      try {
-        configuredView = configSelector.configView(view, buildNumber);
-      } catch (ParseException e) {
-        throw new StarTeamSCMException("Could not correctly parse configuration date: " + e.getMessage());
-      }
-      if (configuredView != null) {
-        view = configuredView;
-      }
+    mark = timings.record(StarTeamPhaseTimings.Phase.LOGON, mark);
+    try {
+      Project newProject = findProjectOnServer(newServer, projectName);
+      View newView = findViewInProject(newProject, viewName);
+      timings.record(StarTeamPhaseTimings.Phase.PROJECT_VIEW_LOOKUP, mark);
+      return new StarTeamSession(key, newServer, newProject, newView);
+    } catch (StarTeamSCMException e) {
+      newServer.disconnect();
+      throw e;
     }
-    rootFolder = StarTeamFunctions.findFolderInView(view, folderName);
-
-    rootFolder.populate(server.getTypes().FILE, -1);
-    // rootFolder.populate(server.getTypes().FILE, filePropertyCollection, -1);
-    rootFolder.populate(server.getTypes().FOLDER, -1);
-
   }
 
   /**
@@ -231,7 +369,7 @@ public class StarTeamConnection implements Serializable {
 
     logger.println("*** " + sdf.format(new Date()) + " Performing checkout on [" + changeSet.getFilesToCheckout().size() + "] files");
 
-    List<File> filesToCheckout = new ArrayList<File>();
+    List<StarTeamItem> filesToCheckout = new ArrayList<StarTeamItem>();
 
     filesToCheckout.addAll(changeSet.getFilesToCheckout());
     boolean quietCheckout = filesToCheckout.size() >= 2000;
@@ -241,29 +379,19 @@ public class StarTeamConnection implements Serializable {
           ", see " + file.getAbsolutePath() + " for " + "details");
       FileUtils.writeLines(file, filesToCheckout);
     }
-    com.starteam.CheckoutOptions coOptions = new com.starteam.CheckoutOptions(view);
-    coOptions.setLockType(Item.LockType.UNLOCKED);
-    coOptions.setEOLFormat(EOLFormat.PLATFORM);
-    coOptions.setUpdateStatus(true);
-    coOptions.setTimeStampNow(false);
-    coOptions.setForceCheckout(true);
-    coOptions.setMarkUnlockedFilesReadOnly(false);
-    CheckoutManager coManager = view.createCheckoutManager(coOptions);
-    if (coManager.getView().getProject().getServer().getServerInfo().getEnableCacheAgentForFileContent()) {
-      logger.println("*** " + sdf.format(new Date()) + " Enabled cache agent for file content.");
-    }
-    CheckoutListenerImpl colistener = new CheckoutListenerImpl(logger);
-    colistener.setUpdateLastModifyDate(!coOptions.getTimeStampNow());
-    coManager.addCheckoutListener(colistener);
-
-    coManager.checkout(filesToCheckout.toArray(new File[0]));
-    if (coManager.canCommit()) {
-      logger.println("*** " + sdf.format(new Date()) + " checked out request commit");
-      coManager.commit();
-      logger.println("*** " + sdf.format(new Date()) + " checked out request committed");
+    StarTeamPhaseTimings timings = getTimings();
+    long mark = System.nanoTime();
+    int partitions = Math.min(Math.min(checkoutThreads, MAX_CHECKOUT_THREADS),
+        filesToCheckout.size() / MIN_FILES_PER_PARTITION);
+    StarTeamCheckoutStats stats;
+    if (partitions > 1) {
+      stats = checkOutPartitioned(filesToCheckout, partitions, workFolder, logger);
     } else {
-      logger.println("*** " + sdf.format(new Date()) + " checked out not commit");
+      stats = checkOutFiles(snapshot, filesToCheckout, logger, "");
     }
+    logger.println("*** " + sdf.format(new Date()) + " checked out " + stats);
+    writeCheckoutReport(stats, filePointFilePath.sibling(StarTeamCheckoutStats.REPORT_FILENAME), logger);
+    mark = timings.record(StarTeamPhaseTimings.Phase.CHECKOUT, mark);
 
     if (cleanupstate) {
       logger.println("*** " + sdf.format(new Date()) + " removing [" + changeSet.getFilesToRemove().size() + "] files");
@@ -274,14 +402,21 @@ public class StarTeamConnection implements Serializable {
             ", see " + file.getAbsolutePath() + " for remove file list");
         FileUtils.writeLines(file, changeSet.getFilesToRemove());
       }
-      for (java.io.File f : changeSet.getFilesToRemove()) {
-        if (f.exists()) {
-          if (!quietDelete) {
-            logger.println("*** " + sdf.format(new Date()) + " [remove] [" + f + "]");
+      if (StarTeamWorkspaceTrash.ENABLED) {
+        StarTeamWorkspaceTrash.Result result = new StarTeamWorkspaceTrash(workFolder)
+            .moveToTrash(changeSet.getFilesToRemove());
+        logger.println("*** " + sdf.format(new Date()) + " [remove] " + result);
+      } else {
+        for (StarTeamPath path : changeSet.getFilesToRemove()) {
+          java.io.File f = path.toFile();
+          if (f.exists()) {
+            if (!quietDelete) {
+              logger.println("*** " + sdf.format(new Date()) + " [remove] [" + f + "]");
+            }
+            f.delete();
+          } else {
+            logger.println("*** " + sdf.format(new Date()) + " [remove:warn] Planned to remove [" + f + "]");
           }
-          f.delete();
-        } else {
-          logger.println("*** " + sdf.format(new Date()) + " [remove:warn] Planned to remove [" + f + "]");
         }
       }
     } else {
@@ -292,76 +427,302 @@ public class StarTeamConnection implements Serializable {
         FileUtils.writeLines(file, changeSet.getFilesToRemove());
       }
     }
-    logger.println("*** " + sdf.format(new Date()) + " storing change set");
+    mark = timings.record(StarTeamPhaseTimings.Phase.CLEANUP, mark);
     OutputStream os = null;
+    MessageDigest stored = StarTeamFilePointReference.md5();
+    boolean storedAsDelta = false;
     try {
-      os = new BufferedOutputStream(filePointFilePath.write());
-      StarTeamFilePointFunctions.storeCollection(os, changeSet.getFilePointsToRemember());
+      int depth = changeSet.getHistoricDepth() + 1;
+      if (changeSet.getHistoricFilePoints() != null && changeSet.getHistoricBuildNumber() >= 0
+          && changeSet.getHistoricDepth() >= 0 && depth <= StarTeamFilePointFunctions.getMaxDeltaDepth()) {
+        StarTeamFilePointDelta delta = StarTeamFilePointDelta.compute(changeSet.getHistoricBuildNumber(), depth,
+            changeSet.getHistoricFilePoints(), changeSet.getFilePointsToRemember());
+        logger.println("*** " + sdf.format(new Date()) + " storing change set as delta to build #"
+            + changeSet.getHistoricBuildNumber() + " (depth " + depth + ", " + delta.getChanged().size()
+            + " changed, " + delta.getRemoved().size() + " removed)");
+        os = new BufferedOutputStream(new DigestOutputStream(
+            filePointFilePath.sibling(FILE_POINT_DELTA_FILENAME).write(), stored));
+        delta.write(os);
+        storedAsDelta = true;
+      } else {
+        logger.println("*** " + sdf.format(new Date()) + " storing change set");
+        os = new BufferedOutputStream(new DigestOutputStream(filePointFilePath.write(), stored));
+        StarTeamFilePointFunctions.storeCollection(os, changeSet.getFilePointsToRemember());
+      }
     } catch (InterruptedException e) {
       logger.println("*** " + sdf.format(new Date()) + " unable to store change set " + e.getMessage());
+      stored = null;
     } finally {
       if (os != null) {
         os.close();
       }
+      timings.record(StarTeamPhaseTimings.Phase.FILE_POINT_STORE, mark);
+    }
+    if (stored != null) {
+      changeSet.setStoredFilePoints(StarTeamFilePointReference.toHex(stored.digest()), storedAsDelta);
     }
     logger.println("*** " + sdf.format(new Date()) + " checkout done. used " + (System.currentTimeMillis() - startTime) + "ms.");
   }
 
-  private static class CheckoutListenerImpl implements CheckoutListener {
+  /**
+   * Check out files of the given snapshot.
+   *
+   * @param checkoutSnapshot the snapshot the files were listed by
+   * @param files            the files to check out
+   * @param logger           the build log
+   * @param prefix           prepended to the log lines, to tell partitions apart
+   * @return what the checkout did
+   */
+  private StarTeamCheckoutStats checkOutFiles(StarTeamRepository.Snapshot checkoutSnapshot, List<StarTeamItem> files,
+                                              PrintStream logger, String prefix) throws IOException {
+    CheckoutListenerImpl colistener = new CheckoutListenerImpl(logger, prefix, files.size());
+    checkoutSnapshot.checkOut(files, colistener, logger, prefix);
+    return colistener.getStats();
+  }
+
+  /**
+   * Splits the files over several sessions, each checking out and committing its share.
+   * The first share is checked out by this connection, the others by connections of
+   * their own, outside the session pool, that look the files up by path in their own view.
+   * A file whose revision there is not the one listed by this connection, because it was
+   * committed to since, is left to this connection, so the build checks out what its file
+   * points and change log record.
+   *
+   * @return what the checkout did, over all shares
+   * @throws IOException if any share failed, after all of them are done
+   */
+  private StarTeamCheckoutStats checkOutPartitioned(List<StarTeamItem> filesToCheckout, int partitions,
+                                                    final java.io.File workFolder, final PrintStream logger)
+      throws IOException {
+    final List<List<StarTeamItem>> shares = partition(filesToCheckout, partitions);
+    logger.println("*** " + sdf.format(new Date()) + " Checking out in " + partitions + " partitions of about "
+        + shares.get(0).size() + " files");
+    ExecutorService executor = Executors.newFixedThreadPool(partitions - 1);
+    List<Future<StarTeamCheckoutStats>> futures = new ArrayList<Future<StarTeamCheckoutStats>>();
+    final List<StarTeamItem> leftOver = Collections.synchronizedList(new ArrayList<StarTeamItem>());
+    try {
+      for (int i = 1; i < partitions; i++) {
+        final int partition = i;
+        final List<StarTeamItem> share = shares.get(i);
+        futures.add(executor.submit(new Callable<StarTeamCheckoutStats>() {
+          public StarTeamCheckoutStats call() throws Exception {
+            return checkOutInOwnSession(share, workFolder, logger, " [partition " + (partition + 1) + "]", leftOver);
+          }
+        }));
+      }
+      List<String> failures = new ArrayList<String>();
+      StarTeamCheckoutStats stats = new StarTeamCheckoutStats(filesToCheckout.size());
+      try {
+        stats = checkOutFiles(snapshot, shares.get(0), logger, " [partition 1]");
+      } catch (IOException e) {
+        e.printStackTrace(logger);
+        failures.add("partition 1: " + e);
+      } catch (RuntimeException e) {
+        e.printStackTrace(logger);
+        failures.add("partition 1: " + e);
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          stats.merge(futures.get(i).get());
+        } catch (ExecutionException e) {
+          e.getCause().printStackTrace(logger);
+          failures.add("partition " + (i + 2) + ": " + e.getCause());
+        }
+      }
+      if (failures.isEmpty() && !leftOver.isEmpty()) {
+        logger.println("*** " + sdf.format(new Date()) + " [partition 1] checking out " + leftOver.size()
+            + " files changed since the listing as listed");
+        stats.merge(checkOutFiles(snapshot, leftOver, logger, " [partition 1]"));
+      }
+      if (!failures.isEmpty()) {
+        throw new IOException("Checkout failed in " + failures.size() + " of " + partitions + " partitions: "
+            + failures);
+      }
+      return stats;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while checking out");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Checks out a share of the files in a session of its own.
+   *
+   * @param share    the files as this connection listed them
+   * @param leftOver receives the files the session does not have in the listed revision
+   * @return what the checkout did
+   */
+  private StarTeamCheckoutStats checkOutInOwnSession(List<StarTeamItem> share, java.io.File workFolder,
+                                                     PrintStream logger, String prefix, List<StarTeamItem> leftOver)
+      throws StarTeamSCMException, IOException {
+    StarTeamConnection partitionConnection = new StarTeamConnection(hostName, port, agentHost, agentPort, userName,
+        password, projectName, viewName, folderName, configSelector, cleanupstate);
+    partitionConnection.setRepository(repository);
+    partitionConnection.pooled = false;
+    try {
+      long start = System.currentTimeMillis();
+      partitionConnection.initialize(buildNumber);
+      Map<String, StarTeamItem> byPath = new HashMap<String, StarTeamItem>();
+      for (StarTeamItem f : partitionConnection.snapshot.listFiles(workFolder)) {
+        byPath.put(f.getFullName(), f);
+      }
+      List<StarTeamItem> files = new ArrayList<StarTeamItem>(share.size());
+      int changed = 0;
+      for (StarTeamItem listed : share) {
+        StarTeamItem f = byPath.get(listed.getFullName());
+        if (f == null || f.getRevisionNumber() != listed.getRevisionNumber()) {
+          leftOver.add(listed);
+          changed++;
+        } else {
+          files.add(f);
+        }
+      }
+      logger.println("*** " + sdf.format(new Date()) + prefix + " session ready in "
+          + (System.currentTimeMillis() - start) + " ms, checking out " + files.size() + " files"
+          + (changed == 0 ? "" : ", " + changed + " changed since the listing left to partition 1"));
+      return partitionConnection.checkOutFiles(partitionConnection.snapshot, files, logger, prefix);
+    } finally {
+      partitionConnection.close();
+    }
+  }
 
-    public CheckoutListenerImpl(PrintStream logger) {
+  /**
+   * Stores the checkout report next to the file points. The report is telemetry: failing to
+   * store it is logged and does not fail the checkout.
+   */
+  private void writeCheckoutReport(StarTeamCheckoutStats stats, FilePath report, PrintStream logger) {
+    Writer writer = null;
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(report.write(), "UTF-8"));
+      stats.writeJson(writer);
+      writer.close();
+      writer = null;
+    } catch (IOException e) {
+      logger.println("*** " + sdf.format(new Date()) + " unable to store checkout report " + e.getMessage());
+    } catch (InterruptedException e) {
+      logger.println("*** " + sdf.format(new Date()) + " unable to store checkout report " + e.getMessage());
+    } finally {
+      IOUtils.closeQuietly(writer);
+    }
+  }
+
+  /**
+   * Deals the files out round robin in path order, so every share gets files from every
+   * folder and about the same amount of work.
+   */
+  static List<List<StarTeamItem>> partition(List<StarTeamItem> files, int partitions) {
+    List<StarTeamItem> sorted = new ArrayList<StarTeamItem>(files);
+    Collections.sort(sorted, new Comparator<StarTeamItem>() {
+      public int compare(StarTeamItem o1, StarTeamItem o2) {
+        return o1.getFullName().compareTo(o2.getFullName());
+      }
+    });
+    List<List<StarTeamItem>> shares = new ArrayList<List<StarTeamItem>>(partitions);
+    for (int i = 0; i < partitions; i++) {
+      shares.add(new ArrayList<StarTeamItem>(sorted.size() / partitions + 1));
+    }
+    for (int i = 0; i < sorted.size(); i++) {
+      shares.get(i % partitions).add(sorted.get(i));
+    }
+    return shares;
+  }
+
+  /**
+   * @return the time this connection spent in each phase so far.
+   */
+  public StarTeamPhaseTimings getTimings() {
+    if (timings == null) {
+      timings = new StarTeamPhaseTimings();
+    }
+    return timings;
+  }
+
+  /**
+   * @param checkoutThreads the number of sessions to check out with, 1 for a single one
+   */
+  public void setCheckoutThreads(int checkoutThreads) {
+    this.checkoutThreads = Math.max(1, checkoutThreads);
+  }
+
+  public int getCheckoutThreads() {
+    return checkoutThreads;
+  }
+
+  /**
+   * Makes {@link #initialize(int)} open the folder in the given repository instead of on
+   * the StarTeam server. The repository is not serialized with the connection.
+   *
+   * @param repository the repository, or null for the server
+   */
+  public void setRepository(StarTeamRepository repository) {
+    this.repository = repository;
+  }
+
+  private static class CheckoutListenerImpl implements StarTeamRepository.CheckoutObserver {
+
+    public CheckoutListenerImpl(PrintStream logger, int total) {
+      this(logger, "", total);
+    }
+
+    public CheckoutListenerImpl(PrintStream logger, String prefix, int total) {
       this.logger = logger;
+      this.prefix = prefix;
+      this.total = total;
+      this.stats = new StarTeamCheckoutStats(total);
     }
 
-    private SimpleDateFormat sdf = new SimpleDateFormat("MM/dd HH:mm:ss");
-    NumberFormat nf = NumberFormat.getPercentInstance();
+    private final SimpleDateFormat sdf = new SimpleDateFormat("MM/dd HH:mm:ss");
+    private final NumberFormat nf = NumberFormat.getPercentInstance();
     long lastUpdate = -1;
-    int total = 0;
-    int finishedCount = -1;
+    final int total;
+    int finishedCount = 0;
     java.io.File lastFile;
     java.io.File currentFile;
-    float percentage = 0.0f;
+    long fileStartNanos = System.nanoTime();
     int updateInterval = 5000;
     private PrintStream logger;
-    boolean isUpdateLastModifyDate = false;
-
-    @Override
-    public void notifyProgress(CheckoutEvent event) {
-      currentFile = event.getCurrentWorkingFile();
-      if (event.getError() != null) {
-        logger.println(event.toString());
+    private final String prefix;
+    private final StarTeamCheckoutStats stats;
+
+    public void progress(java.io.File workingFile, long size, String error) {
+      currentFile = workingFile;
+      if (error != null) {
+        stats.error();
+        logger.println(error);
       }
-      if (lastFile == null || !lastFile.equals(event.getCurrentWorkingFile())) {
-        lastFile = event.getCurrentWorkingFile();
+      if (lastFile == null || !lastFile.equals(currentFile)) {
+        lastFile = currentFile;
         finishedCount++;
+        long now = System.nanoTime();
+        stats.fileDone(currentFile, size, now - fileStartNanos);
+        fileStartNanos = now;
       }
       if (total > 2000) {
         updateInterval = 10000;
       }
-      // if(finishedCount==total){
-      // logger.println("*** checkout file finished, start update file last modify date.");
-      // }
-      percentage = (float) (finishedCount % total) / (float) total;
-      if (System.currentTimeMillis() - lastUpdate > updateInterval || finishedCount == total) {
-        lastUpdate = System.currentTimeMillis();
-        logger.println("*** " + sdf.format(new Date()) + " checked out " + finishedCount + "/" + total + " " + nf.format(percentage) + " last file: "
-            + (lastFile == null ? "" : lastFile.getAbsolutePath()));
+      long millis = System.currentTimeMillis();
+      if (millis - lastUpdate > updateInterval || finishedCount == total) {
+        lastUpdate = millis;
+        float percentage = total == 0 ? 1.0f : (float) finishedCount / (float) total;
+        logger.println("*** " + sdf.format(new Date(millis)) + prefix + " checked out " + finishedCount + "/" + total
+            + " " + nf.format(percentage) + String.format(Locale.ENGLISH, " %.1f files/s", stats.getFilesPerSecond())
+            + " last file: " + (lastFile == null ? "" : lastFile.getAbsolutePath()));
       }
     }
 
-    @Override
-    public void startFile(CheckoutEvent event) {
-      total++;
+    public void startFile() {
+      fileStartNanos = System.nanoTime();
     }
 
     public java.io.File getCurrentFile() {
       return currentFile;
     }
 
-    public void setUpdateLastModifyDate(boolean isUpdateLastModifyDate) {
-      this.isUpdateLastModifyDate = isUpdateLastModifyDate;
+    StarTeamCheckoutStats getStats() {
+      return stats;
     }
-
   }
 
   /**
@@ -371,52 +732,56 @@ public class StarTeamConnection implements Serializable {
    * This can be used, for example, with a StarTeam {@link Item}'s
    * {@link Item#getModifiedBy()} property, to determine the name of the user
    * who made a modification to the item.
+   * <p>
+   * Names are looked up in the {@link StarTeamUserDirectory} shared by all
+   * connections to this server, not on the server itself.
    *
    * @param stUser the id of the user on the StarTeam Server
    * @return the name of the user as provided by the StarTeam Server
    */
   public String getUsername(User stUser) {
-    String stUserName = stUser.getName();
-    ServerAdministration srvAdmin = server.getAdministration();
-    User[] userAccts = null;
-    if (canReadUserAccts) {
-      try {
-        userAccts = srvAdmin.getUsers();
-      } catch (Exception e) {
-        // System.out.println("WARNING: Looks like this user does not have the permission to access UserAccounts on the StarTeam Server!");
-        // System.out.println("WARNING: Please contact your administrator and ask to be given the permission \"Administer User Accounts\" on the server.");
-        // System.out.println("WARNING: Defaulting to just using User Full Names which breaks the ability to send email to the individuals who break the build in Hudson!");
-        canReadUserAccts = false;
-      }
-    }
-    if (userAccts != null) {
-      for (int i = 0; i < userAccts.length; i++) {
-        User ua = userAccts[i];
-        if (ua.getName().equals(stUserName)) {
-          // System.out.println("INFO: From \'" + stUserName +
-          // "\' found existing user LogonName = " +
-          // ua.getLogOnName() + " with ID \'" + ua.getID() + "\' and email \'"
-          // + ua.getEmailAddress() +"\'");
-          int index = ua.getEmailAddress().indexOf('@');
-          if (index > -1) {
-            return ua.getEmailAddress().substring(0, ua.getEmailAddress().indexOf('@'));
+    return getUsername(stUser.getName());
+  }
+
+  private String getUsername(String stUserName) {
+    final StarTeamRepository.Snapshot source = snapshot;
+    return StarTeamUserDirectory.forServer(hostName, port, userName).getUsername(stUserName,
+        new StarTeamUserDirectory.AccountLoader() {
+          public Map<String, String> loadEmailAddresses() {
+            return source.loadEmailAddresses();
           }
-        }
-      }
-    } else {
-      // Since the user account running the build does not have user admin perms
-      // use the User Full Name
-      return stUserName;
-    }
-    return stUserName;
+        });
   }
 
+  /**
+   * @return the root folder on the server, or null if the connection is not initialized
+   * or reads from another {@link StarTeamRepository}.
+   */
   public Folder getRootFolder() {
-    return rootFolder;
+    if (!(snapshot instanceof ServerSnapshot)) {
+      return null;
+    }
+    ((ServerSnapshot) snapshot).populate();
+    return ((ServerSnapshot) snapshot).rootFolder;
+  }
+
+  /**
+   * @return how the root folder was populated, or null if it was not read from the server
+   * or has not been populated yet.
+   */
+  StarTeamPopulator.Report getPopulateReport() {
+    return snapshot instanceof ServerSnapshot ? ((ServerSnapshot) snapshot).populateReport : null;
   }
 
   public DateTime getServerTime() {
-    return server.getCurrentTime();
+    return new DateTime(new Date(getServerTimeMillis()));
+  }
+
+  /**
+   * @return the current time of the repository, in Java milliseconds.
+   */
+  public long getServerTimeMillis() {
+    return snapshot.getServerTime();
   }
 
   /**
@@ -453,14 +818,171 @@ public class StarTeamConnection implements Serializable {
    * Close the connection.
    */
   public void close() {
-    if (server.isConnected()) {
-      if (rootFolder != null) {
-        rootFolder.discardItems(server.getTypes().FILE, -1);
-        rootFolder.discardItems(server.getTypes().FOLDER, -1);
+    if (snapshot == null) {
+      return;
+    }
+    StarTeamRepository.Snapshot opened = snapshot;
+    snapshot = null;
+    opened.close();
+  }
+
+  /**
+   * A folder of a view on the StarTeam server, read through a session leased from the
+   * {@link StarTeamSessionPool}.
+   */
+  private final class ServerSnapshot implements StarTeamRepository.Snapshot {
+    private final StarTeamSession session;
+    private final boolean pooled;
+    private View view;
+    private Folder rootFolder;
+    private String rootAlternatePath;
+    private StarTeamPopulator.Report populateReport;
+
+    ServerSnapshot(StarTeamSession session, boolean pooled) {
+      this.session = session;
+      this.pooled = pooled;
+    }
+
+    /**
+     * Populates the folder and its files, once.
+     */
+    void populate() {
+      if (populateReport == null) {
+        long mark = System.nanoTime();
+        populateReport = new StarTeamPopulator(session.getServer()).populate(rootFolder);
+        getTimings().record(StarTeamPhaseTimings.Phase.POPULATE, mark);
+      }
+    }
+
+    public Collection<StarTeamItem> listFiles(java.io.File workFolder) {
+      populate();
+      return StarTeamServerItem.wrap(StarTeamFunctions.listAllFiles(rootFolder, workFolder));
+    }
+
+    /**
+     * Populates only the modification times of the files, unless the folder is populated
+     * already, and walks the folder tree.
+     */
+    public StarTeamRepository.Modifications listModifiedSince(java.io.File workFolder, long since) {
+      long mark = System.nanoTime();
+      if (populateReport == null) {
+        new StarTeamPopulator(session.getServer()).populateModifiedTimes(rootFolder);
+      }
+      getTimings().record(StarTeamPhaseTimings.Phase.POPULATE, mark);
+      rootFolder.setAlternatePathFragment(
+          new java.io.File(workFolder, rootAlternatePath == null ? "" : rootAlternatePath).getAbsolutePath());
+      Map<String, List<String>> fileNames = new HashMap<String, List<String>>();
+      int modified = countModifiedSince(rootFolder, since, session.getServer().getTypes().FILE, fileNames);
+      return new StarTeamRepository.Modifications(modified, fileNames);
+    }
+
+    private int countModifiedSince(Folder folder, long since, Type fileType, Map<String, List<String>> fileNames) {
+      int modified = 0;
+      for (Folder subFolder : folder.getSubFolders()) {
+        modified += countModifiedSince(subFolder, since, fileType, fileNames);
+      }
+      List<String> names = new ArrayList<String>();
+      for (Iterator<ViewMember> it = folder.getItems(fileType).iterator(); it.hasNext(); ) {
+        File file = (File) it.next();
+        names.add(file.getName());
+        if (file.getModifiedTime().toJavaMsec() > since) {
+          modified++;
+        }
+      }
+      if (!names.isEmpty()) {
+        fileNames.put(folder.getPath(), names);
+      }
+      return modified;
+    }
+
+    /**
+     * Check out files with one checkout manager of the view, and commit them.
+     */
+    public void checkOut(List<StarTeamItem> items, final StarTeamRepository.CheckoutObserver observer,
+                         PrintStream logger, String prefix) {
+      populate();
+      File[] files = new File[items.size()];
+      for (int i = 0; i < files.length; i++) {
+        files[i] = ((StarTeamServerItem) items.get(i)).getFile();
+      }
+      com.starteam.CheckoutOptions coOptions = new com.starteam.CheckoutOptions(view);
+      coOptions.setLockType(Item.LockType.UNLOCKED);
+      coOptions.setEOLFormat(EOLFormat.PLATFORM);
+      coOptions.setUpdateStatus(true);
+      coOptions.setTimeStampNow(false);
+      coOptions.setForceCheckout(true);
+      coOptions.setMarkUnlockedFilesReadOnly(false);
+      CheckoutManager coManager = view.createCheckoutManager(coOptions);
+      if (coManager.getView().getProject().getServer().getServerInfo().getEnableCacheAgentForFileContent()) {
+        logger.println("*** " + sdf.format(new Date()) + prefix + " Enabled cache agent for file content.");
+      }
+      coManager.addCheckoutListener(new CheckoutListener() {
+        public void notifyProgress(CheckoutEvent event) {
+          File item = event.getCurrentFile();
+          observer.progress(event.getCurrentWorkingFile(), item == null ? 0 : item.getSize(),
+              event.getError() == null ? null : event.toString());
+        }
+
+        public void startFile(CheckoutEvent event) {
+          observer.startFile();
+        }
+      });
+
+      coManager.checkout(files);
+      if (coManager.canCommit()) {
+        logger.println("*** " + sdf.format(new Date()) + prefix + " checked out request commit");
+        coManager.commit();
+        logger.println("*** " + sdf.format(new Date()) + prefix + " checked out request committed");
+      } else {
+        logger.println("*** " + sdf.format(new Date()) + prefix + " checked out not commit");
+      }
+    }
+
+    public Map<String, String> loadEmailAddresses() {
+      User[] userAccts = session.getServer().getAdministration().getUsers();
+      Map<String, String> emailAddresses = new HashMap<String, String>(userAccts.length * 4 / 3 + 1);
+      for (User ua : userAccts) {
+        String previous = emailAddresses.get(ua.getName());
+        // several accounts may share a name, the first one with an address wins
+        if (previous == null || previous.indexOf('@') < 0) {
+          emailAddresses.put(ua.getName(), ua.getEmailAddress());
+        }
+      }
+      return emailAddresses;
+    }
+
+    public long getServerTime() {
+      return session.getServer().getCurrentTime().toJavaMsec();
+    }
+
+    public void close() {
+      Server server = session.getServer();
+      boolean reusable = server.isConnected();
+      if (reusable && rootFolder != null) {
+        try {
+          rootFolder.setAlternatePathFragment(rootAlternatePath);
+          rootFolder.discardItems(server.getTypes().FILE, -1);
+          rootFolder.discardItems(server.getTypes().FOLDER, -1);
+        } catch (RuntimeException e) {
+          reusable = false;
+        }
+      }
+      release(reusable);
+    }
+
+    /**
+     * Hand the session back to the pool, or close it if it must not be reused.
+     */
+    void release(boolean reusable) {
+      rootFolder = null;
+      view = null;
+      if (!pooled) {
+        session.close();
+      } else if (reusable) {
+        StarTeamSessionPool.getInstance().release(session);
+      } else {
+        StarTeamSessionPool.getInstance().invalidate(session);
       }
-      view.discard();
-      project.discard();
-      server.disconnect();
     }
   }
 
@@ -481,7 +1003,7 @@ public class StarTeamConnection implements Serializable {
 
     return port == other.port && hostName.equals(other.hostName) && userName.equals(other.userName)
         && password.equals(other.password) && projectName.equals(other.projectName) && viewName.equals(other.viewName)
-        && folderName.equals(other.folderName);
+        && (folderName == null ? other.folderName == null : folderName.equals(other.folderName));
   }
 
   @Override
@@ -495,6 +1017,32 @@ public class StarTeamConnection implements Serializable {
         + ", passwd: ******, project: " + projectName + ", view: " + viewName + ", folder: " + folderName;
   }
 
+  /**
+   * @param workFolder         a workFolder directory
+   * @param historicFilePoints a collection containing File Points to be compared (previous
+   *                           build)
+   * @param logger             a logger for consuming log messages
+   * @return set of changes between the folder opened by {@link #initialize(int)} and the
+   * work folder
+   * @throws IOException
+   */
+  public StarTeamChangeSet computeChangeSet(java.io.File workFolder,
+                                            final Collection<StarTeamFilePoint> historicFilePoints,
+                                            PrintStream logger) throws IOException {
+    return computeChangeSet(workFolder, historicFilePoints, logger, null);
+  }
+
+  /**
+   * @param changeLogWriter receives the changes as they are found, or null to keep them
+   *                        in the change set
+   * @see #computeChangeSet(java.io.File, Collection, PrintStream)
+   */
+  StarTeamChangeSet computeChangeSet(java.io.File workFolder, final Collection<StarTeamFilePoint> historicFilePoints,
+                                     PrintStream logger, StarTeamChangeLogWriter changeLogWriter)
+      throws IOException {
+    return computeChangeSet(null, workFolder, historicFilePoints, logger, changeLogWriter);
+  }
+
   /**
    * @param rootFolder         main project directory
    * @param workFolder          a workFolder directory
@@ -508,27 +1056,59 @@ public class StarTeamConnection implements Serializable {
   public StarTeamChangeSet computeChangeSet(Folder rootFolder, java.io.File workFolder,
                                             final Collection<StarTeamFilePoint> historicFilePoints,
                                             PrintStream logger) throws IOException {
+    return computeChangeSet(rootFolder, workFolder, historicFilePoints, logger, null);
+  }
+
+  /**
+   * @param rootFolder         main project directory, or null for the folder opened by
+   *                           {@link #initialize(int)}
+   * @param workFolder         a workFolder directory
+   * @param historicFilePoints a collection containing File Points to be compared (previous
+   *                           build)
+   * @param logger             a logger for consuming log messages
+   * @param changeLogWriter    receives the changes as they are found, or null to keep them
+   *                           in the change set
+   * @return set of changes
+   * @throws IOException
+   */
+  StarTeamChangeSet computeChangeSet(Folder rootFolder, java.io.File workFolder,
+                                     final Collection<StarTeamFilePoint> historicFilePoints,
+                                     PrintStream logger, StarTeamChangeLogWriter changeLogWriter)
+      throws IOException {
     // --- compute changes as per StarTeam
+    StarTeamPhaseTimings timings = getTimings();
+    long mark = System.nanoTime();
     long start = System.currentTimeMillis();
     long st = start;
-    final Collection<com.starteam.File> starTeamFiles = StarTeamFunctions.listAllFiles(rootFolder, workFolder);
+    final Collection<StarTeamItem> starTeamFiles = rootFolder == null ? snapshot.listFiles(workFolder)
+        : StarTeamServerItem.wrap(StarTeamFunctions.listAllFiles(rootFolder, workFolder));
     logger.println("*** " + sdf.format(new Date()) + " compute ChangeSet listAllFiles took " + (System.currentTimeMillis() - st) + " ms.");
     st = System.currentTimeMillis();
-    final Map<java.io.File, com.starteam.File> starteamFileMap = StarTeamFunctions.convertToFileMap(starTeamFiles);
+    final Map<StarTeamPath, StarTeamItem> starteamFileMap = StarTeamFunctions.convertItemsToPathMap(starTeamFiles);
 
-    final Collection<java.io.File> starTeamFileSet = starteamFileMap.keySet();
+    final Collection<StarTeamPath> starTeamFileSet = starteamFileMap.keySet();
     final Collection<StarTeamFilePoint> starTeamFilePoint = StarTeamFilePointFunctions
-        .convertFilePointCollection(starTeamFiles);
+        .convertItemCollection(starteamFileMap.values());
     logger.println("*** " + sdf.format(new Date()) + " compute ChangeSet convertToFileMap took " + (System.currentTimeMillis() - st) + " ms.");
+    mark = timings.record(StarTeamPhaseTimings.Phase.REMOTE_LISTING, mark);
     st = System.currentTimeMillis();
-    final Collection<java.io.File> fileSystemFiles = StarTeamFilePointFunctions.listAllFiles(workFolder);
-    final Collection<java.io.File> fileSystemRemove = new TreeSet<java.io.File>(fileSystemFiles);
+    final Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> fileSystemAttributes =
+        StarTeamWorkspaceIndex.scan(workFolder);
+    final Collection<StarTeamPath> fileSystemFiles = fileSystemAttributes.keySet();
+    logger.println("*** " + sdf.format(new Date()) + " compute ChangeSet scanned " + fileSystemFiles.size()
+        + " local files in " + (System.currentTimeMillis() - st) + " ms.");
+    mark = timings.record(StarTeamPhaseTimings.Phase.WORKSPACE_SCAN, mark);
+    long userNanos = userResolutionNanos;
+    long writeNanos = changeLogWriter == null ? 0 : changeLogWriter.getNanos();
+    final Collection<StarTeamPath> fileSystemRemove = new TreeSet<StarTeamPath>(fileSystemFiles);
     fileSystemRemove.removeAll(starTeamFileSet);
 
     final StarTeamChangeSet changeSet = new StarTeamChangeSet();
+    changeSet.setChangeLogWriter(changeLogWriter);
 
     changeSet.setFilesToRemove(fileSystemRemove);
     changeSet.setFilePointsToRemember(starTeamFilePoint);
+    changeSet.setHistoricFilePoints(historicFilePoints);
     // changeSet.setFilesToCheckout(starTeamFiles);
     // --- compute differences as per historic storage file
     logger.println("*** " + sdf.format(new Date()) + " compute ChangeSet changeSet took " + (System.currentTimeMillis() - st) + " ms.");
@@ -539,7 +1119,8 @@ public class StarTeamConnection implements Serializable {
 
         changeSet.setComparisonAvailable(true);
         logger.println("*** " + sdf.format(new Date()) + " compute Difference from historic file points.");
-        computeDifference(starTeamFilePoint, historicFilePoints, changeSet, starteamFileMap, fileSystemFiles, logger);
+        computeDifference(starTeamFilePoint, historicFilePoints, changeSet, starteamFileMap, fileSystemAttributes,
+            logger);
 
       } catch (Throwable t) {
         t.printStackTrace(logger);
@@ -547,41 +1128,171 @@ public class StarTeamConnection implements Serializable {
     } else {
       // add all star team files
       logger.println("*** " + sdf.format(new Date()) + " compute Difference add all star team files.");
-      Collection<File> result = new ArrayList<File>();
-      MD5 localFileMD5 = new MD5();
-      for (File file : starTeamFiles) {
-        MD5 starTeamFileMD5 = file.getMD5();
-
-        java.io.File localFile = new java.io.File(file.getFullName());
-
-        if (localFile.exists()) {
-          localFileMD5.computeFileMD5(localFile);
-          if (file.getContentModifiedTime().toJavaMsec() == localFile.lastModified() || starTeamFileMD5.equals(localFileMD5)) {
-            continue;
-          } else {
-            logger.println(" File " + file.getFullName() + "\n  localfileMD5:" + localFileMD5 + "\n  starteam MD5:" + starTeamFileMD5);
-          }
+      final Collection<StarTeamItem> result = new ArrayList<StarTeamItem>();
+      new StarTeamFileVerifier().verify(starTeamFiles, logger, new StarTeamFileVerifier.Callback() {
+        public void mismatch(StarTeamItem file) {
+          result.add(file);
+          changeSet.addChange(fileToStarTeamChangeLogEntry(file, "change"));
         }
-        result.add(file);
-        changeSet.addChange(fileToStarTeamChangeLogEntry(file));
-      }
+      });
       changeSet.setFilesToCheckout(result);
     }
     logger.println("*** " + sdf.format(new Date()) + " compute ChangeSet computeDifference took " + (System.currentTimeMillis() - st) + " ms.");
-    logger.println("*** " + sdf.format(new Date()) + " compute ChangeSet found " + changeSet.getChanges().size() + " changes.");
+    timings.record(StarTeamPhaseTimings.Phase.DIFF, mark);
+    timings.move(StarTeamPhaseTimings.Phase.DIFF, StarTeamPhaseTimings.Phase.USER_RESOLUTION,
+        userResolutionNanos - userNanos);
+    if (changeLogWriter != null) {
+      timings.move(StarTeamPhaseTimings.Phase.DIFF, StarTeamPhaseTimings.Phase.CHANGELOG_WRITE,
+          changeLogWriter.getNanos() - writeNanos);
+    }
+    logger.println("*** " + sdf.format(new Date()) + " compute ChangeSet found " + changeSet.getChangeCount() + " changes.");
     logger.println("*** " + sdf.format(new Date()) + " compute ChangeSet took " + (System.currentTimeMillis() - start) + " ms.");
     return changeSet;
   }
 
+  /**
+   * Tells whether the view differs from the file points of an earlier build, as cheaply as
+   * polling allows: the files are listed, but the workspace is not scanned, no user is
+   * looked up and no change entry is made, and the comparison stops at the first difference.
+   *
+   * @param workFolder         a workFolder directory, which is only used for the paths
+   * @param historicFilePoints the file points of the earlier build, or null if there are none
+   * @param logger             a logger for consuming log messages
+   * @return true if a file was added, removed or changed revision since the earlier build,
+   * or if there are no file points to compare with and the view has files
+   */
+  public boolean pollChanges(java.io.File workFolder, final Collection<StarTeamFilePoint> historicFilePoints,
+                             PrintStream logger) {
+    StarTeamPhaseTimings timings = getTimings();
+    long mark = System.nanoTime();
+    long start = System.currentTimeMillis();
+    Collection<StarTeamItem> starTeamFiles = snapshot.listFiles(workFolder);
+    logger.println("*** " + sdf.format(new Date()) + " poll listed " + starTeamFiles.size() + " files in "
+        + (System.currentTimeMillis() - start) + " ms.");
+    mark = timings.record(StarTeamPhaseTimings.Phase.REMOTE_LISTING, mark);
+    String difference;
+    if (historicFilePoints == null) {
+      difference = starTeamFiles.isEmpty() ? null : "no file points of an earlier build";
+    } else {
+      difference = StarTeamFilePointDiff.firstDifference(starTeamFiles, historicFilePoints);
+    }
+    timings.record(StarTeamPhaseTimings.Phase.DIFF, mark);
+    logger.println("*** " + sdf.format(new Date()) + " poll " + (difference == null ? "found no changes"
+        : "found a change: " + difference) + ", took " + (System.currentTimeMillis() - start) + " ms.");
+    return difference != null;
+  }
+
+  /**
+   * Lists the view and computes its revision state, which needs neither a workspace nor
+   * file points.
+   *
+   * @param workFolder the folder to list the files to, which is only used for the paths
+   * @param logger     a logger for consuming log messages
+   * @return the paths and view versions of the files, as polling compares them
+   */
+  public StarTeamRevisionState computeRevisionState(java.io.File workFolder, PrintStream logger) {
+    StarTeamPhaseTimings timings = getTimings();
+    long mark = System.nanoTime();
+    long start = System.currentTimeMillis();
+    long serverTime = snapshot.getServerTime();
+    Collection<StarTeamItem> starTeamFiles = snapshot.listFiles(workFolder);
+    mark = timings.record(StarTeamPhaseTimings.Phase.REMOTE_LISTING, mark);
+    StarTeamRevisionState state = StarTeamRevisionState.ofItems(starTeamFiles, workFolder, serverTime);
+    timings.record(StarTeamPhaseTimings.Phase.DIFF, mark);
+    logger.println("*** " + sdf.format(new Date()) + " revision state of " + state + " took "
+        + (System.currentTimeMillis() - start) + " ms.");
+    return state;
+  }
+
+  /**
+   * Tells whether the view is still as an earlier revision state has it, asking only for
+   * files modified since that state was taken and for the names of the files in every
+   * folder, which show added, deleted and moved files.
+   * <p>
+   * The answer is not reliable, and null is returned, if the state has no server time or
+   * paths, if the server clock went back since, or if the view is configured by a label,
+   * promotion state or time, which can select older revisions without any file being
+   * modified. A file shared in place of a deleted file of the same name is not modified
+   * either, so after {@link #MAX_UNLISTED_POLLS} answers in a row null is returned as well.
+   * A file modified since, or other paths, also return null, so that a full listing tells
+   * the new state.
+   *
+   * @param workFolder the folder to list the files to, which is only used for the paths
+   * @param baseline   the earlier state
+   * @param logger     a logger for consuming log messages
+   * @return the earlier state as of the current server time if nothing changed, or null if
+   * a full listing must tell
+   */
+  public StarTeamRevisionState checkModifiedSince(java.io.File workFolder, StarTeamRevisionState baseline,
+                                                  PrintStream logger) {
+    String reason = whyNotModifiedSince(baseline);
+    long serverTime = -1;
+    if (reason == null) {
+      serverTime = snapshot.getServerTime();
+      if (serverTime < baseline.getServerTime()) {
+        reason = "the server clock went back by " + (baseline.getServerTime() - serverTime) + " ms";
+      }
+    }
+    if (reason != null) {
+      logger.println("*** " + sdf.format(new Date()) + " poll lists every file: " + reason + ".");
+      return null;
+    }
+    long start = System.currentTimeMillis();
+    long mark = System.nanoTime();
+    StarTeamRepository.Modifications modifications =
+        snapshot.listModifiedSince(workFolder, baseline.getServerTime() - MODIFIED_SINCE_MARGIN_MILLIS);
+    mark = getTimings().record(StarTeamPhaseTimings.Phase.REMOTE_LISTING, mark);
+    String paths = StarTeamRevisionState.digestPaths(modifications.getFileNames(), workFolder);
+    getTimings().record(StarTeamPhaseTimings.Phase.DIFF, mark);
+    if (modifications.getModified() > 0) {
+      reason = modifications.getModified() + " files were modified since " + sdf.format(new Date(baseline.getServerTime()));
+    } else if (!paths.equals(baseline.getPaths())) {
+      reason = "files were added, deleted or moved";
+    }
+    logger.println("*** " + sdf.format(new Date()) + " poll checked " + modifications.getFileNames().size()
+        + " folders in " + (System.currentTimeMillis() - start) + " ms"
+        + (reason == null ? ", nothing changed." : ", " + reason + "."));
+    return reason == null ? baseline.at(serverTime) : null;
+  }
+
+  /**
+   * Tells, without asking the server, why {@link #checkModifiedSince} would not be reliable.
+   *
+   * @param baseline the earlier state
+   * @return the reason, or null if nothing speaks against it
+   */
+  String whyNotModifiedSince(StarTeamRevisionState baseline) {
+    if (FULL_POLLING) {
+      return "incremental polling is turned off";
+    }
+    if (configSelector != null) {
+      return "the view is configured by " + configSelector.getConfigType();
+    }
+    if (baseline.getServerTime() < 0 || baseline.getPaths() == null) {
+      return "the last state has no server time";
+    }
+    if (baseline.getUnlisted() >= MAX_UNLISTED_POLLS) {
+      // an item shared in place of a deleted one of the same name is only seen by listing
+      return "the files were not listed for " + baseline.getUnlisted() + " polls";
+    }
+    return null;
+  }
+
   public StarTeamChangeLogEntry fileToStarTeamChangeLogEntry(File f) {
     return fileToStarTeamChangeLogEntry(f, "change");
   }
 
   public StarTeamChangeLogEntry fileToStarTeamChangeLogEntry(File f, String change) {
-    int revisionNumber = VersionedObject.getViewVersion(f.getDotNotation());
+    return fileToStarTeamChangeLogEntry(new StarTeamServerItem(f), change);
+  }
+
+  public StarTeamChangeLogEntry fileToStarTeamChangeLogEntry(StarTeamItem f, String change) {
+    int revisionNumber = f.getRevisionNumber();
+    long start = System.nanoTime();
     String username = getUsername(f.getModifiedBy());
+    userResolutionNanos += System.nanoTime() - start;
     String msg = f.getComment();
-    Date date = new Date(f.getModifiedTime().toJavaMsec());
+    Date date = new Date(f.getModifiedTime());
     String fileName = f.getName();
 
     return new StarTeamChangeLogEntry(fileName, revisionNumber, date, username, msg, change);
@@ -590,65 +1301,68 @@ public class StarTeamConnection implements Serializable {
   public StarTeamChangeSet computeDifference(final Collection<StarTeamFilePoint> currentFilePoint,
                                              final Collection<StarTeamFilePoint> historicFilePoint,
                                              StarTeamChangeSet changeSet,
-                                             Map<java.io.File, com.starteam.File> starteamFileMap,
+                                             Map<StarTeamPath, StarTeamItem> starteamFileMap,
                                              Collection<java.io.File> filesOnDisk,
                                              PrintStream logger) {
+    return computeDifference(currentFilePoint, historicFilePoint, changeSet, starteamFileMap,
+        (Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes>) null, logger);
+  }
+
+  /**
+   * @param fileSystemAttributes the scanned workspace, whose modification times are compared
+   *                             instead of asking the file system again; null to ask it
+   */
+  StarTeamChangeSet computeDifference(final Collection<StarTeamFilePoint> currentFilePoint,
+                                      final Collection<StarTeamFilePoint> historicFilePoint,
+                                      StarTeamChangeSet changeSet,
+                                      final Map<StarTeamPath, StarTeamItem> starteamFileMap,
+                                      final Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> fileSystemAttributes,
+                                      PrintStream logger) {
 
     logger.println("*** " + sdf.format(new Date()) + " computeDifference start.");
-    final Map<java.io.File, StarTeamFilePoint> starteamFilePointMap = StarTeamFilePointFunctions
-        .convertToFilePointMap(currentFilePoint);
-    Map<java.io.File, StarTeamFilePoint> historicFilePointMap = StarTeamFilePointFunctions
-        .convertToFilePointMap(historicFilePoint);
-
-    final Set<java.io.File> starteamOnly = new HashSet<java.io.File>();
-    starteamOnly.addAll(starteamFilePointMap.keySet());
-    starteamOnly.removeAll(historicFilePointMap.keySet());
-
-    final Set<java.io.File> historicOnly = new HashSet<java.io.File>();
-    historicOnly.addAll(historicFilePointMap.keySet());
-    historicOnly.removeAll(starteamFilePointMap.keySet());
-
-    final Set<java.io.File> common = new HashSet<java.io.File>();
-    common.addAll(starteamFilePointMap.keySet());
-    common.removeAll(starteamOnly);
-
-    StarTeamChangeLogEntry change;
-    Collection<File> fileToCheckout = new ArrayList<File>();
-    //int i = 0;
-    for (java.io.File f : common) {
-      StarTeamFilePoint starteam = starteamFilePointMap.get(f);
-      StarTeamFilePoint historic = historicFilePointMap.get(f);
-      if (starteam.getRevisionNumber() == historic.getRevisionNumber()
-          && starteam.getLastModifyDate() == historic.getFile().lastModified()) {
-        // unchanged files
-        continue;
-      }
-      com.starteam.File stf = starteamFileMap.get(f);
-      if (starteam.getRevisionNumber() > historic.getRevisionNumber()) {
-        // higher.add(f);
-        changeSet.addChange(fileToStarTeamChangeLogEntry(stf, "change"));
-      } else if (starteam.getRevisionNumber() < historic.getRevisionNumber()) {
-        // lower.add(f);
-        changeSet.addChange(fileToStarTeamChangeLogEntry(stf, "rollback"));
-      } else {
-        changeSet.addChange(fileToStarTeamChangeLogEntry(stf, "change"));
+    final StarTeamChangeSet changes = changeSet;
+    final Collection<StarTeamItem> fileToCheckout = new ArrayList<StarTeamItem>();
+    StarTeamFilePointDiff.diff(currentFilePoint, historicFilePoint, new StarTeamFilePointDiff.Visitor() {
+      public void added(StarTeamFilePoint current) {
+        checkOut(current, "added");
       }
-      fileToCheckout.add(stf);
-    }
 
-    for (java.io.File f : historicOnly) {
-      StarTeamFilePoint historic = historicFilePointMap.get(f);
-      change = new StarTeamChangeLogEntry(f.getName(), historic.getRevisionNumber(), new Date(),
-          "Unknown", "file deleted", "removed");
-      changeSet.addChange(change);
-    }
-    for (java.io.File f : starteamOnly) {
-      com.starteam.File stf = starteamFileMap.get(f);
-      changeSet.addChange(fileToStarTeamChangeLogEntry(stf, "added"));
-      fileToCheckout.add(stf);
-    }
+      public void removed(StarTeamFilePoint historic) {
+        changes.addChange(new StarTeamChangeLogEntry(historic.getFile().getName(), historic.getRevisionNumber(),
+            new Date(), "Unknown", "file deleted", "removed"));
+      }
+
+      public void changed(StarTeamFilePoint current, StarTeamFilePoint historic) {
+        checkOut(current, "change");
+      }
+
+      public void rolledBack(StarTeamFilePoint current, StarTeamFilePoint historic) {
+        checkOut(current, "rollback");
+      }
+
+      public void sameRevision(StarTeamFilePoint current, StarTeamFilePoint historic) {
+        if (current.getLastModifyDate() != lastModified(historic.getPath(), fileSystemAttributes)) {
+          checkOut(current, "change");
+        }
+      }
+
+      private void checkOut(StarTeamFilePoint current, String change) {
+        StarTeamItem stf = starteamFileMap.get(current.getPath());
+        changes.addChange(fileToStarTeamChangeLogEntry(stf, change));
+        fileToCheckout.add(stf);
+      }
+    });
     changeSet.setFilesToCheckout(fileToCheckout);
     logger.println("*** " + sdf.format(new Date()) + " computeDifference end.");
     return changeSet;
   }
+
+  private static long lastModified(StarTeamPath path,
+                                   Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> fileSystemAttributes) {
+    if (fileSystemAttributes == null) {
+      return path.toFile().lastModified();
+    }
+    StarTeamWorkspaceScanner.FileAttributes attributes = fileSystemAttributes.get(path);
+    return attributes == null ? 0L : attributes.getLastModified();
+  }
 }
@@ -0,0 +1,34 @@
+package hudson.plugins.starteam.community;
+
+import hudson.model.Cause;
+
+/**
+ * A build scheduled by a StarTeam item event, see {@link StarTeamEventTrigger}.
+ */
+public class StarTeamEventCause extends Cause {
+
+  private final String kind;
+  private final String path;
+
+  /**
+   * @param kind what happened to the item, as {@link StarTeamEventSource.Kind} names it
+   * @param path the path of the item in the view
+   */
+  public StarTeamEventCause(String kind, String path) {
+    this.kind = kind;
+    this.path = path;
+  }
+
+  public String getKind() {
+    return kind;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return "Started by a StarTeam change: " + path + " " + kind.toLowerCase();
+  }
+}
@@ -0,0 +1,53 @@
+package hudson.plugins.starteam.community;
+
+/**
+ * A subscription to the item events of a view, as the MPX message broker of a StarTeam
+ * server publishes them.
+ * <p>
+ * {@link StarTeamServerEventSource} subscribes on the server; tests use a local fake.
+ */
+interface StarTeamEventSource {
+
+  /**
+   * What happened to an item.
+   */
+  enum Kind {
+    ADDED, MODIFIED, DELETED, MOVED
+  }
+
+  /**
+   * Receives the events of a view, on a thread of the event source.
+   */
+  interface Listener {
+    /**
+     * @param kind what happened to the item
+     * @param path the folder hierarchy of the item followed by its name for a file, or the
+     *             folder hierarchy of a folder, which ends with a separator; a moved item is
+     *             reported at its old and its new path
+     */
+    void itemChanged(Kind kind, String path);
+  }
+
+  /**
+   * Opens event sources.
+   */
+  interface Factory {
+    /**
+     * @param key      the server and view to subscribe to
+     * @param listener receives the events until the source is closed
+     * @return the open source
+     * @throws StarTeamSCMException if the server cannot be reached or does not publish events
+     */
+    StarTeamEventSource open(StarTeamEventTrigger.Key key, Listener listener) throws StarTeamSCMException;
+  }
+
+  /**
+   * @return true as long as events are delivered; once false, events may have been missed
+   */
+  boolean isAlive();
+
+  /**
+   * Stops delivering events and disconnects.
+   */
+  void close();
+}
@@ -0,0 +1,385 @@
+package hudson.plugins.starteam.community;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the views jobs subscribe to the item events of, which schedules builds as soon
+ * as the server reports a change in a job's folder.
+ * <p>
+ * A job subscribes when it polls: the view's events are subscribed once for all jobs on the
+ * same server and view, through the MPX message broker, and kept open in the master for as
+ * long as a job is subscribed. An added, modified, deleted or moved item then schedules every
+ * job whose folder contains it, within the quiet period. Polling becomes the safety net: while
+ * the events of a job's view are delivered, a poll only lists the folder if the job has not
+ * listed it for the safety net interval. A poll right after the events were subscribed or
+ * lost lists the folder, so no change goes unnoticed.
+ * <p>
+ * Jobs with a configuration selector are not subscribed, an item event does not tell whether
+ * a label or promotion state moved.
+ * <p>
+ * The events are off by default and turned on with the system property
+ * <tt>hudson.plugins.starteam.community.StarTeamEventTrigger.enabled</tt>. The safety net
+ * interval defaults to 60 minutes (<tt>.safetyNetMinutes</tt>) and the quiet period to 5
+ * seconds (<tt>.quietSeconds</tt>).
+ */
+final class StarTeamEventTrigger {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamEventTrigger.class.getName());
+
+  static final boolean ENABLED = Boolean.getBoolean(StarTeamEventTrigger.class.getName() + ".enabled");
+
+  private static final long SAFETY_NET_MILLIS = TimeUnit.MINUTES.toMillis(
+      Long.getLong(StarTeamEventTrigger.class.getName() + ".safetyNetMinutes", 60L));
+
+  private static final int QUIET_SECONDS = Integer.getInteger(StarTeamEventTrigger.class.getName() + ".quietSeconds", 5);
+
+  // how long to wait before subscribing again after the server refused
+  private static final long RETRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * Identifies a subscribed view: the server, the user and the project and view.
+   */
+  static final class Key {
+    final String hostName;
+    final int port;
+    final String agentHost;
+    final int agentPort;
+    final String userName;
+    final String password;
+    final String projectName;
+    final String viewName;
+    private final List<Object> parts;
+
+    Key(String hostName, int port, String agentHost, int agentPort, String userName, String password,
+        String projectName, String viewName) {
+      this.hostName = hostName;
+      this.port = port;
+      this.agentHost = agentHost;
+      this.agentPort = agentPort;
+      this.userName = userName;
+      this.password = password;
+      this.projectName = projectName;
+      this.viewName = viewName;
+      this.parts = Arrays.<Object>asList(hostName, port, agentHost, agentPort, userName, password, projectName,
+          viewName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      return parts.equals(((Key) o).parts);
+    }
+
+    @Override
+    public int hashCode() {
+      return parts.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return userName + "@" + hostName + ":" + port + "/" + projectName + "/" + viewName;
+    }
+  }
+
+  /**
+   * A subscribed job.
+   */
+  interface Job {
+    /**
+     * @return the full name of the job
+     */
+    String getName();
+
+    /**
+     * @return false once the job is gone or configured otherwise than when it subscribed
+     */
+    boolean isCurrent();
+
+    /**
+     * @param quietSeconds the quiet period
+     * @param cause        the event that triggered the build
+     * @return true if the build was scheduled, false if one already was
+     */
+    boolean schedule(int quietSeconds, StarTeamEventCause cause);
+  }
+
+  /**
+   * A job and when it last listed its folder.
+   */
+  private static final class Subscriber {
+    private final String folder;
+    private Job job;
+    private long lastListing = -1;
+    // the subscription the job last listed its folder in
+    private int listedIn = -1;
+    private long lastScheduled = -1;
+
+    Subscriber(String folder, Job job) {
+      this.folder = folder;
+      this.job = job;
+    }
+
+    /**
+     * @param path an item path, normalized
+     * @return true if the item is in the job's folder, or is a folder the job's folder is in
+     */
+    boolean covers(String path) {
+      return path.startsWith(folder) || (path.endsWith("/") && folder.startsWith(path));
+    }
+  }
+
+  /**
+   * The events of a view and the jobs they trigger.
+   */
+  private final class Subscription implements StarTeamEventSource.Listener {
+    private final Key key;
+    private final Map<String, Subscriber> subscribers = new HashMap<String, Subscriber>();
+    private StarTeamEventSource source;
+    // counts the subscriptions, a listing before the current one may have missed events
+    private int generation;
+    private long lastAttempt = -1;
+
+    Subscription(Key key) {
+      this.key = key;
+    }
+
+    /**
+     * Subscribes to the view's events if they are not delivered.
+     *
+     * @return true if the events are delivered
+     */
+    synchronized boolean ensureLive(long now, PrintStream logger) {
+      if (source != null && source.isAlive()) {
+        return true;
+      }
+      if (source != null) {
+        logger.println("StarTeam events of " + key + " were lost");
+        closeSource();
+      }
+      if (lastAttempt >= 0 && now - lastAttempt < RETRY_MILLIS) {
+        return false;
+      }
+      lastAttempt = now;
+      try {
+        source = factory.open(key, this);
+        generation++;
+        lastAttempt = -1;
+        logger.println("StarTeam events of " + key + " subscribed");
+        return true;
+      } catch (StarTeamSCMException e) {
+        logger.println("StarTeam events of " + key + " are not available: " + e.getMessage());
+        return false;
+      }
+    }
+
+    private void closeSource() {
+      if (source != null) {
+        try {
+          source.close();
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.FINE, "Cannot close the events of " + key, e);
+        }
+        source = null;
+      }
+    }
+
+    public void itemChanged(StarTeamEventSource.Kind kind, String path) {
+      String normalized = normalize(path);
+      long now = System.currentTimeMillis();
+      List<Job> triggered = new ArrayList<Job>();
+      boolean unused;
+      synchronized (this) {
+        for (Iterator<Subscriber> it = subscribers.values().iterator(); it.hasNext(); ) {
+          Subscriber subscriber = it.next();
+          if (!subscriber.covers(normalized)) {
+            continue;
+          }
+          if (!subscriber.job.isCurrent()) {
+            it.remove();
+            continue;
+          }
+          // a check-in of many files is one build, the queue merges the rest anyway
+          if (subscriber.lastScheduled >= 0 && now - subscriber.lastScheduled < TimeUnit.SECONDS.toMillis(quietSeconds)) {
+            continue;
+          }
+          subscriber.lastScheduled = now;
+          triggered.add(subscriber.job);
+        }
+        unused = subscribers.isEmpty();
+      }
+      if (unused) {
+        forgetIfUnused(key);
+      }
+      for (Job job : triggered) {
+        LOGGER.log(Level.FINE, "{0} {1} triggers {2}", new Object[]{path, kind, job.getName()});
+        if (job.schedule(quietSeconds, new StarTeamEventCause(kind.name(), path))) {
+          synchronized (StarTeamEventTrigger.this) {
+            scheduled++;
+          }
+        }
+      }
+    }
+  }
+
+  private final boolean enabled;
+  private final StarTeamEventSource.Factory factory;
+  private final long safetyNetMillis;
+  private final int quietSeconds;
+  private final Map<Key, Subscription> subscriptions = new HashMap<Key, Subscription>();
+  private final Map<String, Key> jobs = new HashMap<String, Key>();
+
+  private long scheduled;
+
+  StarTeamEventTrigger() {
+    this(ENABLED, StarTeamServerEventSource.FACTORY, SAFETY_NET_MILLIS, QUIET_SECONDS);
+  }
+
+  StarTeamEventTrigger(boolean enabled, StarTeamEventSource.Factory factory, long safetyNetMillis,
+                       int quietSeconds) {
+    this.enabled = enabled;
+    this.factory = factory;
+    this.safetyNetMillis = safetyNetMillis;
+    this.quietSeconds = quietSeconds;
+  }
+
+  /**
+   * Subscribes a job to the events of its view and tells whether its poll can do without
+   * listing the folder.
+   *
+   * @param key            the view of the job
+   * @param folderName     the folder of the job
+   * @param configSelector the configuration selector of the job, may be null
+   * @param job            the job
+   * @param logger         where to report the subscription
+   * @return true if the events of the view are delivered and the job listed its folder since
+   * they are, within the safety net interval
+   */
+  boolean skipPoll(Key key, String folderName, StarTeamViewSelector configSelector, Job job, PrintStream logger) {
+    if (!enabled) {
+      return false;
+    }
+    String folder = normalize(folderName.endsWith("/") || folderName.endsWith("\\") ? folderName : folderName + "/");
+    Subscription subscription;
+    Subscriber subscriber;
+    synchronized (this) {
+      Key previous = jobs.get(job.getName());
+      if (previous != null && (configSelector != null || !previous.equals(key))) {
+        unsubscribe(previous, job.getName());
+      }
+      if (configSelector != null) {
+        logger.println("StarTeam events do not tell when a configuration selector changes, polling lists the folder");
+        return false;
+      }
+      subscription = subscriptions.get(key);
+      if (subscription == null) {
+        subscription = new Subscription(key);
+        subscriptions.put(key, subscription);
+      }
+      jobs.put(job.getName(), key);
+      synchronized (subscription) {
+        subscriber = subscription.subscribers.get(job.getName());
+        if (subscriber == null || !subscriber.folder.equals(folder)) {
+          subscriber = new Subscriber(folder, job);
+          subscription.subscribers.put(job.getName(), subscriber);
+        }
+        subscriber.job = job;
+      }
+    }
+    long now = System.currentTimeMillis();
+    boolean live = subscription.ensureLive(now, logger);
+    synchronized (subscription) {
+      if (live && subscriber.listedIn == subscription.generation && now - subscriber.lastListing < safetyNetMillis) {
+        logger.println("StarTeam events of " + key + " trigger the builds, the next listing is due in "
+            + TimeUnit.MILLISECONDS.toMinutes(safetyNetMillis - (now - subscriber.lastListing) + 59999) + " minutes");
+        return true;
+      }
+      subscriber.lastListing = now;
+      subscriber.listedIn = live ? subscription.generation : -1;
+      return false;
+    }
+  }
+
+  private void unsubscribe(Key key, String name) {
+    jobs.remove(name);
+    Subscription subscription = subscriptions.get(key);
+    if (subscription != null) {
+      synchronized (subscription) {
+        subscription.subscribers.remove(name);
+      }
+      forgetIfUnused(key);
+    }
+  }
+
+  /**
+   * Closes the events of a view once no job that is current subscribes to them.
+   */
+  private synchronized void forgetIfUnused(Key key) {
+    Subscription subscription = subscriptions.get(key);
+    if (subscription == null) {
+      return;
+    }
+    synchronized (subscription) {
+      for (Iterator<Subscriber> it = subscription.subscribers.values().iterator(); it.hasNext(); ) {
+        Subscriber subscriber = it.next();
+        if (!subscriber.job.isCurrent()) {
+          if (key.equals(jobs.get(subscriber.job.getName()))) {
+            jobs.remove(subscriber.job.getName());
+          }
+          it.remove();
+        }
+      }
+      if (subscription.subscribers.isEmpty()) {
+        LOGGER.log(Level.FINE, "No job subscribes to the events of {0} any more", key);
+        subscription.closeSource();
+        subscriptions.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Closes every subscription.
+   */
+  synchronized void closeAll() {
+    for (Subscription subscription : subscriptions.values()) {
+      synchronized (subscription) {
+        subscription.closeSource();
+      }
+    }
+    subscriptions.clear();
+    jobs.clear();
+  }
+
+  /**
+   * @param path a folder or item path, with either separator and in any case
+   * @return the path in lower case with <tt>/</tt> separators
+   */
+  static String normalize(String path) {
+    return path.replace('\\', '/').toLowerCase();
+  }
+
+  /**
+   * @return the number of views subscribed to
+   */
+  synchronized int size() {
+    return subscriptions.size();
+  }
+
+  /**
+   * @return the number of builds scheduled by events
+   */
+  synchronized long getScheduled() {
+    return scheduled;
+  }
+}
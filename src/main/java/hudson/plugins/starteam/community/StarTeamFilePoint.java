@@ -9,7 +9,7 @@ import java.util.Date;
 /**
  * Stores a reference to the file at the particular revision.
  */
-public class StarTeamFilePoint implements Serializable, Comparable {
+public class StarTeamFilePoint implements Serializable, Comparable<StarTeamFilePoint> {
 
   /**
    *
@@ -19,6 +19,7 @@ public class StarTeamFilePoint implements Serializable, Comparable {
   private String fullfilepath;
   private int revisionnumber;
   private long lastModifyDate;
+  private transient StarTeamPath path;
 
   public StarTeamFilePoint() {
     super();
@@ -29,6 +30,10 @@ public class StarTeamFilePoint implements Serializable, Comparable {
     this(f.getFullName(), VersionedObject.getViewVersion(f.getDotNotation()), f.getContentModifiedTime().toJavaMsec());
   }
 
+  public StarTeamFilePoint(StarTeamItem item) {
+    this(item.getFullName(), item.getRevisionNumber(), item.getContentModifiedTime());
+  }
+
   public StarTeamFilePoint(String fullFilePath, int revisionNumber, long lastModifyDate) {
     this.fullfilepath = fullFilePath;
     this.revisionnumber = revisionNumber;
@@ -47,6 +52,16 @@ public class StarTeamFilePoint implements Serializable, Comparable {
     return new File(getFullfilepath());
   }
 
+  /**
+   * @return the path, created on first use
+   */
+  public StarTeamPath getPath() {
+    if (path == null) {
+      path = StarTeamPath.of(fullfilepath);
+    }
+    return path;
+  }
+
   public boolean equals(Object o) {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) {
@@ -55,21 +70,19 @@ public class StarTeamFilePoint implements Serializable, Comparable {
 
     StarTeamFilePoint that = (StarTeamFilePoint) o;
 
-    if (fullfilepath != null ? !fullfilepath.equals(that.fullfilepath) : that.fullfilepath != null) {
-      return false;
+    if (fullfilepath == null || that.fullfilepath == null) {
+      return fullfilepath == that.fullfilepath;
     }
 
-    return true;
+    return getPath().equals(that.getPath());
   }
 
   public int hashCode() {
-    int result;
-    result = (fullfilepath != null ? fullfilepath.hashCode() : 0);
-    return result;
+    return fullfilepath != null ? getPath().hashCode() : 0;
   }
 
-  public int compareTo(Object o) {
-    return fullfilepath.toLowerCase().compareTo(((StarTeamFilePoint) o).fullfilepath.toLowerCase());
+  public int compareTo(StarTeamFilePoint o) {
+    return getPath().compareTo(o.getPath());
   }
 
   public int getRevisionNumber() {
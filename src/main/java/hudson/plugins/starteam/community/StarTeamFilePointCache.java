@@ -0,0 +1,274 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * File points of earlier builds, kept on the machine the workspace lives on so that the
+ * master does not send them with every checkout and poll.
+ * <p>
+ * The file points of the last builds are stored next to the workspace
+ * (<tt>&lt;workspace&gt;@starteam-filepoints</tt>) in the format of
+ * {@link StarTeamFilePointFile}, named by build number and digest, and the last ones used
+ * are also kept in memory by job, build number and digest for as long as memory allows.
+ * A {@link StarTeamFilePointReference} is resolved from the newest build of its chain found
+ * here; only the files after it are streamed from the master.
+ * <p>
+ * The number of builds kept on disk defaults to 3 and can be set with the system property
+ * <tt>hudson.plugins.starteam.community.StarTeamFilePointCache.maxBuilds</tt> on the agent.
+ */
+final class StarTeamFilePointCache {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamFilePointCache.class.getName());
+
+  static final String CACHE_SUFFIX = "@starteam-filepoints";
+
+  private static final int MAX_BUILDS = Math.max(1,
+      Integer.getInteger(StarTeamFilePointCache.class.getName() + ".maxBuilds", 3));
+
+  private static final int MAX_IN_MEMORY = 8;
+
+  private static final Map<String, SoftReference<Collection<StarTeamFilePoint>>> MEMORY =
+      new LinkedHashMap<String, SoftReference<Collection<StarTeamFilePoint>>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SoftReference<Collection<StarTeamFilePoint>>> eldest) {
+          return size() > MAX_IN_MEMORY;
+        }
+      };
+
+  private final java.io.File folder;
+
+  /**
+   * @param workspace the workspace whose builds are cached
+   */
+  StarTeamFilePointCache(java.io.File workspace) {
+    this.folder = new java.io.File(workspace.getAbsolutePath() + CACHE_SUFFIX);
+  }
+
+  /**
+   * Gets the file points a reference names, streaming from the master what is not cached.
+   *
+   * @param reference the file points of a build
+   * @param logger    where to report what was streamed
+   * @return the file points, in path order
+   * @throws IOException          if the file points cannot be read or streamed
+   * @throws InterruptedException if streaming is interrupted
+   */
+  Collection<StarTeamFilePoint> load(StarTeamFilePointReference reference, PrintStream logger)
+      throws IOException, InterruptedException {
+    String key = key(reference.getJob(), reference.getBuildNumber(), reference.getDigest());
+    Collection<StarTeamFilePoint> points = recall(key);
+    if (points != null) {
+      logger.println("File points of build #" + reference.getBuildNumber() + " found in memory");
+      return points;
+    }
+
+    List<StarTeamFilePointReference.Link> links = reference.getLinks();
+    int start = links.size() - 1;
+    Collection<StarTeamFilePoint> base = null;
+    while (start >= 0 && base == null) {
+      base = read(links.get(start).getBuildNumber(), links.get(start).getDigest());
+      if (base == null) {
+        start--;
+      }
+    }
+    int cachedBuild = base == null ? -1 : links.get(start).getBuildNumber();
+    long streamed = 0;
+    if (base == null) {
+      start = 0;
+      folder.mkdirs();
+      java.io.File download = java.io.File.createTempFile("download", ".tmp", folder);
+      try {
+        OutputStream os = new FileOutputStream(download);
+        try {
+          links.get(0).getFile().copyTo(os);
+        } finally {
+          os.close();
+        }
+        streamed += download.length();
+        base = StarTeamFilePointFunctions.loadCollection(download);
+      } finally {
+        download.delete();
+      }
+    }
+    if (start == links.size() - 1) {
+      points = base;
+    } else {
+      Map<StarTeamPath, StarTeamFilePoint> replayed = new TreeMap<StarTeamPath, StarTeamFilePoint>();
+      for (StarTeamFilePoint point : base) {
+        replayed.put(point.getPath(), point);
+      }
+      for (int i = start + 1; i < links.size(); i++) {
+        CountingInputStream in = new CountingInputStream(links.get(i).getFile().read());
+        try {
+          StarTeamFilePointDelta.read(in).applyTo(replayed);
+        } finally {
+          in.close();
+        }
+        streamed += in.getByteCount();
+      }
+      points = new ArrayList<StarTeamFilePoint>(replayed.values());
+    }
+    if (streamed == 0) {
+      logger.println("File points of build #" + reference.getBuildNumber() + " found in " + folder);
+      points = freeze(points);
+      remember(key, points);
+      return points;
+    }
+    logger.println("File points of build #" + reference.getBuildNumber() + ": "
+        + (cachedBuild < 0 ? "not cached" : "cached as of build #" + cachedBuild) + ", streamed " + streamed
+        + " bytes from the master");
+    return store(reference.getJob(), reference.getBuildNumber(), reference.getDigest(), points);
+  }
+
+  /**
+   * Caches the file points of a build, typically the ones just stored by a checkout.
+   *
+   * @param job         the full name of the job
+   * @param buildNumber the number of the build
+   * @param digest      the digest of the file points, as a {@link StarTeamFilePointReference} has it
+   * @param points      the file points
+   * @return the cached file points, not to be modified
+   */
+  Collection<StarTeamFilePoint> store(String job, int buildNumber, String digest, Collection<StarTeamFilePoint> points) {
+    Collection<StarTeamFilePoint> result = freeze(points);
+    remember(key(job, buildNumber, digest), result);
+    java.io.File tmp = null;
+    try {
+      folder.mkdirs();
+      tmp = java.io.File.createTempFile("store", ".tmp", folder);
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+      try {
+        StarTeamFilePointFile.write(os, points);
+      } finally {
+        os.close();
+      }
+      java.io.File file = file(buildNumber, digest);
+      if (!tmp.renameTo(file)) {
+        file.delete();
+        if (!tmp.renameTo(file)) {
+          throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+      }
+      prune();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Cannot cache the file points of build #" + buildNumber + " in " + folder, e);
+      if (tmp != null) {
+        tmp.delete();
+      }
+    }
+    return result;
+  }
+
+  private Collection<StarTeamFilePoint> read(int buildNumber, String digest) {
+    java.io.File file = file(buildNumber, digest);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      return StarTeamFilePointFunctions.loadCollection(file);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Cannot read cached file points " + file, e);
+      file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Deletes the files of all but the newest builds.
+   */
+  private void prune() {
+    String[] names = folder.list();
+    if (names == null) {
+      return;
+    }
+    List<Integer> builds = new ArrayList<Integer>();
+    for (String name : names) {
+      int build = buildNumberOf(name);
+      if (build >= 0 && !builds.contains(build)) {
+        builds.add(build);
+      }
+    }
+    if (builds.size() <= MAX_BUILDS) {
+      return;
+    }
+    Collections.sort(builds, Collections.reverseOrder());
+    List<Integer> kept = builds.subList(0, MAX_BUILDS);
+    for (String name : names) {
+      int build = buildNumberOf(name);
+      if (build >= 0 && !kept.contains(build)) {
+        new java.io.File(folder, name).delete();
+      }
+    }
+  }
+
+  private java.io.File file(int buildNumber, String digest) {
+    return new java.io.File(folder, buildNumber + "-" + digest + ".dat");
+  }
+
+  /**
+   * @return the build number of a cache file, or -1 if the name is not one of a cache file
+   */
+  static int buildNumberOf(String name) {
+    int dash = name.indexOf('-');
+    if (dash <= 0 || !name.endsWith(".dat")) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(name.substring(0, dash));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return the points as an unmodifiable list, which the diff can use without sorting a copy
+   */
+  private static Collection<StarTeamFilePoint> freeze(Collection<StarTeamFilePoint> points) {
+    if (points instanceof List) {
+      return Collections.unmodifiableList((List<StarTeamFilePoint>) points);
+    }
+    return Collections.unmodifiableList(new ArrayList<StarTeamFilePoint>(points));
+  }
+
+  private static String key(String job, int buildNumber, String digest) {
+    return job + '#' + buildNumber + '#' + digest;
+  }
+
+  private static Collection<StarTeamFilePoint> recall(String key) {
+    synchronized (MEMORY) {
+      SoftReference<Collection<StarTeamFilePoint>> reference = MEMORY.get(key);
+      return reference == null ? null : reference.get();
+    }
+  }
+
+  private static void remember(String key, Collection<StarTeamFilePoint> points) {
+    synchronized (MEMORY) {
+      MEMORY.put(key, new SoftReference<Collection<StarTeamFilePoint>>(points));
+    }
+  }
+
+  /**
+   * Forgets what is kept in memory, for tests.
+   */
+  static void clearMemory() {
+    synchronized (MEMORY) {
+      MEMORY.clear();
+    }
+  }
+}
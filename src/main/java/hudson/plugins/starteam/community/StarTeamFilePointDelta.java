@@ -0,0 +1,181 @@
+package hudson.plugins.starteam.community;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The file points of a build, stored as the difference to the file points of an earlier
+ * build.
+ * <p>
+ * The depth counts the deltas between this one and the nearest full file points file,
+ * so loading a build never replays more than the configured maximum depth.
+ * <pre>
+ * header:  int magic, int version, int base build number, int depth
+ * removed: int count, count x UTF path
+ * changed: int count, count x (UTF path, int revision, long last modify date)
+ * </pre>
+ */
+final class StarTeamFilePointDelta {
+
+  static final int MAGIC = 0x53544644; // "STFD"
+  static final int VERSION = 1;
+
+  private final int baseBuildNumber;
+  private final int depth;
+  private final Collection<String> removed;
+  private final Collection<StarTeamFilePoint> changed;
+
+  StarTeamFilePointDelta(int baseBuildNumber, int depth, Collection<String> removed,
+                         Collection<StarTeamFilePoint> changed) {
+    this.baseBuildNumber = baseBuildNumber;
+    this.depth = depth;
+    this.removed = removed;
+    this.changed = changed;
+  }
+
+  /**
+   * Computes the difference between two sets of file points.
+   *
+   * @param baseBuildNumber the build the historic file points belong to
+   * @param depth           the depth of the new delta, one more than the base's
+   * @param historic        the file points of the base build
+   * @param current         the file points to store
+   * @return the delta that turns historic into current
+   */
+  static StarTeamFilePointDelta compute(int baseBuildNumber, int depth, Collection<StarTeamFilePoint> historic,
+                                        Collection<StarTeamFilePoint> current) {
+    Map<StarTeamPath, StarTeamFilePoint> historicByPath =
+        new HashMap<StarTeamPath, StarTeamFilePoint>(historic.size() * 4 / 3 + 1);
+    for (StarTeamFilePoint point : historic) {
+      historicByPath.put(point.getPath(), point);
+    }
+    Collection<StarTeamFilePoint> changed = new ArrayList<StarTeamFilePoint>();
+    Set<StarTeamPath> currentPaths = new HashSet<StarTeamPath>(current.size() * 4 / 3 + 1);
+    for (StarTeamFilePoint point : current) {
+      currentPaths.add(point.getPath());
+      StarTeamFilePoint before = historicByPath.get(point.getPath());
+      if (before == null || before.getRevisionNumber() != point.getRevisionNumber()
+          || before.getLastModifyDate() != point.getLastModifyDate()) {
+        changed.add(point);
+      }
+    }
+    Collection<String> removed = new ArrayList<String>();
+    for (StarTeamPath path : historicByPath.keySet()) {
+      if (!currentPaths.contains(path)) {
+        removed.add(path.getPath());
+      }
+    }
+    return new StarTeamFilePointDelta(baseBuildNumber, depth, removed, changed);
+  }
+
+  int getBaseBuildNumber() {
+    return baseBuildNumber;
+  }
+
+  int getDepth() {
+    return depth;
+  }
+
+  Collection<String> getRemoved() {
+    return removed;
+  }
+
+  Collection<StarTeamFilePoint> getChanged() {
+    return changed;
+  }
+
+  /**
+   * Turns the file points of the base build into the ones of this build.
+   *
+   * @param points file points by path, modified in place
+   */
+  void applyTo(Map<StarTeamPath, StarTeamFilePoint> points) {
+    for (String path : removed) {
+      points.remove(StarTeamPath.of(path));
+    }
+    for (StarTeamFilePoint point : changed) {
+      points.put(point.getPath(), point);
+    }
+  }
+
+  /**
+   * @param out the stream to write to, flushed but not closed
+   * @throws IOException if writing fails
+   */
+  void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 65536));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(baseBuildNumber);
+    data.writeInt(depth);
+    data.writeInt(removed.size());
+    for (String path : removed) {
+      data.writeUTF(path);
+    }
+    data.writeInt(changed.size());
+    for (StarTeamFilePoint point : changed) {
+      data.writeUTF(point.getFullfilepath());
+      data.writeInt(point.getRevisionNumber());
+      data.writeLong(point.getLastModifyDate());
+    }
+    data.flush();
+  }
+
+  /**
+   * @param in a stream written by {@link #write}
+   * @return the delta
+   * @throws IOException if the stream cannot be read or is not a delta
+   */
+  static StarTeamFilePointDelta read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in, 65536));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not a file point delta");
+    }
+    int version = data.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported file point delta version " + version);
+    }
+    int baseBuildNumber = data.readInt();
+    int depth = data.readInt();
+    int removedCount = data.readInt();
+    Collection<String> removed = new ArrayList<String>(removedCount);
+    for (int i = 0; i < removedCount; i++) {
+      removed.add(data.readUTF());
+    }
+    int changedCount = data.readInt();
+    Collection<StarTeamFilePoint> changed = new ArrayList<StarTeamFilePoint>(changedCount);
+    for (int i = 0; i < changedCount; i++) {
+      String path = data.readUTF();
+      int revision = data.readInt();
+      long lastModifyDate = data.readLong();
+      changed.add(new StarTeamFilePoint(path, revision, lastModifyDate));
+    }
+    return new StarTeamFilePointDelta(baseBuildNumber, depth, removed, changed);
+  }
+
+  /**
+   * @param file a delta file
+   * @return the delta
+   * @throws IOException if the file cannot be read or is not a delta
+   */
+  static StarTeamFilePointDelta read(java.io.File file) throws IOException {
+    InputStream is = new FileInputStream(file);
+    try {
+      return read(is);
+    } finally {
+      is.close();
+    }
+  }
+}
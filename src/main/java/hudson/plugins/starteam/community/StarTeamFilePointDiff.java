@@ -0,0 +1,183 @@
+package hudson.plugins.starteam.community;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Compares the file points of a view with those of an earlier build in one merge pass
+ * over both sides in path order.
+ * <p>
+ * File points read from a file point file come sorted already, as do those listed from a
+ * view through a sorted map; a side that is not sorted is sorted once into a copy. Apart
+ * from that no memory is used besides what the visitor keeps. Where a side holds a path
+ * more than once, the last of them counts.
+ */
+final class StarTeamFilePointDiff {
+
+  /**
+   * Orders listed files as {@link StarTeamFilePointFile#PATH_ORDER} orders file points.
+   */
+  static final Comparator<StarTeamItem> ITEM_ORDER = new Comparator<StarTeamItem>() {
+    public int compare(StarTeamItem o1, StarTeamItem o2) {
+      return StarTeamPath.compare(o1.getFullName(), o2.getFullName());
+    }
+  };
+
+  /**
+   * Told about every path of either side, in path order.
+   */
+  interface Visitor {
+    /**
+     * The path is only in the view.
+     */
+    void added(StarTeamFilePoint current);
+
+    /**
+     * The path is only in the earlier build.
+     */
+    void removed(StarTeamFilePoint historic);
+
+    /**
+     * The view has a higher revision.
+     */
+    void changed(StarTeamFilePoint current, StarTeamFilePoint historic);
+
+    /**
+     * The view has a lower revision, for instance after a label moved back.
+     */
+    void rolledBack(StarTeamFilePoint current, StarTeamFilePoint historic);
+
+    /**
+     * The view has the same revision; whether the working file is unchanged is up to
+     * the visitor.
+     */
+    void sameRevision(StarTeamFilePoint current, StarTeamFilePoint historic);
+  }
+
+  private StarTeamFilePointDiff() {
+  }
+
+  static void diff(Collection<StarTeamFilePoint> current, Collection<StarTeamFilePoint> historic, Visitor visitor) {
+    List<StarTeamFilePoint> c = sorted(current);
+    List<StarTeamFilePoint> h = sorted(historic);
+    int i = last(c, 0, StarTeamFilePointFile.PATH_ORDER);
+    int j = last(h, 0, StarTeamFilePointFile.PATH_ORDER);
+    while (i < c.size() || j < h.size()) {
+      int cmp;
+      if (i == c.size()) {
+        cmp = 1;
+      } else if (j == h.size()) {
+        cmp = -1;
+      } else {
+        cmp = StarTeamFilePointFile.PATH_ORDER.compare(c.get(i), h.get(j));
+      }
+      if (cmp < 0) {
+        visitor.added(c.get(i));
+        i = last(c, i + 1, StarTeamFilePointFile.PATH_ORDER);
+      } else if (cmp > 0) {
+        visitor.removed(h.get(j));
+        j = last(h, j + 1, StarTeamFilePointFile.PATH_ORDER);
+      } else {
+        StarTeamFilePoint currentPoint = c.get(i);
+        StarTeamFilePoint historicPoint = h.get(j);
+        if (currentPoint.getRevisionNumber() > historicPoint.getRevisionNumber()) {
+          visitor.changed(currentPoint, historicPoint);
+        } else if (currentPoint.getRevisionNumber() < historicPoint.getRevisionNumber()) {
+          visitor.rolledBack(currentPoint, historicPoint);
+        } else {
+          visitor.sameRevision(currentPoint, historicPoint);
+        }
+        i = last(c, i + 1, StarTeamFilePointFile.PATH_ORDER);
+        j = last(h, j + 1, StarTeamFilePointFile.PATH_ORDER);
+      }
+    }
+  }
+
+  /**
+   * Finds the first path, in path order, that the view added, removed or has at another
+   * revision than the earlier build, and looks no further. Neither side is converted and
+   * nothing is allocated besides a sorted copy of a side that is not sorted.
+   * <p>
+   * Unlike {@link #diff}, paths with the same revision count as unchanged: whether their
+   * working files were modified is a question for the workspace, not for the view.
+   *
+   * @param current  the files listed from the view
+   * @param historic the file points of the earlier build
+   * @return the difference, for the log, or null if the view has the revisions of the
+   * earlier build
+   */
+  static String firstDifference(Collection<StarTeamItem> current, Collection<StarTeamFilePoint> historic) {
+    List<StarTeamItem> c = sorted(current, ITEM_ORDER);
+    List<StarTeamFilePoint> h = sorted(historic);
+    int i = last(c, 0, ITEM_ORDER);
+    int j = last(h, 0, StarTeamFilePointFile.PATH_ORDER);
+    while (i < c.size() || j < h.size()) {
+      if (i == c.size()) {
+        return "removed " + h.get(j).getFullfilepath();
+      }
+      if (j == h.size()) {
+        return "added " + c.get(i).getFullName();
+      }
+      StarTeamItem item = c.get(i);
+      StarTeamFilePoint point = h.get(j);
+      int cmp = StarTeamPath.compare(item.getFullName(), point.getFullfilepath());
+      if (cmp < 0) {
+        return "added " + item.getFullName();
+      }
+      if (cmp > 0) {
+        return "removed " + point.getFullfilepath();
+      }
+      if (item.getRevisionNumber() != point.getRevisionNumber()) {
+        return "changed " + item.getFullName() + " (revision " + point.getRevisionNumber() + " to "
+            + item.getRevisionNumber() + ")";
+      }
+      i = last(c, i + 1, ITEM_ORDER);
+      j = last(h, j + 1, StarTeamFilePointFile.PATH_ORDER);
+    }
+    return null;
+  }
+
+  /**
+   * @return the index of the last of the elements from the given index on that have the
+   * path of the element at that index
+   */
+  private static <T> int last(List<T> elements, int index, Comparator<? super T> order) {
+    while (index + 1 < elements.size() && order.compare(elements.get(index), elements.get(index + 1)) == 0) {
+      index++;
+    }
+    return index;
+  }
+
+  /**
+   * @return the points in path order: the collection itself if it is a sorted list,
+   * otherwise a sorted copy
+   */
+  static List<StarTeamFilePoint> sorted(Collection<StarTeamFilePoint> points) {
+    return sorted(points, StarTeamFilePointFile.PATH_ORDER);
+  }
+
+  private static <T> List<T> sorted(Collection<T> elements, Comparator<? super T> order) {
+    if (elements instanceof List && elements instanceof RandomAccess) {
+      List<T> list = (List<T>) elements;
+      if (isSorted(list, order)) {
+        return list;
+      }
+    }
+    List<T> copy = new ArrayList<T>(elements);
+    Collections.sort(copy, order);
+    return copy;
+  }
+
+  private static <T> boolean isSorted(List<T> elements, Comparator<? super T> order) {
+    for (int i = 1; i < elements.size(); i++) {
+      if (order.compare(elements.get(i - 1), elements.get(i)) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
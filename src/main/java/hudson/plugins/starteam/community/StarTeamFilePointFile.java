@@ -0,0 +1,188 @@
+package hudson.plugins.starteam.community;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Binary storage of file points.
+ * <p>
+ * Entries are sorted by {@link StarTeamPath}. Paths are prefix compressed against the previous entry,
+ * except for every {@link #RESTART_INTERVAL}th entry which holds its full path. Revision
+ * and modification time live in a fixed-width column after the paths.
+ * <pre>
+ * header:   int magic, int version, int count, int restart interval, int flags
+ * paths:    count x (varint shared prefix length, varint suffix length, UTF-8 suffix)
+ * columns:  count x (int revision, long last modify date)
+ * restarts: restart count x (int offset of a full path entry)
+ * footer:   int offset of the columns, int restart count, int magic
+ * </pre>
+ * The restart points and fixed-width columns would let a single path be looked up by a
+ * binary search without decoding the other entries; the diff reads every file point
+ * anyway, so file points are only ever read as a whole with {@link #read}.
+ * <p>
+ * The flags record whether case was ignored when the entries were sorted. Files of
+ * version 1 have no flags and are sorted by the plain string order of the paths; they are
+ * read all the same.
+ */
+final class StarTeamFilePointFile {
+
+  static final int MAGIC = 0x53544650; // "STFP"
+  static final int VERSION = 2;
+  static final int RESTART_INTERVAL = 16;
+
+  private static final int FLAG_IGNORE_CASE = 1;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  static final Comparator<StarTeamFilePoint> PATH_ORDER = new Comparator<StarTeamFilePoint>() {
+    public int compare(StarTeamFilePoint o1, StarTeamFilePoint o2) {
+      return o1.getPath().compareTo(o2.getPath());
+    }
+  };
+
+  private StarTeamFilePointFile() {
+  }
+
+  /**
+   * @param file the file to check
+   * @return true if the file starts like a file in this format.
+   * @throws IOException if the file cannot be read
+   */
+  static boolean isFilePointFile(java.io.File file) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      return in.readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes file points in this format. The points are sorted by path first; only the
+   * revisions, dates and restart offsets are buffered, the paths are streamed out.
+   *
+   * @param out    the stream to write to, flushed but not closed
+   * @param points the file points to store
+   * @throws IOException if writing fails
+   */
+  static void write(OutputStream out, Collection<StarTeamFilePoint> points) throws IOException {
+    StarTeamFilePoint[] sorted = points.toArray(new StarTeamFilePoint[points.size()]);
+    Arrays.sort(sorted, PATH_ORDER);
+
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 65536));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(sorted.length);
+    data.writeInt(RESTART_INTERVAL);
+    data.writeInt(StarTeamPath.IGNORE_CASE ? FLAG_IGNORE_CASE : 0);
+
+    int[] restarts = new int[(sorted.length + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+    byte[] previous = new byte[0];
+    for (int i = 0; i < sorted.length; i++) {
+      byte[] path = sorted[i].getFullfilepath().getBytes(UTF8);
+      int shared = 0;
+      if (i % RESTART_INTERVAL == 0) {
+        restarts[i / RESTART_INTERVAL] = data.size();
+      } else {
+        int max = Math.min(previous.length, path.length);
+        while (shared < max && previous[shared] == path[shared]) {
+          shared++;
+        }
+      }
+      writeVarInt(data, shared);
+      writeVarInt(data, path.length - shared);
+      data.write(path, shared, path.length - shared);
+      previous = path;
+    }
+
+    int columnsOffset = data.size();
+    for (StarTeamFilePoint point : sorted) {
+      data.writeInt(point.getRevisionNumber());
+      data.writeLong(point.getLastModifyDate());
+    }
+    for (int restart : restarts) {
+      data.writeInt(restart);
+    }
+    data.writeInt(columnsOffset);
+    data.writeInt(restarts.length);
+    data.writeInt(MAGIC);
+    data.flush();
+  }
+
+  /**
+   * Reads a whole stream in this format.
+   *
+   * @param in the stream, positioned at the start of the header
+   * @return all file points, in the order they are stored
+   * @throws IOException if the stream cannot be read or is not in this format
+   */
+  static Collection<StarTeamFilePoint> read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in, 65536));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not a file point file");
+    }
+    int version = data.readInt();
+    if (version != VERSION && version != 1) {
+      throw new IOException("Unsupported file point file version " + version);
+    }
+    int count = data.readInt();
+    data.readInt(); // restart interval, only needed for lookups
+    if (version == VERSION) {
+      data.readInt(); // flags, the order does not matter to a whole read
+    }
+
+    String[] paths = new String[count];
+    byte[] path = new byte[256];
+    for (int i = 0; i < count; i++) {
+      int shared = readVarInt(data);
+      int suffix = readVarInt(data);
+      int length = shared + suffix;
+      if (length > path.length) {
+        path = Arrays.copyOf(path, Math.max(length, path.length * 2));
+      }
+      data.readFully(path, shared, suffix);
+      paths[i] = new String(path, 0, length, UTF8);
+    }
+    Collection<StarTeamFilePoint> result = new ArrayList<StarTeamFilePoint>(count);
+    for (int i = 0; i < count; i++) {
+      int revision = data.readInt();
+      long lastModifyDate = data.readLong();
+      result.add(new StarTeamFilePoint(paths[i], revision, lastModifyDate));
+    }
+    return result;
+  }
+
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = in.readUnsignedByte();
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+}
@@ -1,9 +1,10 @@
 package hudson.plugins.starteam.community;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
 
@@ -13,6 +14,15 @@ import java.util.*;
 
 public class StarTeamFilePointFunctions {
 
+  /**
+   * How many builds in a row may store their file points as a delta before a full
+   * file points file is written again. 0, the default, always stores them in full.
+   * Builds discarded by the log rotator break the chain of the builds after them,
+   * which then start again from a full comparison of the workspace.
+   */
+  private static final int MAX_DELTA_DEPTH =
+      Integer.getInteger(StarTeamFilePointFunctions.class.getName() + ".maxDeltaDepth", 0);
+
   private StarTeamFilePointFunctions() {
     throw new InstantiationError();
   }
@@ -43,6 +53,18 @@ public class StarTeamFilePointFunctions {
     return result;
   }
 
+  /**
+   * @param collection Collection of files listed by a repository
+   * @return collection of FilePoints - information vector needed keeping track of file status
+   */
+  public static Collection<StarTeamFilePoint> convertItemCollection(final Collection<StarTeamItem> collection) {
+    Collection<StarTeamFilePoint> result = new ArrayList<StarTeamFilePoint>(collection.size());
+    for (StarTeamItem item : collection) {
+      result.add(new StarTeamFilePoint(item));
+    }
+    return result;
+  }
+
   public static Collection<StarTeamFilePoint> extractFilePointSubCollection(final Map<java.io.File, StarTeamFilePoint> map,
                                                                             final Collection<java.io.File> collection) {
     Collection<StarTeamFilePoint> result = new ArrayList<StarTeamFilePoint>();
@@ -73,51 +95,78 @@ public class StarTeamFilePointFunctions {
    *
    * @param workFolder a Hudson workFolder directory
    * @return collection of files within workFolder
+   * @see StarTeamWorkspaceScanner
    */
   public static Collection<java.io.File> listAllFiles(final java.io.File workFolder) {
     Collection<java.io.File> result = new ArrayList<java.io.File>();
-    listAllFiles(result, workFolder.getAbsoluteFile());
+    for (StarTeamPath path : new StarTeamWorkspaceScanner().scan(workFolder).keySet()) {
+      result.add(path.toFile());
+    }
     return result;
   }
 
-  private static void listAllFiles(final Collection<java.io.File> result, final java.io.File dir) {
-    List<java.io.File> sub = new ArrayList<java.io.File>();
-    java.io.File[] files = dir.listFiles();
-    if (files != null) {
-      for (java.io.File f : files) {
-        if (f.isFile()) {
-          result.add(f);
-        } else if (f.isDirectory()) {
-          sub.add(f);
-        }
-      }
-      for (java.io.File f : sub) {
-        listAllFiles(result, f);
-      }
-    } else {
-      if (dir.isFile()) {
-        result.add(dir);
-      }
+  // storage
+
+  /**
+   * @param buildDir the root directory of a build
+   * @return the file points file of the build, in the current or the legacy format, or
+   * null if the build has none
+   */
+  public static java.io.File findFilePointFile(final java.io.File buildDir) {
+    java.io.File file = new java.io.File(buildDir, StarTeamConnection.FILE_POINT_FILENAME);
+    if (file.exists()) {
+      return file;
+    }
+    file = new java.io.File(buildDir, StarTeamConnection.LEGACY_FILE_POINT_FILENAME);
+    if (file.exists()) {
+      return file;
     }
+    return null;
   }
 
-  // storage
+  /**
+   * @return how many deltas may follow a full file points file.
+   */
+  public static int getMaxDeltaDepth() {
+    return MAX_DELTA_DEPTH;
+  }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Reads file points stored by {@link #storeCollection}, or by earlier versions as CSV.
+   *
+   * @param file the file points file
+   * @return the file points
+   * @throws IOException if the file cannot be read
+   */
   public static Collection<StarTeamFilePoint> loadCollection(final java.io.File file) throws IOException {
+    if (StarTeamFilePointFile.isFilePointFile(file)) {
+      InputStream is = new FileInputStream(file);
+      try {
+        return StarTeamFilePointFile.read(is);
+      } finally {
+        is.close();
+      }
+    }
+    return loadLegacyCollection(file);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Collection<StarTeamFilePoint> loadLegacyCollection(final java.io.File file) throws IOException {
     Collection<String> stringCollection = FileUtils.readLines(file, "ISO-8859-1");
     Collection<StarTeamFilePoint> result = new ArrayList<StarTeamFilePoint>();
     for (String str : stringCollection) {
 
-      String[] data = str.split(",");
+      // the path is last and may itself contain commas
+      String[] data = str.split(",", 3);
 
       String revision = data[0];
-      String lastModifyTime = data[1];
+      String lastModifyTime;
       String path;
-      if (data.length == 3) {
+      if (data.length == 3 && isNumber(data[1])) {
+        lastModifyTime = data[1];
         path = data[2];
       } else {
-        path = data[1];
+        path = str.substring(revision.length() + 1);
         lastModifyTime = "0";
       }
       StarTeamFilePoint f = new StarTeamFilePoint(path, Integer.parseInt(revision), Long.parseLong(lastModifyTime));
@@ -128,12 +177,27 @@ public class StarTeamFilePointFunctions {
     return result;
   }
 
-  public static void storeCollection(final OutputStream bos, final Collection<StarTeamFilePoint> collection) throws IOException {
-    Collection<String> stringCollection = new ArrayList<String>();
-    for (StarTeamFilePoint i : collection) {
-      stringCollection.add(i.getRevisionNumber() + "," + i.getLastModifyDate() + "," + i.getFullfilepath());
+  private static boolean isNumber(final String str) {
+    if (str.length() == 0) {
+      return false;
     }
-    IOUtils.writeLines(stringCollection, null, bos, "ISO-8859-1");
+    for (int i = str.charAt(0) == '-' ? 1 : 0; i < str.length(); i++) {
+      if (!Character.isDigit(str.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stores file points in the binary format of {@link StarTeamFilePointFile}.
+   *
+   * @param bos        the stream to write to
+   * @param collection the file points to store
+   * @throws IOException if writing fails
+   */
+  public static void storeCollection(final OutputStream bos, final Collection<StarTeamFilePoint> collection) throws IOException {
+    StarTeamFilePointFile.write(bos, collection);
   }
 
 }
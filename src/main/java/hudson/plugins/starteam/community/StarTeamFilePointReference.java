@@ -0,0 +1,270 @@
+package hudson.plugins.starteam.community;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Names the file points of a build for an agent, in place of the file points themselves.
+ * <p>
+ * Created on the master, it lists the files the file points are stored in: the nearest
+ * full file points file and the deltas after it, each with a {@link FilePath} to stream it
+ * from and a digest identifying the file points as of that build. An agent that has the
+ * file points of one of these builds in its {@link StarTeamFilePointCache} only streams the
+ * deltas after it, if any.
+ * <p>
+ * The digest of a full file is the MD5 of its content; the digest of a delta is the MD5 of
+ * the digest before it and the MD5 of the delta's content. Stored file points do not change,
+ * so the digests of their files are remembered on the master by path, size and time.
+ */
+final class StarTeamFilePointReference implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int MAX_REMEMBERED_DIGESTS = 256;
+
+  private static final Map<String, String> FILE_DIGESTS = new LinkedHashMap<String, String>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > MAX_REMEMBERED_DIGESTS;
+    }
+  };
+
+  /**
+   * One stored file of the chain.
+   */
+  static final class Link implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int buildNumber;
+    private final boolean delta;
+    private final FilePath file;
+    private final String digest;
+
+    Link(int buildNumber, boolean delta, FilePath file, String digest) {
+      this.buildNumber = buildNumber;
+      this.delta = delta;
+      this.file = file;
+      this.digest = digest;
+    }
+
+    int getBuildNumber() {
+      return buildNumber;
+    }
+
+    /**
+     * @return true for a delta to the link before, false for full file points
+     */
+    boolean isDelta() {
+      return delta;
+    }
+
+    FilePath getFile() {
+      return file;
+    }
+
+    /**
+     * @return the digest of the file points as of this build
+     */
+    String getDigest() {
+      return digest;
+    }
+  }
+
+  private final String job;
+  private final List<Link> links;
+
+  StarTeamFilePointReference(String job, List<Link> links) {
+    this.job = job;
+    this.links = links;
+  }
+
+  /**
+   * Describes the stored file points of a build.
+   *
+   * @param build a build, may be null
+   * @return the reference, or null if the build has no file points or a build in its delta
+   * chain has been deleted
+   * @throws IOException if a file cannot be read
+   */
+  static StarTeamFilePointReference create(AbstractBuild<?, ?> build) throws IOException {
+    if (build == null) {
+      return null;
+    }
+    return create(build.getProject() == null ? null : build.getProject().getFullName(), build.getNumber(),
+        build.getRootDir());
+  }
+
+  /**
+   * @param job         the full name of the job
+   * @param buildNumber the number of the build
+   * @param buildDir    the root directory of the build
+   * @return the reference, or null if the build has no file points or a build in its delta
+   * chain has been deleted
+   * @throws IOException if a file cannot be read
+   */
+  static StarTeamFilePointReference create(String job, int buildNumber, java.io.File buildDir) throws IOException {
+    List<Integer> numbers = new ArrayList<Integer>();
+    List<java.io.File> files = new ArrayList<java.io.File>();
+    java.io.File dir = buildDir;
+    int number = buildNumber;
+    int depth = 0;
+    java.io.File full = StarTeamFilePointFunctions.findFilePointFile(dir);
+    while (full == null) {
+      java.io.File deltaFile = new java.io.File(dir, StarTeamConnection.FILE_POINT_DELTA_FILENAME);
+      if (!deltaFile.exists()) {
+        return null;
+      }
+      StarTeamFilePointDelta delta = StarTeamFilePointDelta.read(deltaFile);
+      if (delta.getDepth() <= 0 || delta.getDepth() != (files.isEmpty() ? delta.getDepth() : depth - 1)) {
+        throw new IOException("Corrupt file point delta " + deltaFile);
+      }
+      depth = delta.getDepth();
+      numbers.add(number);
+      files.add(deltaFile);
+      number = delta.getBaseBuildNumber();
+      dir = new java.io.File(buildDir.getParentFile(), Integer.toString(number));
+      full = StarTeamFilePointFunctions.findFilePointFile(dir);
+    }
+    numbers.add(number);
+    files.add(full);
+
+    List<Link> links = new ArrayList<Link>(files.size());
+    String digest = null;
+    for (int i = files.size() - 1; i >= 0; i--) {
+      String fileDigest = digestOf(files.get(i));
+      digest = digest == null ? fileDigest : chain(digest, fileDigest);
+      links.add(new Link(numbers.get(i), !links.isEmpty(), new FilePath(files.get(i)), digest));
+    }
+    return new StarTeamFilePointReference(job, links);
+  }
+
+  /**
+   * Reads the file points where they are stored, replaying the deltas on the full file
+   * points. Agents go through a {@link StarTeamFilePointCache} instead.
+   *
+   * @return the file points, in path order
+   * @throws IOException          if a file cannot be read
+   * @throws InterruptedException if reading is interrupted
+   */
+  Collection<StarTeamFilePoint> read() throws IOException, InterruptedException {
+    Map<StarTeamPath, StarTeamFilePoint> points = new TreeMap<StarTeamPath, StarTeamFilePoint>();
+    for (StarTeamFilePoint point : StarTeamFilePointFunctions.loadCollection(
+        new java.io.File(links.get(0).getFile().getRemote()))) {
+      points.put(point.getPath(), point);
+    }
+    for (int i = 1; i < links.size(); i++) {
+      InputStream in = links.get(i).getFile().read();
+      try {
+        StarTeamFilePointDelta.read(in).applyTo(points);
+      } finally {
+        in.close();
+      }
+    }
+    return new ArrayList<StarTeamFilePoint>(points.values());
+  }
+
+  /**
+   * @return the full name of the job
+   */
+  String getJob() {
+    return job;
+  }
+
+  /**
+   * @return the stored files, from the full file points to the build's own file
+   */
+  List<Link> getLinks() {
+    return links;
+  }
+
+  int getBuildNumber() {
+    return links.get(links.size() - 1).getBuildNumber();
+  }
+
+  /**
+   * @return the digest of the build's file points
+   */
+  String getDigest() {
+    return links.get(links.size() - 1).getDigest();
+  }
+
+  /**
+   * @return the number of deltas after the full file points
+   */
+  int getDepth() {
+    return links.size() - 1;
+  }
+
+  /**
+   * @param previous the digest of the file points a delta applies to
+   * @param delta    the MD5 of the delta's content
+   * @return the digest of the file points after the delta
+   */
+  static String chain(String previous, String delta) {
+    MessageDigest md5 = md5();
+    md5.update(previous.getBytes());
+    md5.update((byte) ':');
+    md5.update(delta.getBytes());
+    return toHex(md5.digest());
+  }
+
+  static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return builder.toString();
+  }
+
+  private static String digestOf(java.io.File file) throws IOException {
+    String key = file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+    synchronized (FILE_DIGESTS) {
+      String digest = FILE_DIGESTS.get(key);
+      if (digest != null) {
+        return digest;
+      }
+    }
+    MessageDigest md5 = md5();
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[65536];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        md5.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    String digest = toHex(md5.digest());
+    synchronized (FILE_DIGESTS) {
+      FILE_DIGESTS.put(key, digest);
+    }
+    return digest;
+  }
+
+  @Override
+  public String toString() {
+    return job + " #" + getBuildNumber() + " (" + getDigest() + ")";
+  }
+}
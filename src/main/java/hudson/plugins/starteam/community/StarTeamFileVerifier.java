@@ -0,0 +1,153 @@
+package hudson.plugins.starteam.community;
+
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies local files against their StarTeam counterparts when there are no historic
+ * file points to compare with, hashing several files at a time.
+ * <p>
+ * The number of threads defaults to the number of processors and can be set with the
+ * system property <tt>hudson.plugins.starteam.community.StarTeamFileVerifier.threads</tt>.
+ */
+final class StarTeamFileVerifier {
+
+  private static final int THREADS = Integer.getInteger(StarTeamFileVerifier.class.getName() + ".threads",
+      Runtime.getRuntime().availableProcessors());
+
+  private static final long PROGRESS_INTERVAL_MILLIS = 10000;
+
+  // verifications queued per thread, keeps memory bounded on huge views
+  private static final int QUEUED_PER_THREAD = 64;
+
+  /**
+   * Receives the files that have to be checked out, on the thread that called
+   * {@link StarTeamFileVerifier#verify} and in the order the files were given.
+   */
+  interface Callback {
+    void mismatch(StarTeamItem file);
+  }
+
+  private final SimpleDateFormat sdf = new SimpleDateFormat("MM/dd HH:mm:ss");
+  private final int threads;
+
+  StarTeamFileVerifier() {
+    this(THREADS);
+  }
+
+  StarTeamFileVerifier(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Compares every StarTeam file with the local file it would be checked out to. A
+   * local file matches if it has the same modification time or the same content. The
+   * files are hashed concurrently but reported in the order they are given, so the build
+   * log and the files to check out do not depend on which thread finished first.
+   *
+   * @param files    the StarTeam files
+   * @param logger   the build log
+   * @param callback told about every file that is missing or different locally
+   * @throws IOException if a local file cannot be read or the verification is interrupted
+   */
+  void verify(Collection<StarTeamItem> files, PrintStream logger, Callback callback) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new VerifierThreadFactory());
+    try {
+      Queue<Future<Verification>> queued = new ArrayDeque<Future<Verification>>();
+      int total = files.size();
+      int done = 0;
+      long lastProgress = System.currentTimeMillis();
+      Iterator<StarTeamItem> it = files.iterator();
+      while (done < total) {
+        while (it.hasNext() && queued.size() < threads * QUEUED_PER_THREAD) {
+          StarTeamItem file = it.next();
+          queued.add(executor.submit(new Verification(file, new java.io.File(file.getFullName()),
+              file.getContentModifiedTime())));
+        }
+        // the oldest first, the ones behind it keep the threads busy meanwhile
+        Verification verification = queued.remove().get();
+        done++;
+        if (!verification.matches) {
+          if (verification.mismatch != null) {
+            logger.println(" File " + verification.file.getFullName() + "\n" + verification.mismatch);
+          }
+          callback.mismatch(verification.file);
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+          lastProgress = now;
+          logger.println("*** " + sdf.format(new Date()) + " verified " + done + "/" + total + " local files");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while verifying local files");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Could not verify local files", cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * One local file to check, the StarTeam properties are read up front on the calling thread.
+   */
+  private static final class Verification implements Callable<Verification> {
+    private final StarTeamItem file;
+    private final java.io.File localFile;
+    private final long expectedModifiedTime;
+    private boolean matches;
+    private String mismatch;
+
+    Verification(StarTeamItem file, java.io.File localFile, long expectedModifiedTime) {
+      this.file = file;
+      this.localFile = localFile;
+      this.expectedModifiedTime = expectedModifiedTime;
+    }
+
+    public Verification call() throws Exception {
+      long lastModified = localFile.lastModified();
+      if (lastModified == 0L) {
+        // missing
+        matches = false;
+      } else if (lastModified == expectedModifiedTime) {
+        matches = true;
+      } else {
+        mismatch = file.describeContentMismatch(localFile);
+        matches = mismatch == null;
+      }
+      return this;
+    }
+  }
+
+  private static final class VerifierThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "StarTeam file verifier " + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -150,4 +150,12 @@ public class StarTeamFunctions {
     return result;
   }
 
+  public static Map<StarTeamPath, StarTeamItem> convertItemsToPathMap(final Collection<StarTeamItem> collection) {
+    Map<StarTeamPath, StarTeamItem> result = new TreeMap<StarTeamPath, StarTeamItem>();
+    for (StarTeamItem item : collection) {
+      result.put(StarTeamPath.of(item.getFullName()), item);
+    }
+    return result;
+  }
+
 }
@@ -0,0 +1,55 @@
+package hudson.plugins.starteam.community;
+
+import java.io.IOException;
+
+/**
+ * A file of a configured StarTeam view at the revision the view selects, as listed by a
+ * {@link StarTeamRepository.Snapshot}.
+ */
+public interface StarTeamItem {
+
+  /**
+   * @return the path of the working file the item is checked out to
+   */
+  String getFullName();
+
+  String getName();
+
+  /**
+   * @return the view version of the revision
+   */
+  int getRevisionNumber();
+
+  /**
+   * @return when the content of the revision was last modified, in Java milliseconds; a
+   * checked out file gets this modification time
+   */
+  long getContentModifiedTime();
+
+  /**
+   * @return when the revision was made, in Java milliseconds
+   */
+  long getModifiedTime();
+
+  /**
+   * @return the user name of the author of the revision
+   */
+  String getModifiedBy();
+
+  String getComment();
+
+  /**
+   * @return the size of the content in bytes
+   */
+  long getSize();
+
+  /**
+   * Compares a local file with the content of the revision.
+   *
+   * @param localFile the file to compare, which exists
+   * @return null if the local file has the content of the revision, otherwise both MD5
+   * checksums for the build log
+   * @throws IOException if the local file cannot be read
+   */
+  String describeContentMismatch(java.io.File localFile) throws IOException;
+}
@@ -0,0 +1,169 @@
+package hudson.plugins.starteam.community;
+
+import java.io.Serializable;
+
+/**
+ * The path of a file in a workspace, as compared by the change computation.
+ * <p>
+ * The StarTeam listing, the workspace scan, the stored file points and the files to remove
+ * all key their paths with this class, so they agree on when two paths are the same file.
+ * Paths are compared case insensitively where the file system of the machine does so
+ * (Windows), which can be overridden with the system property
+ * <tt>hudson.plugins.starteam.community.StarTeamPath.ignoreCase</tt>.
+ * <p>
+ * The hash and the collation key are computed once. The key is the path itself unless
+ * case is ignored and the path has upper case letters. Paths are ordered as their segments
+ * are, so a folder's files directly follow it, which is the same as comparing the keys with
+ * the separator ordered before every other character.
+ */
+public final class StarTeamPath implements Comparable<StarTeamPath>, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  static final boolean IGNORE_CASE = System.getProperty(StarTeamPath.class.getName() + ".ignoreCase") == null
+      ? new java.io.File("a").equals(new java.io.File("A"))
+      : Boolean.getBoolean(StarTeamPath.class.getName() + ".ignoreCase");
+
+  private static final char SEPARATOR = java.io.File.separatorChar;
+
+  private final String path;
+  private final String key;
+  private final int hash;
+
+  private StarTeamPath(String path) {
+    this.path = path;
+    this.key = key(path);
+    this.hash = key.hashCode();
+  }
+
+  public static StarTeamPath of(String path) {
+    return new StarTeamPath(path);
+  }
+
+  public static StarTeamPath of(java.io.File file) {
+    return new StarTeamPath(file.getPath());
+  }
+
+  /**
+   * @return the path as it was given
+   */
+  public String getPath() {
+    return path;
+  }
+
+  public java.io.File toFile() {
+    return new java.io.File(path);
+  }
+
+  /**
+   * @param folder a folder
+   * @return true if this path is directly in the folder
+   */
+  public boolean isChildOf(StarTeamPath folder) {
+    int length = folder.key.length();
+    return key.length() > length + 1 && key.startsWith(folder.key) && isSeparator(key.charAt(length))
+        && key.indexOf(SEPARATOR, length + 1) < 0;
+  }
+
+  /**
+   * @param folder a folder
+   * @return true if this path is somewhere below the folder
+   */
+  public boolean isBelow(StarTeamPath folder) {
+    int length = folder.key.length();
+    return key.length() > length + 1 && key.startsWith(folder.key) && isSeparator(key.charAt(length));
+  }
+
+  public int compareTo(StarTeamPath o) {
+    return this == o ? 0 : compareKeys(key, o.key);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof StarTeamPath)) {
+      return false;
+    }
+    StarTeamPath that = (StarTeamPath) o;
+    return hash == that.hash && key.equals(that.key);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+
+  /**
+   * Compares two paths in the order of {@link #compareTo} without creating keys for them.
+   *
+   * @param a a path
+   * @param b another path
+   * @return the comparison of their keys
+   */
+  static int compare(String a, String b) {
+    int length = Math.min(a.length(), b.length());
+    for (int i = 0; i < length; i++) {
+      char c1 = fold(a.charAt(i));
+      char c2 = fold(b.charAt(i));
+      if (c1 != c2) {
+        return rank(c1) - rank(c2);
+      }
+    }
+    return a.length() - b.length();
+  }
+
+  private static int compareKeys(String a, String b) {
+    int length = Math.min(a.length(), b.length());
+    for (int i = 0; i < length; i++) {
+      char c1 = a.charAt(i);
+      char c2 = b.charAt(i);
+      if (c1 != c2) {
+        return rank(c1) - rank(c2);
+      }
+    }
+    return a.length() - b.length();
+  }
+
+  private static String key(String path) {
+    for (int i = 0; i < path.length(); i++) {
+      char c = path.charAt(i);
+      if (fold(c) != c) {
+        char[] chars = path.toCharArray();
+        for (int j = i; j < chars.length; j++) {
+          chars[j] = fold(chars[j]);
+        }
+        return new String(chars);
+      }
+    }
+    return path;
+  }
+
+  /**
+   * @return the character as it is in a key: both separators are the platform's one, and
+   * lower case if case is ignored
+   */
+  private static char fold(char c) {
+    if (c == '/' || c == '\\') {
+      return isSeparator(c) ? SEPARATOR : c;
+    }
+    return IGNORE_CASE ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+  }
+
+  private static boolean isSeparator(char c) {
+    return c == SEPARATOR || c == '/';
+  }
+
+  /**
+   * @return the position of a key character in the order of paths, the separator first
+   */
+  private static int rank(char c) {
+    return c == SEPARATOR ? -1 : c;
+  }
+}
@@ -0,0 +1,182 @@
+package hudson.plugins.starteam.community;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Time spent in each phase of a StarTeam checkout, from connecting to writing the change log.
+ * <p>
+ * Phases do not overlap: time spent resolving user names or writing the change log while
+ * the difference is computed is counted in those phases only. Phases that were skipped,
+ * for instance logging on when a pooled session was reused, stay at zero.
+ * <p>
+ * The agent writes the timings as <tt>starteam-timings.prom</tt>, in the Prometheus text
+ * format, next to the file points of the build; the master reads them back into a
+ * {@link StarTeamTimingsAction}.
+ */
+public final class StarTeamPhaseTimings implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  static final String FILENAME = "starteam-timings.prom";
+
+  static final String METRIC = "starteam_scm_phase_seconds";
+
+  /**
+   * The phases of a checkout, in the order they run.
+   */
+  public enum Phase {
+    CONNECT("connect"),
+    LOGON("logon"),
+    PROJECT_VIEW_LOOKUP("project_view_lookup"),
+    VIEW_CONFIGURATION("view_configuration"),
+    POPULATE("populate"),
+    REMOTE_LISTING("remote_listing"),
+    WORKSPACE_SCAN("workspace_scan"),
+    DIFF("diff"),
+    USER_RESOLUTION("user_resolution"),
+    CHECKOUT("checkout"),
+    CLEANUP("cleanup"),
+    FILE_POINT_STORE("file_point_store"),
+    CHANGELOG_WRITE("changelog_write");
+
+    private final String label;
+
+    Phase(String label) {
+      this.label = label;
+    }
+
+    /**
+     * @return the value of the <tt>phase</tt> label of the metric
+     */
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  private final long[] nanos = new long[Phase.values().length];
+
+  /**
+   * Adds the time since a mark to a phase.
+   *
+   * @param phase the phase that just ended
+   * @param since the {@link System#nanoTime()} it started at
+   * @return the current {@link System#nanoTime()}, to start the next phase at
+   */
+  synchronized long record(Phase phase, long since) {
+    long now = System.nanoTime();
+    nanos[phase.ordinal()] += now - since;
+    return now;
+  }
+
+  /**
+   * Moves time counted in one phase to another, for phases that ran inside another one.
+   */
+  synchronized void move(Phase from, Phase to, long elapsedNanos) {
+    long moved = Math.min(elapsedNanos, nanos[from.ordinal()]);
+    nanos[from.ordinal()] -= moved;
+    nanos[to.ordinal()] += moved;
+  }
+
+  public synchronized double getSeconds(Phase phase) {
+    return nanos[phase.ordinal()] / 1e9;
+  }
+
+  public synchronized double getTotalSeconds() {
+    long total = 0;
+    for (long n : nanos) {
+      total += n;
+    }
+    return total / 1e9;
+  }
+
+  public Phase[] getPhases() {
+    return Phase.values();
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder("phases:");
+    for (Phase phase : Phase.values()) {
+      long millis = nanos[phase.ordinal()] / 1000000;
+      if (millis > 0) {
+        sb.append(' ').append(phase.label).append('=').append(millis).append("ms");
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Writes the timings in the Prometheus text format.
+   *
+   * @param writer where to write, not closed
+   * @param labels labels added to every sample, before the phase, may be empty
+   * @throws IOException if writing fails
+   */
+  synchronized void writePrometheus(Writer writer, Map<String, String> labels) throws IOException {
+    StringBuilder prefix = new StringBuilder(METRIC).append('{');
+    for (Map.Entry<String, String> label : labels.entrySet()) {
+      prefix.append(label.getKey()).append("=\"").append(escape(label.getValue())).append("\",");
+    }
+    writer.write("# HELP " + METRIC + " Time spent in each phase of the StarTeam SCM checkout.\n");
+    writer.write("# TYPE " + METRIC + " gauge\n");
+    for (Phase phase : Phase.values()) {
+      writer.write(prefix + "phase=\"" + phase.label + "\"} "
+          + String.format(Locale.ENGLISH, "%.6f", nanos[phase.ordinal()] / 1e9) + "\n");
+    }
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Reads the timings a checkout stored in a build folder.
+   *
+   * @param buildDir the root folder of the build
+   * @return the timings, or null if the build has none
+   * @throws IOException if the file cannot be read
+   */
+  static StarTeamPhaseTimings load(File buildDir) throws IOException {
+    File file = new File(buildDir, FILENAME);
+    if (!file.isFile()) {
+      return null;
+    }
+    StarTeamPhaseTimings timings = new StarTeamPhaseTimings();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int labelStart = line.indexOf("phase=\"");
+        if (!line.startsWith(METRIC) || labelStart < 0) {
+          continue;
+        }
+        int labelEnd = line.indexOf('"', labelStart + 7);
+        if (labelEnd < 0) {
+          continue;
+        }
+        String label = line.substring(labelStart + 7, labelEnd);
+        for (Phase phase : Phase.values()) {
+          if (phase.label.equals(label)) {
+            try {
+              double seconds = Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+              timings.nanos[phase.ordinal()] = (long) (seconds * 1e9);
+            } catch (NumberFormatException e) {
+              // leave the phase at zero
+            }
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return timings;
+  }
+}
@@ -0,0 +1,248 @@
+package hudson.plugins.starteam.community;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the folders StarTeam jobs poll, which lets jobs watching the same folder share
+ * one listing.
+ * <p>
+ * A poll for a folder that is being listed waits for that listing; a poll within the window
+ * after a listing finished gets its revision state without connecting at all. Each job then
+ * compares the shared state with the one of its own last build. Folders that have not been
+ * polled for longer than the window are forgotten, so the registry only holds the folders
+ * jobs currently poll.
+ * <p>
+ * A listing is only shared with a poll whose baseline is not newer than the listing: a job
+ * that built after it may have checked out later changes, and comparing its baseline with
+ * the older listing would report them as changes again. Such a poll lists the folder
+ * anew, and its listing is the one shared from then on.
+ * <p>
+ * The window defaults to 60 seconds and can be set with the system property
+ * <tt>hudson.plugins.starteam.community.StarTeamPollCoalescer.windowSeconds</tt>; 0 only
+ * shares listings that are in progress.
+ */
+final class StarTeamPollCoalescer {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamPollCoalescer.class.getName());
+
+  private static final long WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(
+      Long.getLong(StarTeamPollCoalescer.class.getName() + ".windowSeconds", 60L));
+
+  /**
+   * Identifies a polled folder: the server, the user, the project, view and folder, and the
+   * configuration selector.
+   */
+  static final class Key {
+    private final List<Object> parts;
+    private final String description;
+
+    Key(String hostName, int port, String agentHost, int agentPort, String userName, String password,
+        String projectName, String viewName, String folderName, StarTeamViewSelector configSelector) {
+      String selector = configSelector == null ? ""
+          : configSelector.getConfigType() + ":" + configSelector.getConfigInfo();
+      this.parts = Arrays.<Object>asList(hostName, port, agentHost, agentPort, userName, password, projectName,
+          viewName, folderName, selector);
+      this.description = userName + "@" + hostName + ":" + port + "/" + projectName + "/" + viewName + "/"
+          + folderName + (selector.length() == 0 ? "" : " [" + selector + "]");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      return parts.equals(((Key) o).parts);
+    }
+
+    @Override
+    public int hashCode() {
+      return parts.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return description;
+    }
+  }
+
+  /**
+   * The last listing of a folder.
+   */
+  private static final class Entry {
+    private final FutureTask<StarTeamRevisionState> listing;
+    private long finished = -1;
+    // the server time of the listing once finished, -1 if unknown or failed
+    private long serverTime = -1;
+    private int subscribers;
+
+    Entry(Callable<StarTeamRevisionState> listing) {
+      this.listing = new FutureTask<StarTeamRevisionState>(listing);
+    }
+
+    /**
+     * @return true once the listing can no longer be shared
+     */
+    boolean isExpired(long now, long windowMillis) {
+      return finished >= 0 && now - finished > windowMillis;
+    }
+
+    /**
+     * @return true if the listing finished before the given server time
+     */
+    boolean isOlderThan(long notBefore) {
+      return finished >= 0 && serverTime < notBefore;
+    }
+  }
+
+  private final long windowMillis;
+  private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+  private long listings;
+  private long shared;
+
+  StarTeamPollCoalescer() {
+    this(WINDOW_MILLIS);
+  }
+
+  StarTeamPollCoalescer(long windowMillis) {
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * Gets the revision state of a folder, listing it only if no listing can be shared.
+   *
+   * @param key       the folder
+   * @param listing   lists the folder, in the calling thread
+   * @param notBefore the server time the listing must not be older than, typically that of
+   *                  the baseline the state is compared with
+   * @param logger    where to report a shared listing
+   * @return the revision state of the folder
+   * @throws StarTeamSCMException if the listing failed; a failed listing is not shared with
+   *                              later polls
+   * @throws InterruptedException if interrupted while waiting for another poll's listing
+   */
+  StarTeamRevisionState poll(Key key, Callable<StarTeamRevisionState> listing, long notBefore, PrintStream logger)
+      throws StarTeamSCMException, InterruptedException {
+    while (true) {
+      Entry entry;
+      boolean owner = false;
+      int others;
+      synchronized (entries) {
+        long now = System.currentTimeMillis();
+        forgetExpired(now);
+        entry = entries.get(key);
+        if (entry == null || entry.isOlderThan(notBefore)) {
+          entry = new Entry(listing);
+          entries.put(key, entry);
+          owner = true;
+          listings++;
+        } else {
+          shared++;
+        }
+        others = entry.subscribers++;
+      }
+      if (owner) {
+        entry.listing.run();
+      } else {
+        logger.println("StarTeam polling shares the listing of " + key + " with " + others + " other polls");
+      }
+      StarTeamRevisionState state = get(key, entry, owner);
+      if (owner || state.getServerTime() >= notBefore) {
+        return state;
+      }
+      // joined a listing that started before the baseline, list again
+      logger.println("StarTeam polling lists " + key + " again, the shared listing is older than the last build");
+      synchronized (entries) {
+        shared--;
+        if (entries.get(key) == entry) {
+          entries.remove(key);
+        }
+      }
+    }
+  }
+
+  private StarTeamRevisionState get(Key key, Entry entry, boolean owner)
+      throws StarTeamSCMException, InterruptedException {
+    try {
+      StarTeamRevisionState state = entry.listing.get();
+      if (owner) {
+        synchronized (entries) {
+          entry.serverTime = state.getServerTime();
+          entry.finished = System.currentTimeMillis();
+        }
+      }
+      return state;
+    } catch (ExecutionException e) {
+      synchronized (entries) {
+        if (owner) {
+          entry.finished = System.currentTimeMillis();
+        }
+        if (entries.get(key) == entry) {
+          entries.remove(key);
+        }
+      }
+      Throwable cause = e.getCause();
+      if (cause instanceof StarTeamSCMException) {
+        throw (StarTeamSCMException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new StarTeamSCMException("Listing " + key + " failed: " + cause);
+    }
+  }
+
+  private void forgetExpired(long now) {
+    for (Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<Key, Entry> entry = it.next();
+      if (entry.getValue().isExpired(now, windowMillis)) {
+        LOGGER.log(Level.FINE, "Forgetting the listing of {0}, shared by {1} polls",
+            new Object[]{entry.getKey(), entry.getValue().subscribers});
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the number of folders polled within the window
+   */
+  int size() {
+    synchronized (entries) {
+      forgetExpired(System.currentTimeMillis());
+      return entries.size();
+    }
+  }
+
+  /**
+   * @return the number of listings made
+   */
+  long getListings() {
+    synchronized (entries) {
+      return listings;
+    }
+  }
+
+  /**
+   * @return the number of polls that shared another poll's listing
+   */
+  long getShared() {
+    synchronized (entries) {
+      return shared;
+    }
+  }
+}
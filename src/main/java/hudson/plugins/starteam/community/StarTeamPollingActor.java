@@ -19,7 +19,10 @@ import java.util.Collection;
  *
  * @author Ilkka Laukkanen <ilkka.s.laukkanen@gmail.com>
  * @author Steve Favez <sfavez@verisign.com>
+ * @deprecated polling compares revision states on the master, see
+ * {@link StarTeamSCM#compareRemoteRevisionWith}
  */
+@Deprecated
 public class StarTeamPollingActor implements FileCallable<Boolean> {
 
   /**
@@ -53,6 +56,8 @@ public class StarTeamPollingActor implements FileCallable<Boolean> {
 
   private Collection<StarTeamFilePoint> historicFilePoints;
 
+  private StarTeamFilePointReference historicFilePointReference;
+
   /**
    * Default constructor.
    *
@@ -87,6 +92,23 @@ public class StarTeamPollingActor implements FileCallable<Boolean> {
     this.historicFilePoints = historicFilePoints;
   }
 
+  /**
+   * Constructor sending a reference to the file points of the last build, which the agent
+   * resolves through its {@link StarTeamFilePointCache}.
+   *
+   * @param historicFilePoints the file points of the last build, or null
+   * @see #StarTeamPollingActor(String, int, String, int, String, String, String, String, String, String,
+   * StarTeamViewSelector, TaskListener, Collection)
+   */
+  StarTeamPollingActor(String hostname, int port, String agentHost, int agentPort, String user,
+                       String passwd, String projectname, String viewname,
+                       String foldername, String subfolder, StarTeamViewSelector config, TaskListener listener,
+                       StarTeamFilePointReference historicFilePoints) {
+    this(hostname, port, agentHost, agentPort, user, passwd, projectname, viewname, foldername, subfolder, config,
+        listener, (Collection<StarTeamFilePoint>) null);
+    this.historicFilePointReference = historicFilePoints;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -106,15 +128,19 @@ public class StarTeamPollingActor implements FileCallable<Boolean> {
       return false;
     }
 
-    StarTeamChangeSet changeSet = null;
+    boolean changed = false;
     File workFolder = Strings.isNullOrEmpty(subfolder) ? f : new File(f, subfolder.trim());
     try {
-      changeSet = connection.computeChangeSet(connection.getRootFolder(), workFolder, historicFilePoints, listener.getLogger());
+      Collection<StarTeamFilePoint> historic = historicFilePoints;
+      if (historic == null && historicFilePointReference != null) {
+        historic = new StarTeamFilePointCache(f).load(historicFilePointReference, listener.getLogger());
+      }
+      changed = connection.pollChanges(workFolder, historic, listener.getLogger());
     } catch (Exception e) {
       e.printStackTrace(listener.getLogger());
     }
     connection.close();
-    return changeSet != null && changeSet.hasChanges();
+    return changed;
   }
 
   @Override
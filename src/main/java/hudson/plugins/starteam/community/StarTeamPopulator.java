@@ -0,0 +1,172 @@
+package hudson.plugins.starteam.community;
+
+import com.starteam.Folder;
+import com.starteam.Property;
+import com.starteam.PropertyCollection;
+import com.starteam.Server;
+import com.starteam.Type;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the folder tree and the files below the root folder of a connection, fetching
+ * only the properties the change set computation, the checkout and the change log read.
+ * <p>
+ * The property lists can be replaced with the comma separated system properties
+ * <tt>hudson.plugins.starteam.community.StarTeamPopulator.fileProperties</tt> and
+ * <tt>.folderProperties</tt>. If a required property is not known to the server the
+ * type is populated with all its properties, as before. Setting <tt>.fullPopulate</tt>
+ * to true always does that, which allows comparing both modes on the same view; the
+ * StarTeam network monitor (<tt>st.netmon.out</tt>) shows the bytes transferred.
+ */
+final class StarTeamPopulator {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamPopulator.class.getName());
+
+  private static final String PROPERTY_PREFIX = StarTeamPopulator.class.getName() + ".";
+
+  /**
+   * Properties read from files: name and path, revision, dates, checksum, author and comment.
+   */
+  static final List<String> FILE_PROPERTIES = properties("fileProperties",
+      "Name", "DotNotation", "ViewVersion", "ContentModificationTime", "ModifiedTime", "MD5",
+      "ModifiedUserID", "Comment", "Size", "EOL");
+
+  /**
+   * Properties read from folders: enough to build the working paths.
+   */
+  static final List<String> FOLDER_PROPERTIES = properties("folderProperties", "Name", "PathName");
+
+  /**
+   * Properties read from files to find those modified after a time, and their paths.
+   */
+  static final List<String> MODIFIED_TIME_PROPERTIES = Arrays.asList("Name", "ModifiedTime");
+
+  private static final boolean FULL_POPULATE = Boolean.getBoolean(PROPERTY_PREFIX + "fullPopulate");
+
+  private final Server server;
+
+  StarTeamPopulator(Server server) {
+    this.server = server;
+  }
+
+  /**
+   * Populates the folders and files below the given folder: the folder tree first, then
+   * the files of the loaded tree. These are two recursive requests, one per item type,
+   * since {@link Folder#populate} loads a single type; the file request only walks folders
+   * that are already loaded.
+   *
+   * @param rootFolder the folder to populate
+   * @return what was loaded and how long it took
+   */
+  Report populate(Folder rootFolder) {
+    long start = System.currentTimeMillis();
+    Type folderType = server.getTypes().FOLDER;
+    Type fileType = server.getTypes().FILE;
+    PropertyCollection folderProperties = FULL_POPULATE ? null : select(folderType, FOLDER_PROPERTIES);
+    PropertyCollection fileProperties = FULL_POPULATE ? null : select(fileType, FILE_PROPERTIES);
+    if (folderProperties == null) {
+      rootFolder.populate(folderType, -1);
+    } else {
+      rootFolder.populate(folderType, folderProperties, -1);
+    }
+    if (fileProperties == null) {
+      rootFolder.populate(fileType, -1);
+    } else {
+      rootFolder.populate(fileType, fileProperties, -1);
+    }
+    long millis = System.currentTimeMillis() - start;
+    int fileTotal = fileType.getProperties().length;
+    return new Report(millis, fileProperties == null ? fileTotal : fileProperties.size(), fileTotal);
+  }
+
+  /**
+   * Populates the folders below the given folder, and only the name and modification time
+   * of their files, the least incremental polling can do with.
+   *
+   * @param rootFolder the folder to populate
+   */
+  void populateModifiedTimes(Folder rootFolder) {
+    Type folderType = server.getTypes().FOLDER;
+    Type fileType = server.getTypes().FILE;
+    PropertyCollection folderProperties = select(folderType, FOLDER_PROPERTIES);
+    PropertyCollection fileProperties = select(fileType, MODIFIED_TIME_PROPERTIES);
+    if (folderProperties == null) {
+      rootFolder.populate(folderType, -1);
+    } else {
+      rootFolder.populate(folderType, folderProperties, -1);
+    }
+    if (fileProperties == null) {
+      rootFolder.populate(fileType, -1);
+    } else {
+      rootFolder.populate(fileType, fileProperties, -1);
+    }
+  }
+
+  /**
+   * @return the named properties of the type, or null if one of them does not exist
+   */
+  private static PropertyCollection select(Type type, List<String> names) {
+    Map<String, Property> byName = new HashMap<String, Property>();
+    for (Property property : type.getProperties()) {
+      byName.put(property.getName(), property);
+    }
+    PropertyCollection selected = new PropertyCollection();
+    for (String name : names) {
+      Property property = byName.get(name);
+      if (property == null) {
+        LOGGER.log(Level.WARNING, "StarTeam {0} property {1} not found, populating all properties",
+            new Object[]{type.getName(), name});
+        return null;
+      }
+      selected.add(property);
+    }
+    return selected;
+  }
+
+  private static List<String> properties(String key, String... defaults) {
+    String value = System.getProperty(PROPERTY_PREFIX + key);
+    if (value == null || value.trim().length() == 0) {
+      return Arrays.asList(defaults);
+    }
+    return Arrays.asList(value.trim().split("\\s*,\\s*"));
+  }
+
+  /**
+   * Outcome of a populate, printed to the build log.
+   */
+  static final class Report {
+    private final long millis;
+    private final int fileProperties;
+    private final int fileTotal;
+
+    Report(long millis, int fileProperties, int fileTotal) {
+      this.millis = millis;
+      this.fileProperties = fileProperties;
+      this.fileTotal = fileTotal;
+    }
+
+    long getMillis() {
+      return millis;
+    }
+
+    int getFileProperties() {
+      return fileProperties;
+    }
+
+    int getFileTotal() {
+      return fileTotal;
+    }
+
+    @Override
+    public String toString() {
+      return "populated view in " + millis + " ms, reading " + fileProperties + " of " + fileTotal
+          + " file properties";
+    }
+  }
+}
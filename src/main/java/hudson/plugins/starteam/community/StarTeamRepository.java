@@ -0,0 +1,119 @@
+package hudson.plugins.starteam.community;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where a {@link StarTeamConnection} reads its files from. Connections talk to a StarTeam
+ * server through the SDK unless they are given another repository with
+ * {@link StarTeamConnection#setRepository}, such as a {@link SimulatedStarTeamRepository}.
+ */
+public interface StarTeamRepository {
+
+  /**
+   * Opens a folder of a view, configured for a build.
+   *
+   * @param projectName    the project's name
+   * @param viewName       the view's name
+   * @param folderName     the folder's name
+   * @param configSelector the configuration selector, may be null
+   * @param buildNumber    a job build number, or -1 if not associated with a job.
+   * @param timings        where to record the time spent connecting and configuring the view
+   * @return the folder, to be closed by the caller
+   * @throws StarTeamSCMException if the folder cannot be opened
+   */
+  Snapshot open(String projectName, String viewName, String folderName, StarTeamViewSelector configSelector,
+                int buildNumber, StarTeamPhaseTimings timings) throws StarTeamSCMException;
+
+  /**
+   * An opened folder of a configured view. Used by one connection at a time.
+   */
+  interface Snapshot {
+
+    /**
+     * @param workFolder the folder the opened folder is checked out to
+     * @return every file below the folder
+     */
+    Collection<StarTeamItem> listFiles(java.io.File workFolder);
+
+    /**
+     * Finds the files modified after a server time and names the files of every folder,
+     * reading as little of every file as the repository allows.
+     *
+     * @param workFolder the folder the opened folder is checked out to
+     * @param since      a server time, in Java milliseconds
+     * @return what was found
+     */
+    Modifications listModifiedSince(java.io.File workFolder, long since);
+
+    /**
+     * Checks out files listed by this snapshot to their working files.
+     *
+     * @param items    the files to check out
+     * @param observer told about the progress of the checkout
+     * @param logger   the build log
+     * @param prefix   prepended to the log lines, to tell partitions apart
+     * @throws IOException if the checkout fails as a whole
+     */
+    void checkOut(List<StarTeamItem> items, CheckoutObserver observer, PrintStream logger, String prefix)
+        throws IOException;
+
+    /**
+     * @return the e-mail address of every user account, by user name
+     * @throws RuntimeException if the accounts cannot be read, typically for lack of permission
+     */
+    Map<String, String> loadEmailAddresses();
+
+    /**
+     * @return the current time of the server, in Java milliseconds
+     */
+    long getServerTime();
+
+    void close();
+  }
+
+  /**
+   * The files of a folder modified after a time, and the names of the files in every folder.
+   */
+  final class Modifications {
+    private final int modified;
+    private final Map<String, List<String>> fileNames;
+
+    /**
+     * @param modified  the number of files modified after the time
+     * @param fileNames the names of the files by working folder, folders without files left out
+     */
+    public Modifications(int modified, Map<String, List<String>> fileNames) {
+      this.modified = modified;
+      this.fileNames = fileNames;
+    }
+
+    public int getModified() {
+      return modified;
+    }
+
+    public Map<String, List<String>> getFileNames() {
+      return fileNames;
+    }
+  }
+
+  /**
+   * Receives the progress of a checkout, on the thread that checks out.
+   */
+  interface CheckoutObserver {
+
+    void startFile();
+
+    /**
+     * Called at least once for every file, when it has been written or has failed.
+     *
+     * @param workingFile the file being written
+     * @param size        the size of its content
+     * @param error       a description of the failure, or null
+     */
+    void progress(java.io.File workingFile, long size, String error);
+  }
+}
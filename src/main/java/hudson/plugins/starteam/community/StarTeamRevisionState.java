@@ -0,0 +1,272 @@
+package hudson.plugins.starteam.community;
+
+import hudson.scm.SCMRevisionState;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The revisions of the files of the configured folder, as compact as polling needs them:
+ * a digest over the path and view version of every file, and the number of files.
+ * <p>
+ * Paths are taken relative to the work folder with <tt>/</tt> as separator and hashed in
+ * their natural order, so the state of a checkout on an agent and that of a listing on the
+ * master agree whatever the workspace is and whichever platform computed them.
+ * <p>
+ * For incremental polling the state also has the server time it was taken at and a digest
+ * over the paths of the files, which changes when files are deleted, moved or shared without
+ * being modified. Neither takes part in {@link #equals}.
+ */
+public final class StarTeamRevisionState extends SCMRevisionState {
+
+  static final String FILENAME = "starteam-revision-state.txt";
+
+  private final String digest;
+  private final int fileCount;
+  private final long serverTime;
+  private final String paths;
+  // the polls that found nothing changed without listing the files since they were listed
+  private final int unlisted;
+
+  StarTeamRevisionState(String digest, int fileCount) {
+    this(digest, fileCount, -1, null);
+  }
+
+  StarTeamRevisionState(String digest, int fileCount, long serverTime, String paths) {
+    this(digest, fileCount, serverTime, paths, 0);
+  }
+
+  private StarTeamRevisionState(String digest, int fileCount, long serverTime, String paths, int unlisted) {
+    this.digest = digest;
+    this.fileCount = fileCount;
+    this.serverTime = serverTime;
+    this.paths = paths;
+    this.unlisted = unlisted;
+  }
+
+  /**
+   * @param items      the files listed from the view
+   * @param workFolder the folder the files were listed to
+   * @param serverTime the server time before the files were listed, or -1
+   * @return the state of the files
+   */
+  static StarTeamRevisionState ofItems(Collection<StarTeamItem> items, File workFolder, long serverTime) {
+    String root = prefix(workFolder);
+    List<String> entries = new ArrayList<String>(items.size());
+    List<String> paths = new ArrayList<String>(items.size());
+    for (StarTeamItem item : items) {
+      String relative = relative(root, item.getFullName());
+      entries.add(relative + '\0' + item.getRevisionNumber() + '\n');
+      paths.add(relative + '\n');
+    }
+    return new StarTeamRevisionState(digest(entries), entries.size(), serverTime, digest(paths));
+  }
+
+  /**
+   * @param filePoints the file points of a checkout
+   * @param workFolder the folder the files were checked out to
+   * @param serverTime the server time before the files were listed, or -1
+   * @return the state of the files
+   */
+  static StarTeamRevisionState ofFilePoints(Collection<StarTeamFilePoint> filePoints, File workFolder,
+                                            long serverTime) {
+    return ofFilePoints(filePoints, workFolder.getAbsolutePath(), serverTime);
+  }
+
+  /**
+   * @param filePoints the file points of a checkout
+   * @param workFolder the path of the folder the files were checked out to, as the machine
+   *                   that checked them out has it, with either separator
+   * @param serverTime the server time before the files were listed, or -1
+   * @return the state of the files
+   */
+  static StarTeamRevisionState ofFilePoints(Collection<StarTeamFilePoint> filePoints, String workFolder,
+                                            long serverTime) {
+    String root = workFolder.replace('\\', '/');
+    root = root.endsWith("/") ? root : root + '/';
+    List<String> entries = new ArrayList<String>(filePoints.size());
+    List<String> paths = new ArrayList<String>(filePoints.size());
+    for (StarTeamFilePoint point : filePoints) {
+      String relative = relative(root, point.getFullfilepath().replace('\\', '/'));
+      entries.add(relative + '\0' + point.getRevisionNumber() + '\n');
+      paths.add(relative + '\n');
+    }
+    return new StarTeamRevisionState(digest(entries), entries.size(), serverTime, digest(paths));
+  }
+
+  /**
+   * Rebuilds the state of a build from the file points it stored, for builds made before
+   * revision states were stored. The server time is not known, so the first poll lists
+   * every file.
+   *
+   * @param buildNumber the number of the build
+   * @param buildDir    the root directory of the build
+   * @param workFolder  the path of the folder the build checked the files out to
+   * @return the state, or null if the build has no file points
+   * @throws IOException          if the file points cannot be read
+   * @throws InterruptedException if reading is interrupted
+   */
+  static StarTeamRevisionState ofStoredFilePoints(int buildNumber, File buildDir, String workFolder)
+      throws IOException, InterruptedException {
+    StarTeamFilePointReference reference = StarTeamFilePointReference.create(null, buildNumber, buildDir);
+    return reference == null ? null : ofFilePoints(reference.read(), workFolder, -1);
+  }
+
+  /**
+   * @param fileNames  the names of the files by working folder, folders without files left out
+   * @param workFolder the folder the files are checked out to
+   * @return the digest of the paths of the files, as {@link #getPaths} has it
+   */
+  static String digestPaths(Map<String, List<String>> fileNames, File workFolder) {
+    String root = prefix(workFolder);
+    List<String> paths = new ArrayList<String>();
+    for (Map.Entry<String, List<String>> entry : fileNames.entrySet()) {
+      String folder = entry.getKey();
+      // the work folder itself is the root, which is empty
+      String relative = (folder + File.separator).equals(root) || folder.equals(root) ? "" : relative(root, folder);
+      while (relative.endsWith("/")) {
+        relative = relative.substring(0, relative.length() - 1);
+      }
+      for (String name : entry.getValue()) {
+        paths.add((relative.length() == 0 ? name : relative + '/' + name) + '\n');
+      }
+    }
+    return digest(paths);
+  }
+
+  private static String digest(List<String> entries) {
+    Collections.sort(entries);
+    MessageDigest md5 = StarTeamFilePointReference.md5();
+    try {
+      for (String entry : entries) {
+        md5.update(entry.getBytes("UTF-8"));
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    return StarTeamFilePointReference.toHex(md5.digest());
+  }
+
+  private static String prefix(File workFolder) {
+    String root = workFolder.getAbsolutePath();
+    return root.endsWith(File.separator) ? root : root + File.separator;
+  }
+
+  private static String relative(String root, String path) {
+    return (path.startsWith(root) ? path.substring(root.length()) : path).replace('\\', '/');
+  }
+
+  /**
+   * @param serverTime the server time at which the files were found unchanged
+   * @return this state as of a later server time
+   */
+  StarTeamRevisionState at(long serverTime) {
+    return new StarTeamRevisionState(digest, fileCount, serverTime, paths, unlisted + 1);
+  }
+
+  /**
+   * @return the MD5 of the paths and view versions, in hex
+   */
+  public String getDigest() {
+    return digest;
+  }
+
+  public int getFileCount() {
+    return fileCount;
+  }
+
+  /**
+   * @return the server time before the files were listed, in Java milliseconds, or -1 if
+   * it is not known
+   */
+  public long getServerTime() {
+    return serverTime;
+  }
+
+  /**
+   * @return the MD5 of the paths of the files, in hex, or null if it is not known
+   */
+  public String getPaths() {
+    return paths;
+  }
+
+  /**
+   * @return the number of polls that found nothing changed without listing the files, since
+   * they were last listed
+   */
+  int getUnlisted() {
+    return unlisted;
+  }
+
+  /**
+   * Writes the state in the format {@link #load} reads.
+   */
+  void write(Writer writer) throws IOException {
+    writer.write(digest + " " + fileCount + " " + serverTime + " " + (paths == null ? "-" : paths) + "\n");
+  }
+
+  /**
+   * @param buildDir the root directory of a build
+   * @return the state the checkout of the build stored, or null if it stored none
+   * @throws IOException if the state cannot be read
+   */
+  static StarTeamRevisionState load(File buildDir) throws IOException {
+    File file = new File(buildDir, FILENAME);
+    if (!file.isFile()) {
+      return null;
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line = reader.readLine();
+      String[] fields = line == null ? new String[0] : line.trim().split(" ");
+      if (fields.length != 2 && fields.length != 4) {
+        throw new IOException("Corrupt revision state " + file);
+      }
+      try {
+        if (fields.length == 2) {
+          // written before incremental polling
+          return new StarTeamRevisionState(fields[0], Integer.parseInt(fields[1]));
+        }
+        return new StarTeamRevisionState(fields[0], Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+            "-".equals(fields[3]) ? null : fields[3]);
+      } catch (NumberFormatException e) {
+        throw new IOException("Corrupt revision state " + file, e);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof StarTeamRevisionState)) {
+      return false;
+    }
+    StarTeamRevisionState that = (StarTeamRevisionState) o;
+    return fileCount == that.fileCount && digest.equals(that.digest);
+  }
+
+  @Override
+  public int hashCode() {
+    return digest.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return fileCount + " files (" + digest + ")";
+  }
+}
@@ -8,17 +8,19 @@ import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.TaskListener;
 import hudson.scm.ChangeLogParser;
+import hudson.scm.PollingResult;
 import hudson.scm.SCM;
 import hudson.scm.SCMDescriptor;
+import hudson.scm.SCMRevisionState;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.SEVERE;
@@ -54,6 +56,7 @@ public class StarTeamSCM extends SCM {
   private final int cacheagentport;
   private final boolean cleanupstate;
   private final String subfolder;
+  private final int checkoutthreads;
 
   private final StarTeamViewSelector config;
 
@@ -71,10 +74,33 @@ public class StarTeamSCM extends SCM {
    * @param promotionstate indication if label name is actual label name or a promotion state name
    * @param cleanupstate   indication if files not in StarTeam should be removed
    */
-  @DataBoundConstructor
   public StarTeamSCM(String hostname, int port, String projectname, String viewname, String foldername,
                      String username, String password, String labelname, boolean promotionstate,
                      String cacheagenthost, int cacheagentport, boolean cleanupstate, String subfolder) {
+    this(hostname, port, projectname, viewname, foldername, username, password, labelname, promotionstate,
+        cacheagenthost, cacheagentport, cleanupstate, subfolder, 1);
+  }
+
+  /**
+   * default stapler constructor.
+   *
+   * @param hostname        starteam host name.
+   * @param port            starteam port name
+   * @param projectname     name of the project
+   * @param viewname        name of the view
+   * @param foldername      parent folder name.
+   * @param username        the user name required to connect to starteam's server
+   * @param password        password required to connect to starteam's server
+   * @param labelname       label name used for polling view contents
+   * @param promotionstate  indication if label name is actual label name or a promotion state name
+   * @param cleanupstate    indication if files not in StarTeam should be removed
+   * @param checkoutthreads number of sessions checking out files in parallel
+   */
+  @DataBoundConstructor
+  public StarTeamSCM(String hostname, int port, String projectname, String viewname, String foldername,
+                     String username, String password, String labelname, boolean promotionstate,
+                     String cacheagenthost, int cacheagentport, boolean cleanupstate, String subfolder,
+                     int checkoutthreads) {
     this.hostname = hostname;
     this.port = port;
     this.projectname = projectname;
@@ -88,6 +114,7 @@ public class StarTeamSCM extends SCM {
     this.cacheagentport = cacheagentport;
     this.cleanupstate = cleanupstate;
     this.subfolder = subfolder;
+    this.checkoutthreads = checkoutthreads;
     StarTeamViewSelector result = null;
     if ((this.labelname != null) && (this.labelname.length() != 0)) {
       try {
@@ -123,10 +150,11 @@ public class StarTeamSCM extends SCM {
     // Create an actor to do the checkout, possibly on a remote machine
     StarTeamCheckoutActor co_actor = new StarTeamCheckoutActor(hostname, port, cacheagenthost, cacheagentport,
         user, passwd, cleanupstate, projectname, viewname, foldername, subfolder, config,
-        changeLogFilePath, listener, build, filePointFilePath);
+        changeLogFilePath, listener, build, filePointFilePath, getCheckoutthreads());
     if (workspace.act(co_actor)) {
       // change log is written during checkout (only one pass for
       // comparison)
+      StarTeamTimingsAction.attach(build);
       return true;
     } else {
       listener.getLogger().println("StarTeam checkout failed");
@@ -154,38 +182,173 @@ public class StarTeamSCM extends SCM {
     return DESCRIPTOR;
   }
 
-  /*
-   * (non-Javadoc)
-   *
-   * @see hudson.scm.SCM#pollChanges(hudson.model.AbstractProject,
-   *      hudson.Launcher, hudson.FilePath, hudson.model.TaskListener)
+  /**
+   * @return the revision state the checkout of the build stored, one rebuilt from its file
+   * points for builds made before revision states were stored, or {@link SCMRevisionState#NONE}
+   * if neither can be read
+   */
+  @Override
+  public SCMRevisionState calcRevisionsFromBuild(AbstractBuild<?, ?> build, Launcher launcher,
+                                                 TaskListener listener) throws IOException, InterruptedException {
+    StarTeamRevisionState state;
+    try {
+      state = StarTeamRevisionState.load(build.getRootDir());
+    } catch (IOException e) {
+      // the next poll cannot compare and lists the folder
+      listener.getLogger().println("StarTeam revision state of " + build + " is unreadable: " + e.getMessage());
+      return SCMRevisionState.NONE;
+    }
+    if (state == null) {
+      state = ofStoredFilePoints(build, listener);
+    }
+    return state == null ? SCMRevisionState.NONE : state;
+  }
+
+  /**
+   * @return the state of the file points the build stored, or null if it has none or they
+   * cannot be read
+   */
+  private StarTeamRevisionState ofStoredFilePoints(AbstractBuild<?, ?> build, TaskListener listener)
+      throws InterruptedException {
+    FilePath workspace = build.getWorkspace();
+    if (workspace == null) {
+      return null;
+    }
+    String workFolder = subfolder == null || subfolder.trim().length() == 0 ? workspace.getRemote()
+        : workspace.getRemote() + "/" + subfolder.trim();
+    try {
+      StarTeamRevisionState state = StarTeamRevisionState.ofStoredFilePoints(build.getNumber(), build.getRootDir(),
+          workFolder);
+      if (state != null) {
+        listener.getLogger().println("StarTeam revision state of " + build + " rebuilt from its file points");
+      }
+      return state;
+    } catch (IOException e) {
+      listener.getLogger().println("StarTeam file points of " + build + " are unreadable: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Lists the view on the master, with a pooled session, and compares its revision state
+   * with that of the last build. Neither a workspace nor the file points are needed, and
+   * jobs polling the same folder at about the same time share one listing.
    */
   @Override
-  public boolean pollChanges(final AbstractProject proj,
-                             final Launcher launcher, final FilePath workspace,
-                             final TaskListener listener) throws IOException,
-      InterruptedException {
-    boolean status = false;
-    AbstractBuild<?, ?> lastBuild = (AbstractBuild<?, ?>) proj.getLastBuild();
-
-    Collection<StarTeamFilePoint> historicFilePoints = null;
-    if (lastBuild != null) {
-      File historicFilePointFile = new File(lastBuild.getRootDir(), StarTeamConnection.FILE_POINT_FILENAME);
-      if (historicFilePointFile.exists()) {
-        historicFilePoints = StarTeamFilePointFunctions.loadCollection(historicFilePointFile);
+  protected PollingResult compareRemoteRevisionWith(AbstractProject<?, ?> project, Launcher launcher,
+                                                    FilePath workspace, final TaskListener listener,
+                                                    SCMRevisionState baseline)
+      throws IOException, InterruptedException {
+    StarTeamEventTrigger.Key eventKey = new StarTeamEventTrigger.Key(hostname, port, cacheagenthost, cacheagentport,
+        user, passwd, projectname, viewname);
+    if (getDescriptor().getEvents().skipPoll(eventKey, foldername, config, eventJob(project), listener.getLogger())) {
+      return new PollingResult(baseline, baseline, PollingResult.Change.NONE);
+    }
+    final File listingFolder = project.getRootDir();
+    if (baseline instanceof StarTeamRevisionState) {
+      StarTeamRevisionState unchanged = checkModifiedSince(listingFolder, (StarTeamRevisionState) baseline, listener);
+      if (unchanged != null) {
+        listener.getLogger().println("StarTeam polling shows no changes");
+        return new PollingResult(baseline, unchanged, PollingResult.Change.NONE);
       }
     }
-    // Create an actor to do the polling, possibly on a remote machine
-    StarTeamPollingActor p_actor = new StarTeamPollingActor(hostname, port, cacheagenthost, cacheagentport,
-        user, passwd, projectname, viewname, foldername, subfolder,
-        config, listener,
-        historicFilePoints);
-    if (workspace.act(p_actor)) {
-      status = true;
-    } else {
+    StarTeamPollCoalescer.Key key = new StarTeamPollCoalescer.Key(hostname, port, cacheagenthost, cacheagentport,
+        user, passwd, projectname, viewname, foldername, config);
+    StarTeamRevisionState remote;
+    try {
+      remote = getDescriptor().getPolls().poll(key, new Callable<StarTeamRevisionState>() {
+        public StarTeamRevisionState call() throws StarTeamSCMException {
+          StarTeamConnection connection = new StarTeamConnection(hostname, port, cacheagenthost, cacheagentport,
+              user, passwd, projectname, viewname, foldername, config, false);
+          try {
+            connection.initialize(-1);
+            return connection.computeRevisionState(listingFolder, listener.getLogger());
+          } finally {
+            connection.close();
+          }
+        }
+      }, notBefore(baseline), listener.getLogger());
+    } catch (StarTeamSCMException e) {
+      listener.getLogger().println(e.getLocalizedMessage());
+      return PollingResult.NO_CHANGES;
+    }
+    if (!(baseline instanceof StarTeamRevisionState)) {
+      listener.getLogger().println("StarTeam polling has no revision state of the last build to compare with");
+      return new PollingResult(baseline, remote, PollingResult.Change.INCOMPARABLE);
+    }
+    if (remote.equals(baseline)) {
       listener.getLogger().println("StarTeam polling shows no changes");
+      return new PollingResult(baseline, remote, PollingResult.Change.NONE);
     }
-    return status;
+    listener.getLogger().println("StarTeam polling shows changes: " + baseline + " before, " + remote + " now");
+    return new PollingResult(baseline, remote, PollingResult.Change.SIGNIFICANT);
+  }
+
+  /**
+   * @return the server time a listing shared with other polls must not be older than to be
+   * compared with the baseline
+   */
+  private static long notBefore(SCMRevisionState baseline) {
+    if (!(baseline instanceof StarTeamRevisionState)) {
+      // any listing will do, there is nothing to compare it with
+      return Long.MIN_VALUE;
+    }
+    long serverTime = ((StarTeamRevisionState) baseline).getServerTime();
+    // a baseline of unknown age only compares with a listing of its own
+    return serverTime < 0 ? Long.MAX_VALUE : serverTime;
+  }
+
+  /**
+   * @return the baseline as of now if the server tells that nothing changed since it, or
+   * null if the view must be listed
+   */
+  private StarTeamRevisionState checkModifiedSince(File listingFolder, StarTeamRevisionState baseline,
+                                                   TaskListener listener) {
+    StarTeamConnection connection = new StarTeamConnection(hostname, port, cacheagenthost, cacheagentport,
+        user, passwd, projectname, viewname, foldername, config, false);
+    String reason = connection.whyNotModifiedSince(baseline);
+    if (reason != null) {
+      listener.getLogger().println("StarTeam polling lists every file: " + reason);
+      return null;
+    }
+    try {
+      connection.initialize(-1);
+      return connection.checkModifiedSince(listingFolder, baseline, listener.getLogger());
+    } catch (StarTeamSCMException e) {
+      listener.getLogger().println(e.getLocalizedMessage());
+      return null;
+    } finally {
+      connection.close();
+    }
+  }
+
+  /**
+   * @return the project as a job the StarTeam events schedule builds of, for as long as it
+   * polls with this configuration
+   */
+  private StarTeamEventTrigger.Job eventJob(AbstractProject<?, ?> project) {
+    final String name = project.getFullName();
+    final WeakReference<AbstractProject<?, ?>> reference = new WeakReference<AbstractProject<?, ?>>(project);
+    return new StarTeamEventTrigger.Job() {
+      public String getName() {
+        return name;
+      }
+
+      public boolean isCurrent() {
+        AbstractProject<?, ?> p = reference.get();
+        return p != null && p.getScm() == StarTeamSCM.this;
+      }
+
+      public boolean schedule(int quietSeconds, StarTeamEventCause cause) {
+        AbstractProject<?, ?> p = reference.get();
+        return p != null && p.scheduleBuild(quietSeconds, cause);
+      }
+    };
+  }
+
+  @Override
+  public boolean requiresWorkspaceForPolling() {
+    return false;
   }
 
   /**
@@ -195,7 +358,10 @@ public class StarTeamSCM extends SCM {
    */
   public static final class StarTeamSCMDescriptorImpl extends SCMDescriptor<StarTeamSCM> {
 
-    private final Collection<StarTeamSCM> scms = new ArrayList<StarTeamSCM>();
+    // the folders jobs poll, rather than every StarTeamSCM ever configured
+    private final transient StarTeamPollCoalescer polls = new StarTeamPollCoalescer();
+    // the views whose events trigger builds, if turned on
+    private final transient StarTeamEventTrigger events = new StarTeamEventTrigger();
     private static final Logger LOGGER = Logger.getLogger(StarTeamSCMDescriptorImpl.class.getName());
 
     public StarTeamSCMDescriptorImpl() {
@@ -218,7 +384,6 @@ public class StarTeamSCM extends SCM {
       StarTeamSCM scm = null;
       try {
         scm = req.bindParameters(StarTeamSCM.class, "starteam.community.");
-        scms.add(scm);
       } catch (RuntimeException e) {
         LOGGER.log(SEVERE, e.getMessage(), e);
       }
@@ -228,6 +393,20 @@ public class StarTeamSCM extends SCM {
       return scm;
     }
 
+    /**
+     * @return the registry that lets polls of the same folder share a listing
+     */
+    StarTeamPollCoalescer getPolls() {
+      return polls;
+    }
+
+    /**
+     * @return the registry of the views whose item events trigger builds
+     */
+    StarTeamEventTrigger getEvents() {
+      return events;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -337,4 +516,12 @@ public class StarTeamSCM extends SCM {
   public String getSubfolder() {
     return subfolder;
   }
+
+  /**
+   * @return the number of sessions checking out files in parallel, at least 1.
+   */
+  public int getCheckoutthreads() {
+    // 0 for jobs configured before the option existed
+    return Math.max(1, checkoutthreads);
+  }
 }
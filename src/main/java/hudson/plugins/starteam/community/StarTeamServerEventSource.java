@@ -0,0 +1,126 @@
+package hudson.plugins.starteam.community;
+
+import com.starteam.File;
+import com.starteam.Folder;
+import com.starteam.Item;
+import com.starteam.Server;
+import com.starteam.Type;
+import com.starteam.View;
+import com.starteam.events.ItemEvent;
+import com.starteam.events.ItemListener;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The item events of a view, subscribed through the MPX message broker of the server on a
+ * session of its own, outside the {@link StarTeamSessionPool}.
+ */
+final class StarTeamServerEventSource implements StarTeamEventSource {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamServerEventSource.class.getName());
+
+  static final Factory FACTORY = new Factory() {
+    public StarTeamEventSource open(StarTeamEventTrigger.Key key, Listener listener) throws StarTeamSCMException {
+      // the events of the whole view, no folder is looked up
+      StarTeamConnection connection = new StarTeamConnection(key.hostName, key.port, key.agentHost, key.agentPort,
+          key.userName, key.password, key.projectName, key.viewName);
+      StarTeamSession session = connection.openUnpooledSession();
+      try {
+        return new StarTeamServerEventSource(session, listener);
+      } catch (StarTeamSCMException e) {
+        session.close();
+        throw e;
+      } catch (RuntimeException e) {
+        session.close();
+        throw e;
+      }
+    }
+  };
+
+  private final StarTeamSession session;
+  private final View view;
+  private final Type[] types;
+  private final ItemListener itemListener;
+  private volatile boolean subscribed;
+
+  private StarTeamServerEventSource(StarTeamSession session, final Listener listener) throws StarTeamSCMException {
+    this.session = session;
+    Server server = session.getServer();
+    if (!server.isMPXAvailable()) {
+      throw new StarTeamSCMException("MPX is not available on server " + server.getAddress());
+    }
+    this.view = session.configureView(null, -1);
+    // folders too, a deleted or moved folder takes its files with it without an event for each
+    this.types = new Type[]{server.getTypes().FILE, server.getTypes().FOLDER};
+    this.itemListener = new ItemListener() {
+      public void itemAdded(ItemEvent e) {
+        report(Kind.ADDED, e.getNewItem());
+      }
+
+      public void itemChanged(ItemEvent e) {
+        report(Kind.MODIFIED, e.getNewItem());
+      }
+
+      public void itemRemoved(ItemEvent e) {
+        report(Kind.DELETED, e.getOldItem());
+      }
+
+      public void itemMovedTo(ItemEvent e) {
+        report(Kind.MOVED, e.getNewItem());
+      }
+
+      public void itemMovedAway(ItemEvent e) {
+        report(Kind.MOVED, e.getOldItem());
+      }
+
+      private void report(Kind kind, Item item) {
+        if (item == null) {
+          return;
+        }
+        try {
+          listener.itemChanged(kind, pathOf(item));
+        } catch (RuntimeException e) {
+          // an event thread of the SDK must not die of a job that cannot be scheduled
+          LOGGER.log(Level.WARNING, "Cannot handle the StarTeam event " + kind + " of " + session, e);
+        }
+      }
+    };
+    for (Type type : types) {
+      view.addItemListener(itemListener, type);
+    }
+    subscribed = true;
+  }
+
+  /**
+   * @return the path of an item as {@link Listener#itemChanged} has it
+   */
+  static String pathOf(Item item) {
+    if (item instanceof Folder) {
+      return ((Folder) item).getFolderHierarchy();
+    }
+    String parent = item.getParentFolderHierarchy();
+    return item instanceof File ? parent + ((File) item).getName() : parent;
+  }
+
+  /**
+   * @return true while the listeners are added, the server is connected and its MPX message
+   * broker is reachable, events only arrive through the broker
+   */
+  public boolean isAlive() {
+    Server server = session.getServer();
+    return subscribed && server.isConnected() && server.isMPXAvailable();
+  }
+
+  public void close() {
+    subscribed = false;
+    try {
+      for (Type type : types) {
+        view.removeItemListener(itemListener, type);
+      }
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.FINE, "Cannot unsubscribe the events of " + session, e);
+    }
+    session.close();
+  }
+}
@@ -0,0 +1,93 @@
+package hudson.plugins.starteam.community;
+
+import com.starteam.File;
+import com.starteam.User;
+import com.starteam.VersionedObject;
+import com.starteam.util.MD5;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A file of a view on a StarTeam server.
+ * <p>
+ * The path, revision, content modification time and checksum are read when the item is
+ * created, on the thread that lists the files, because the working path changes when the
+ * connection is closed and the checksum is compared on other threads.
+ */
+final class StarTeamServerItem implements StarTeamItem {
+
+  private final File file;
+  private final String fullName;
+  private final int revisionNumber;
+  private final long contentModifiedTime;
+  private final MD5 md5;
+
+  StarTeamServerItem(File file) {
+    this.file = file;
+    this.fullName = file.getFullName();
+    this.revisionNumber = VersionedObject.getViewVersion(file.getDotNotation());
+    this.contentModifiedTime = file.getContentModifiedTime().toJavaMsec();
+    this.md5 = file.getMD5();
+  }
+
+  static Collection<StarTeamItem> wrap(Collection<File> files) {
+    Collection<StarTeamItem> result = new ArrayList<StarTeamItem>(files.size());
+    for (File f : files) {
+      result.add(new StarTeamServerItem(f));
+    }
+    return result;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  public String getFullName() {
+    return fullName;
+  }
+
+  public String getName() {
+    return file.getName();
+  }
+
+  public int getRevisionNumber() {
+    return revisionNumber;
+  }
+
+  public long getContentModifiedTime() {
+    return contentModifiedTime;
+  }
+
+  public long getModifiedTime() {
+    return file.getModifiedTime().toJavaMsec();
+  }
+
+  public String getModifiedBy() {
+    User user = file.getModifiedBy();
+    return user == null ? null : user.getName();
+  }
+
+  public String getComment() {
+    return file.getComment();
+  }
+
+  public long getSize() {
+    return file.getSize();
+  }
+
+  public String describeContentMismatch(java.io.File localFile) throws IOException {
+    MD5 localMD5 = new MD5();
+    localMD5.computeFileMD5(localFile);
+    if (md5 != null && md5.equals(localMD5)) {
+      return null;
+    }
+    return "  localfileMD5:" + localMD5 + "\n  starteam MD5:" + md5;
+  }
+
+  @Override
+  public String toString() {
+    return fullName;
+  }
+}
@@ -0,0 +1,121 @@
+package hudson.plugins.starteam.community;
+
+import com.starteam.Project;
+import com.starteam.Server;
+import com.starteam.View;
+
+import java.text.ParseException;
+
+/**
+ * A logged-on StarTeam server together with the project and view it was opened for.
+ * <p>
+ * Sessions are leased from {@link StarTeamSessionPool} and are used by one
+ * {@link StarTeamConnection} at a time.
+ */
+class StarTeamSession {
+
+  private final StarTeamSessionPool.Key key;
+  private final Server server;
+  private final Project project;
+  private final View baseView;
+  private View configuredView;
+  private long lastUsed;
+
+  StarTeamSession(StarTeamSessionPool.Key key, Server server, Project project, View baseView) {
+    this.key = key;
+    this.server = server;
+    this.project = project;
+    this.baseView = baseView;
+  }
+
+  StarTeamSessionPool.Key getKey() {
+    return key;
+  }
+
+  Server getServer() {
+    return server;
+  }
+
+  Project getProject() {
+    return project;
+  }
+
+  /**
+   * Returns the view to work on, applying the configuration selector if there is one.
+   * A view configured by a fixed selector is kept for the next lease, a dynamic one
+   * (promotion state, label pattern) is configured again every time.
+   *
+   * @param configSelector the configuration selector, may be null
+   * @param buildNumber    a job build number, or -1 if not associated with a job.
+   * @return the configured view
+   * @throws StarTeamSCMException if the view could not be configured
+   */
+  View configureView(StarTeamViewSelector configSelector, int buildNumber) throws StarTeamSCMException {
+    if (configSelector == null) {
+      return baseView;
+    }
+    if (configuredView != null && configSelector.isFixedConfiguration()) {
+      return configuredView;
+    }
+    View view;
+    try {
+      view = configSelector.configView(baseView, buildNumber);
+    } catch (ParseException e) {
+      throw new StarTeamSCMException("Could not correctly parse configuration date: " + e.getMessage());
+    }
+    if (configuredView != null) {
+      configuredView.discard();
+    }
+    configuredView = view;
+    return configuredView == null ? baseView : configuredView;
+  }
+
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  void setLastUsed(long lastUsed) {
+    this.lastUsed = lastUsed;
+  }
+
+  /**
+   * Checks that the session is still connected and logged on. This costs one
+   * round trip to the server.
+   *
+   * @return true if the session can be leased again.
+   */
+  boolean isValid() {
+    try {
+      if (!server.isConnected()) {
+        return false;
+      }
+      server.getCurrentTime();
+      return true;
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Discards the views and project and disconnects from the server.
+   */
+  void close() {
+    try {
+      if (server.isConnected()) {
+        if (configuredView != null) {
+          configuredView.discard();
+        }
+        baseView.discard();
+        project.discard();
+        server.disconnect();
+      }
+    } catch (RuntimeException e) {
+      // the session is going away anyway, nothing more to do
+    }
+  }
+
+  @Override
+  public String toString() {
+    return key.toString();
+  }
+}
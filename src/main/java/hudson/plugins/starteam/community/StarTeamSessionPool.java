@@ -0,0 +1,385 @@
+package hudson.plugins.starteam.community;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of logged-on StarTeam sessions shared by polling and checkout within one JVM.
+ * <p>
+ * Sessions are keyed by host, port, user, project, view and configuration selector.
+ * An idle session is revalidated when it is leased again, and it is closed once it
+ * has been idle longer than the idle timeout or when the pool reaches its size cap.
+ * <p>
+ * The pool is tuned with the system properties
+ * <tt>hudson.plugins.starteam.community.StarTeamSessionPool.maxSessions</tt> (0 disables pooling),
+ * <tt>.idleTimeoutSeconds</tt> and <tt>.leaseTimeoutSeconds</tt>.
+ */
+public final class StarTeamSessionPool {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamSessionPool.class.getName());
+
+  private static final String PROPERTY_PREFIX = StarTeamSessionPool.class.getName() + ".";
+
+  private static final StarTeamSessionPool INSTANCE = new StarTeamSessionPool(
+      Integer.getInteger(PROPERTY_PREFIX + "maxSessions", 16),
+      TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + "idleTimeoutSeconds", 300L)),
+      TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + "leaseTimeoutSeconds", 600L)));
+
+  /**
+   * Opens a new session when the pool has none to lease.
+   */
+  interface SessionFactory {
+    StarTeamSession open() throws StarTeamSCMException;
+  }
+
+  private final int maxSessions;
+  private final long idleTimeoutMillis;
+  private final long leaseTimeoutMillis;
+
+  // idle sessions per key, most recently used first
+  private final Map<Key, LinkedList<StarTeamSession>> idle = new HashMap<Key, LinkedList<StarTeamSession>>();
+  private int idleCount;
+  private int leasedCount;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long leaseWaitMillis;
+
+  StarTeamSessionPool(int maxSessions, long idleTimeoutMillis, long leaseTimeoutMillis) {
+    this.maxSessions = maxSessions;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.leaseTimeoutMillis = leaseTimeoutMillis;
+  }
+
+  /**
+   * @return the pool shared by this JVM.
+   */
+  public static StarTeamSessionPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Leases a session for the given key, reusing an idle one if it is still valid.
+   *
+   * @param key     identifies the server, user, project, view and selector
+   * @param factory opens a new session on a pool miss
+   * @return a session for exclusive use until it is released
+   * @throws StarTeamSCMException if a session could not be opened or the pool stayed full
+   *                              for longer than the lease timeout
+   */
+  StarTeamSession lease(Key key, SessionFactory factory) throws StarTeamSCMException {
+    if (maxSessions <= 0) {
+      synchronized (this) {
+        misses++;
+      }
+      return factory.open();
+    }
+    long start = System.currentTimeMillis();
+    StarTeamSession candidate;
+    List<StarTeamSession> evicted = new ArrayList<StarTeamSession>();
+    synchronized (this) {
+      try {
+        candidate = reserve(key, start, evicted);
+      } finally {
+        leaseWaitMillis += System.currentTimeMillis() - start;
+      }
+    }
+    closeAll(evicted);
+
+    if (candidate != null) {
+      if (candidate.isValid()) {
+        return candidate;
+      }
+      LOGGER.log(Level.FINE, "Discarding stale StarTeam session {0}", candidate);
+      candidate.close();
+      synchronized (this) {
+        hits--;
+        misses++;
+        evictions++;
+      }
+    }
+    try {
+      return factory.open();
+    } catch (StarTeamSCMException e) {
+      releaseSlot();
+      throw e;
+    } catch (RuntimeException e) {
+      releaseSlot();
+      throw e;
+    }
+  }
+
+  /**
+   * Reserves a slot for the caller, returning an idle session for the key if there is one.
+   * Must be called while holding the pool lock.
+   */
+  private StarTeamSession reserve(Key key, long start, List<StarTeamSession> evicted) throws StarTeamSCMException {
+    long deadline = start + leaseTimeoutMillis;
+    while (true) {
+      long now = System.currentTimeMillis();
+      evictExpired(now, evicted);
+      LinkedList<StarTeamSession> sessions = idle.get(key);
+      if (sessions != null && !sessions.isEmpty()) {
+        StarTeamSession session = sessions.removeFirst();
+        idleCount--;
+        leasedCount++;
+        hits++;
+        return session;
+      }
+      if (leasedCount + idleCount >= maxSessions) {
+        StarTeamSession eldest = removeEldestIdle();
+        if (eldest != null) {
+          evictions++;
+          evicted.add(eldest);
+        }
+      }
+      if (leasedCount + idleCount < maxSessions) {
+        leasedCount++;
+        misses++;
+        return null;
+      }
+      long remaining = deadline - now;
+      if (remaining <= 0) {
+        throw new StarTeamSCMException("Timed out waiting for a StarTeam session for " + key
+            + ", all " + maxSessions + " pooled sessions are in use");
+      }
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StarTeamSCMException("Interrupted while waiting for a StarTeam session for " + key, e);
+      }
+    }
+  }
+
+  /**
+   * Returns a leased session to the pool.
+   *
+   * @param session the session, as returned by {@link #lease}
+   */
+  void release(StarTeamSession session) {
+    if (maxSessions <= 0) {
+      session.close();
+      return;
+    }
+    List<StarTeamSession> evicted = new ArrayList<StarTeamSession>();
+    synchronized (this) {
+      leasedCount--;
+      long now = System.currentTimeMillis();
+      session.setLastUsed(now);
+      LinkedList<StarTeamSession> sessions = idle.get(session.getKey());
+      if (sessions == null) {
+        sessions = new LinkedList<StarTeamSession>();
+        idle.put(session.getKey(), sessions);
+      }
+      sessions.addFirst(session);
+      idleCount++;
+      evictExpired(now, evicted);
+      notifyAll();
+    }
+    closeAll(evicted);
+  }
+
+  /**
+   * Closes a leased session that must not be reused, for example after a failure.
+   *
+   * @param session the session, as returned by {@link #lease}
+   */
+  void invalidate(StarTeamSession session) {
+    session.close();
+    if (maxSessions > 0) {
+      synchronized (this) {
+        evictions++;
+      }
+      releaseSlot();
+    }
+  }
+
+  /**
+   * Closes all idle sessions.
+   */
+  public void clear() {
+    List<StarTeamSession> evicted = new ArrayList<StarTeamSession>();
+    synchronized (this) {
+      for (LinkedList<StarTeamSession> sessions : idle.values()) {
+        evicted.addAll(sessions);
+      }
+      evictions += evicted.size();
+      idle.clear();
+      idleCount = 0;
+      notifyAll();
+    }
+    closeAll(evicted);
+  }
+
+  private synchronized void releaseSlot() {
+    leasedCount--;
+    notifyAll();
+  }
+
+  private void evictExpired(long now, List<StarTeamSession> evicted) {
+    Iterator<LinkedList<StarTeamSession>> lists = idle.values().iterator();
+    while (lists.hasNext()) {
+      LinkedList<StarTeamSession> sessions = lists.next();
+      Iterator<StarTeamSession> it = sessions.iterator();
+      while (it.hasNext()) {
+        StarTeamSession session = it.next();
+        if (now - session.getLastUsed() >= idleTimeoutMillis) {
+          it.remove();
+          idleCount--;
+          evictions++;
+          evicted.add(session);
+        }
+      }
+      if (sessions.isEmpty()) {
+        lists.remove();
+      }
+    }
+  }
+
+  private StarTeamSession removeEldestIdle() {
+    LinkedList<StarTeamSession> eldestList = null;
+    for (LinkedList<StarTeamSession> sessions : idle.values()) {
+      if (!sessions.isEmpty()
+          && (eldestList == null || sessions.getLast().getLastUsed() < eldestList.getLast().getLastUsed())) {
+        eldestList = sessions;
+      }
+    }
+    if (eldestList == null) {
+      return null;
+    }
+    StarTeamSession eldest = eldestList.removeLast();
+    idleCount--;
+    if (eldestList.isEmpty()) {
+      idle.remove(eldest.getKey());
+    }
+    return eldest;
+  }
+
+  private static void closeAll(List<StarTeamSession> sessions) {
+    for (StarTeamSession session : sessions) {
+      LOGGER.log(Level.FINE, "Closing pooled StarTeam session {0}", session);
+      session.close();
+    }
+  }
+
+  /**
+   * @return a snapshot of the pool counters.
+   */
+  public synchronized Statistics getStatistics() {
+    return new Statistics(hits, misses, evictions, leaseWaitMillis, idleCount, leasedCount);
+  }
+
+  /**
+   * Identifies the sessions that can be shared.
+   */
+  static final class Key {
+    private final String hostName;
+    private final int port;
+    private final String userName;
+    private final String password;
+    private final String projectName;
+    private final String viewName;
+    private final String selector;
+
+    Key(String hostName, int port, String userName, String password, String projectName, String viewName,
+        StarTeamViewSelector configSelector) {
+      this.hostName = hostName;
+      this.port = port;
+      this.userName = userName;
+      this.password = password;
+      this.projectName = projectName;
+      this.viewName = viewName;
+      this.selector = configSelector == null ? ""
+          : configSelector.getConfigType() + ":" + configSelector.getConfigInfo();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key that = (Key) o;
+      return port == that.port && hostName.equals(that.hostName) && userName.equals(that.userName)
+          && password.equals(that.password) && projectName.equals(that.projectName)
+          && viewName.equals(that.viewName) && selector.equals(that.selector);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = hostName.hashCode();
+      result = 31 * result + port;
+      result = 31 * result + userName.hashCode();
+      result = 31 * result + projectName.hashCode();
+      result = 31 * result + viewName.hashCode();
+      result = 31 * result + selector.hashCode();
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return userName + "@" + hostName + ":" + port + "/" + projectName + "/" + viewName
+          + (selector.length() == 0 ? "" : " [" + selector + "]");
+    }
+  }
+
+  /**
+   * Pool counters at one point in time.
+   */
+  public static final class Statistics {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long leaseWaitMillis;
+    private final int idle;
+    private final int leased;
+
+    Statistics(long hits, long misses, long evictions, long leaseWaitMillis, int idle, int leased) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.leaseWaitMillis = leaseWaitMillis;
+      this.idle = idle;
+      this.leased = leased;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    public long getLeaseWaitMillis() {
+      return leaseWaitMillis;
+    }
+
+    public int getIdle() {
+      return idle;
+    }
+
+    public int getLeased() {
+      return leased;
+    }
+
+    @Override
+    public String toString() {
+      return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions
+          + ", lease wait: " + leaseWaitMillis + " ms, idle: " + idle + ", leased: " + leased;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package hudson.plugins.starteam.community;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shows how long each phase of the StarTeam checkout of a build took.
+ * <p>
+ * If the system property
+ * <tt>hudson.plugins.starteam.community.StarTeamTimingsAction.textfileDirectory</tt> is set
+ * on the master, the timings of the latest build of every job are also written there, one
+ * <tt>starteam_&lt;job&gt;.prom</tt> file per job, for the Prometheus node exporter's
+ * textfile collector.
+ */
+public class StarTeamTimingsAction implements Action {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamTimingsAction.class.getName());
+
+  private static final String TEXTFILE_DIRECTORY =
+      System.getProperty(StarTeamTimingsAction.class.getName() + ".textfileDirectory");
+
+  private final StarTeamPhaseTimings timings;
+
+  public StarTeamTimingsAction(StarTeamPhaseTimings timings) {
+    this.timings = timings;
+  }
+
+  public StarTeamPhaseTimings getTimings() {
+    return timings;
+  }
+
+  public String getIconFileName() {
+    return "clock.png";
+  }
+
+  public String getDisplayName() {
+    return "StarTeam Timings";
+  }
+
+  public String getUrlName() {
+    return "starteamTimings";
+  }
+
+  /**
+   * Attaches the timings the checkout stored in the build folder, if any, to the build.
+   *
+   * @param build the build that was just checked out
+   */
+  static void attach(AbstractBuild<?, ?> build) {
+    try {
+      StarTeamPhaseTimings timings = StarTeamPhaseTimings.load(build.getRootDir());
+      if (timings == null) {
+        return;
+      }
+      build.addAction(new StarTeamTimingsAction(timings));
+      if (TEXTFILE_DIRECTORY != null) {
+        export(new File(TEXTFILE_DIRECTORY), build.getParent().getFullName(), build.getNumber(), timings);
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Cannot read the StarTeam timings of " + build.getRootDir(), e);
+    }
+  }
+
+  /**
+   * Writes the timings of a job's build to a textfile collector folder. The file is written
+   * under a temporary name and renamed, so the collector never reads half a file.
+   */
+  static void export(File directory, String job, int buildNumber, StarTeamPhaseTimings timings)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    String name = "starteam_" + job.replaceAll("[^A-Za-z0-9_.-]", "_");
+    File tmp = new File(directory, name + ".prom.tmp");
+    Map<String, String> labels = new LinkedHashMap<String, String>();
+    labels.put("job", job);
+    labels.put("build", Integer.toString(buildNumber));
+    Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+    try {
+      timings.writePrometheus(writer, labels);
+    } finally {
+      writer.close();
+    }
+    Files.move(tmp.toPath(), new File(directory, name + ".prom").toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,144 @@
+package hudson.plugins.starteam.community;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the user accounts of one StarTeam server, used to turn the user name
+ * of a change into the name Jenkins knows the author by.
+ * <p>
+ * The accounts are loaded with a single call and shared by every build that logs on
+ * to the same server as the same user. The index is reloaded once it is older than
+ * the time to live; names that are not in the index are answered with the plain user
+ * name and all of them are looked up together by the next reload, which happens at
+ * most once per refresh interval. When the logon user lacks the "Administer User
+ * Accounts" permission that outcome is cached as well.
+ * <p>
+ * Tuned with the system properties
+ * <tt>hudson.plugins.starteam.community.StarTeamUserDirectory.ttlSeconds</tt> and
+ * <tt>.refreshIntervalSeconds</tt>.
+ */
+final class StarTeamUserDirectory {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamUserDirectory.class.getName());
+
+  private static final String PROPERTY_PREFIX = StarTeamUserDirectory.class.getName() + ".";
+
+  private static final long TTL_MILLIS =
+      TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + "ttlSeconds", 3600L));
+
+  private static final long REFRESH_INTERVAL_MILLIS =
+      TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_PREFIX + "refreshIntervalSeconds", 60L));
+
+  private static final Map<String, StarTeamUserDirectory> DIRECTORIES = new HashMap<String, StarTeamUserDirectory>();
+
+  /**
+   * Reads the user accounts from the server.
+   */
+  interface AccountLoader {
+    /**
+     * @return the e-mail address of every account, by user name
+     * @throws RuntimeException if the accounts cannot be read, typically for lack of permission
+     */
+    Map<String, String> loadEmailAddresses();
+  }
+
+  private final long ttlMillis;
+  private final long refreshIntervalMillis;
+
+  // user name -> name to report
+  private Map<String, String> index = new HashMap<String, String>();
+  private boolean canReadUserAccts = true;
+  private boolean loaded;
+  private long loadedAt;
+  // names asked for since the last load that were not in the index
+  private Set<String> misses = new HashSet<String>();
+
+  StarTeamUserDirectory(long ttlMillis, long refreshIntervalMillis) {
+    this.ttlMillis = ttlMillis;
+    this.refreshIntervalMillis = refreshIntervalMillis;
+  }
+
+  /**
+   * @return the directory shared by all connections to the given server as the given user.
+   */
+  static StarTeamUserDirectory forServer(String hostName, int port, String userName) {
+    String key = userName + "@" + hostName + ":" + port;
+    synchronized (DIRECTORIES) {
+      StarTeamUserDirectory directory = DIRECTORIES.get(key);
+      if (directory == null) {
+        directory = new StarTeamUserDirectory(TTL_MILLIS, REFRESH_INTERVAL_MILLIS);
+        DIRECTORIES.put(key, directory);
+      }
+      return directory;
+    }
+  }
+
+  /**
+   * Returns the name to report for a StarTeam user: the part of the account's e-mail
+   * address before the '@' if there is one, else the user name itself.
+   *
+   * @param stUserName the StarTeam user name
+   * @param loader     reads the accounts if the index must be (re)loaded
+   * @return the name to report
+   */
+  synchronized String getUsername(String stUserName, AccountLoader loader) {
+    long now = System.currentTimeMillis();
+    if (!loaded || now - loadedAt >= ttlMillis) {
+      load(loader, now);
+    }
+    if (!canReadUserAccts) {
+      return stUserName;
+    }
+    String name = index.get(stUserName);
+    if (name == null) {
+      // not known yet, the account may have been created since the last load
+      misses.add(stUserName);
+      if (now - loadedAt >= refreshIntervalMillis) {
+        load(loader, now);
+        name = index.get(stUserName);
+      }
+    }
+    return name == null ? stUserName : name;
+  }
+
+  private void load(AccountLoader loader, long now) {
+    loaded = true;
+    loadedAt = now;
+    Map<String, String> emailAddresses;
+    try {
+      emailAddresses = loader.loadEmailAddresses();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.FINE, "Cannot read StarTeam user accounts, using user names", e);
+      canReadUserAccts = false;
+      index = new HashMap<String, String>();
+      return;
+    }
+    Map<String, String> newIndex = new HashMap<String, String>(emailAddresses.size() * 4 / 3 + 1);
+    for (Map.Entry<String, String> account : emailAddresses.entrySet()) {
+      String email = account.getValue();
+      int at = email == null ? -1 : email.indexOf('@');
+      if (at > -1) {
+        newIndex.put(account.getKey(), email.substring(0, at));
+      } else {
+        newIndex.put(account.getKey(), account.getKey());
+      }
+    }
+    int resolved = 0;
+    for (String miss : misses) {
+      if (newIndex.containsKey(miss)) {
+        resolved++;
+      }
+    }
+    LOGGER.log(Level.FINE, "Loaded {0} StarTeam user accounts, {1} of {2} missed names resolved",
+        new Object[]{newIndex.size(), resolved, misses.size()});
+    canReadUserAccts = true;
+    index = newIndex;
+    misses = new HashSet<String>();
+  }
+}
@@ -127,6 +127,26 @@ public class StarTeamViewSelector implements Serializable {
     return new View(baseView, configuration);
   }
 
+  /**
+   * A fixed configuration always produces the same view, so a configured view can be
+   * kept and reused. Promotion states can be moved and label patterns expand per build.
+   *
+   * @return true if {@link #configView} gives the same view on every call.
+   */
+  public boolean isFixedConfiguration() {
+    if (configInfo == null || configInfo.isEmpty()) {
+      return true;
+    }
+    switch (configType) {
+      case PROMOTION:
+        return false;
+      case LABEL:
+        return !labelPattern.matcher(configInfo).find();
+      default:
+        return true;
+    }
+  }
+
   public static String expandLabelPattern(final String labelformat, final int buildNumber) {
     Matcher m = labelPattern.matcher(labelformat);
     StringBuffer sb = new StringBuffer();
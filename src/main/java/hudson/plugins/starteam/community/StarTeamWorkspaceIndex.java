@@ -0,0 +1,562 @@
+package hudson.plugins.starteam.community;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the files of a workspace on the machine the workspace lives on, kept current
+ * between builds by a file watcher so that the change computation does not walk the disk.
+ * <p>
+ * The first use scans the workspace and registers a watch on every folder. Later uses
+ * only look at the paths the watcher reported since; a lost event (overflow) or a watch
+ * that cannot be registered makes the next use scan the whole workspace again.
+ * <p>
+ * The index is also stored next to the workspace (<tt>&lt;workspace&gt;@starteam-index</tt>).
+ * After an agent restart it is revalidated instead of rescanned: every known file is checked
+ * but only the folders whose modification time changed, or that were modified shortly
+ * before the index was stored, are listed again.
+ * <p>
+ * Files and folders are kept in path order, in which everything below a folder directly
+ * follows it, so the children of a folder are found without looking at the rest.
+ * <p>
+ * Disabled unless the system property
+ * <tt>hudson.plugins.starteam.community.StarTeamWorkspaceIndex.enabled</tt> is true on the
+ * agent.
+ */
+final class StarTeamWorkspaceIndex {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamWorkspaceIndex.class.getName());
+
+  static final boolean ENABLED = Boolean.getBoolean(StarTeamWorkspaceIndex.class.getName() + ".enabled");
+
+  static final String INDEX_SUFFIX = "@starteam-index";
+
+  private static final int MAGIC = 0x53545749; // "STWI"
+  private static final int VERSION = 1;
+
+  // folders modified this close to the time the index was stored may have changed again
+  // within the file system's timestamp resolution, as with git's racily clean entries
+  private static final long RACY_MILLIS = 2000;
+
+  private static final Map<Path, StarTeamWorkspaceIndex> INDEXES = new HashMap<Path, StarTeamWorkspaceIndex>();
+
+  private static Watcher watcher;
+
+  private final Path root;
+  private final java.io.File indexFile;
+  private final StarTeamWorkspaceScanner scanner;
+
+  private NavigableMap<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> files =
+      new TreeMap<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes>();
+  private NavigableMap<StarTeamPath, Long> directories = new TreeMap<StarTeamPath, Long>();
+  private final List<WatchKey> keys = new ArrayList<WatchKey>();
+  private Set<Path> dirty = new HashSet<Path>();
+  private boolean loaded;
+  private boolean rescan;
+  private boolean modified;
+  private long storedAt;
+
+  StarTeamWorkspaceIndex(java.io.File workFolder, StarTeamWorkspaceScanner scanner) {
+    this.root = workFolder.getAbsoluteFile().toPath();
+    this.indexFile = new java.io.File(root.toString() + INDEX_SUFFIX);
+    this.scanner = scanner;
+  }
+
+  /**
+   * Lists the files of a workspace, through its index if indexes are enabled.
+   *
+   * @param workFolder the folder to list
+   * @return the attributes of every file, by absolute path
+   */
+  static Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> scan(java.io.File workFolder) {
+    if (!ENABLED) {
+      return new StarTeamWorkspaceScanner().scan(workFolder);
+    }
+    Path root = workFolder.getAbsoluteFile().toPath();
+    StarTeamWorkspaceIndex index;
+    synchronized (INDEXES) {
+      index = INDEXES.get(root);
+      if (index == null) {
+        index = new StarTeamWorkspaceIndex(workFolder, new StarTeamWorkspaceScanner());
+        INDEXES.put(root, index);
+      }
+    }
+    return index.snapshot();
+  }
+
+  /**
+   * Brings the index up to date and returns a copy of it.
+   *
+   * @return the attributes of every file, by absolute path
+   */
+  Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> snapshot() {
+    Watcher current = getWatcher();
+    if (current != null) {
+      // pick up what the watcher thread has not dispatched yet, before locking this index
+      // since the events may be for other indexes
+      current.drain();
+    }
+    synchronized (this) {
+      return refresh();
+    }
+  }
+
+  private Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> refresh() {
+    long start = System.currentTimeMillis();
+    String how;
+    if (!loaded) {
+      loaded = true;
+      if (load()) {
+        revalidate();
+        how = "revalidated stored index";
+      } else {
+        fullScan();
+        how = "scanned";
+      }
+      watchAll();
+    } else if (rescan || !Files.isDirectory(root)) {
+      fullScan();
+      watchAll();
+      how = "rescanned";
+    } else {
+      how = "applied " + dirty.size() + " changed paths";
+      applyDirty();
+    }
+    LOGGER.log(Level.FINE, "Workspace index of {0}: {1} in {2} ms, {3} files",
+        new Object[]{root, how, System.currentTimeMillis() - start, files.size()});
+    if (modified) {
+      save();
+    }
+    return new HashMap<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes>(files);
+  }
+
+  private void fullScan() {
+    Map<Path, Long> scannedDirectories = new ConcurrentHashMap<Path, Long>();
+    files = new TreeMap<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes>(
+        scanner.scan(root.toFile(), scannedDirectories));
+    directories = new TreeMap<StarTeamPath, Long>();
+    putDirectories(scannedDirectories);
+    dirty = new HashSet<Path>();
+    rescan = false;
+    modified = true;
+  }
+
+  /**
+   * Checks a stored index against the disk: every file is checked again, folders are only
+   * listed if their modification time changed.
+   */
+  private void revalidate() {
+    for (Iterator<Map.Entry<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes>> it = files.entrySet().iterator();
+         it.hasNext(); ) {
+      Map.Entry<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> entry = it.next();
+      StarTeamWorkspaceScanner.FileAttributes attributes = readFile(Paths.get(entry.getKey().getPath()));
+      if (attributes == null) {
+        it.remove();
+      } else {
+        entry.setValue(attributes);
+      }
+    }
+    for (StarTeamPath folder : new ArrayList<StarTeamPath>(directories.keySet())) {
+      Long stored = directories.get(folder);
+      if (stored == null) {
+        // removed with its parent
+        continue;
+      }
+      Path dir = Paths.get(folder.getPath());
+      long lastModified;
+      try {
+        lastModified = Files.getLastModifiedTime(dir).toMillis();
+      } catch (IOException e) {
+        removeTree(dir);
+        continue;
+      }
+      if (lastModified != stored || stored >= storedAt - RACY_MILLIS) {
+        directories.put(folder, lastModified);
+        relist(dir);
+      }
+    }
+    dirty = new HashSet<Path>();
+    modified = true;
+  }
+
+  /**
+   * Adds the children of a folder that are not in the index yet, drops the ones that are gone.
+   */
+  private void relist(Path dir) {
+    Set<StarTeamPath> present = new HashSet<StarTeamPath>();
+    try {
+      DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+      try {
+        for (Path entry : entries) {
+          present.add(StarTeamPath.of(entry.toString()));
+          update(entry);
+        }
+      } finally {
+        entries.close();
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Cannot list " + dir, e);
+      return;
+    }
+    StarTeamPath folder = StarTeamPath.of(dir.toString());
+    for (StarTeamPath file : childrenOf(files, folder)) {
+      if (!present.contains(file)) {
+        files.remove(file);
+      }
+    }
+    for (StarTeamPath child : childrenOf(directories, folder)) {
+      if (!present.contains(child)) {
+        removeTree(Paths.get(child.getPath()));
+      }
+    }
+  }
+
+  /**
+   * @return the keys directly in a folder, skipping over the ones further below
+   */
+  private static List<StarTeamPath> childrenOf(NavigableMap<StarTeamPath, ?> map, StarTeamPath folder) {
+    List<StarTeamPath> children = new ArrayList<StarTeamPath>();
+    StarTeamPath key = map.higherKey(folder);
+    while (key != null && key.isBelow(folder)) {
+      if (key.isChildOf(folder)) {
+        children.add(key);
+        key = map.higherKey(key);
+      } else {
+        key = map.ceilingKey(endOf(childOf(key, folder)));
+      }
+    }
+    return children;
+  }
+
+  /**
+   * @return the folder directly in the given one that a path is below
+   */
+  private static StarTeamPath childOf(StarTeamPath path, StarTeamPath folder) {
+    String p = path.getPath();
+    int start = folder.getPath().length() + 1;
+    int slash = p.indexOf('/', start);
+    int separator = p.indexOf(java.io.File.separatorChar, start);
+    int end = slash < 0 ? separator : separator < 0 ? slash : Math.min(slash, separator);
+    return StarTeamPath.of(p.substring(0, end));
+  }
+
+  /**
+   * @return the first path after everything below a folder, as the separator orders before
+   * every other character
+   */
+  private static StarTeamPath endOf(StarTeamPath folder) {
+    return StarTeamPath.of(folder.getPath() + '\0');
+  }
+
+  private void applyDirty() {
+    Set<Path> paths = dirty;
+    dirty = new HashSet<Path>();
+    for (Path path : paths) {
+      update(path);
+    }
+    if (!paths.isEmpty()) {
+      modified = true;
+    }
+  }
+
+  /**
+   * Brings one path up to date: a file is read again, a new folder is scanned and watched,
+   * a path that is gone is removed with everything below it.
+   */
+  private void update(Path path) {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      files.remove(StarTeamPath.of(path.toString()));
+      removeTree(path);
+      return;
+    }
+    if (attributes.isRegularFile()) {
+      files.put(StarTeamPath.of(path.toString()), new StarTeamWorkspaceScanner.FileAttributes(attributes.size(),
+          attributes.lastModifiedTime().toMillis()));
+    } else if (attributes.isDirectory() && directories.containsKey(StarTeamPath.of(path.toString()))) {
+      // its children report their own changes
+      directories.put(StarTeamPath.of(path.toString()), attributes.lastModifiedTime().toMillis());
+    } else if (attributes.isDirectory()) {
+      Map<Path, Long> scannedDirectories = new ConcurrentHashMap<Path, Long>();
+      files.putAll(scanner.scan(path.toFile(), scannedDirectories));
+      putDirectories(scannedDirectories);
+      for (Path dir : scannedDirectories.keySet()) {
+        watch(dir);
+      }
+    }
+  }
+
+  private void putDirectories(Map<Path, Long> scannedDirectories) {
+    for (Map.Entry<Path, Long> entry : scannedDirectories.entrySet()) {
+      directories.put(StarTeamPath.of(entry.getKey().toString()), entry.getValue());
+    }
+  }
+
+  private void removeTree(Path dir) {
+    StarTeamPath folder = StarTeamPath.of(dir.toString());
+    if (directories.remove(folder) == null) {
+      return;
+    }
+    StarTeamPath end = endOf(folder);
+    files.subMap(folder, false, end, false).clear();
+    directories.subMap(folder, false, end, false).clear();
+  }
+
+  private static StarTeamWorkspaceScanner.FileAttributes readFile(Path path) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      if (attributes.isRegularFile()) {
+        return new StarTeamWorkspaceScanner.FileAttributes(attributes.size(),
+            attributes.lastModifiedTime().toMillis());
+      }
+    } catch (IOException e) {
+      // gone
+    }
+    return null;
+  }
+
+  private void watchAll() {
+    for (WatchKey key : keys) {
+      key.cancel();
+      Watcher current = getWatcher();
+      if (current != null) {
+        current.unregister(key);
+      }
+    }
+    keys.clear();
+    for (StarTeamPath dir : directories.keySet()) {
+      if (!watch(Paths.get(dir.getPath()))) {
+        break;
+      }
+    }
+  }
+
+  private boolean watch(Path dir) {
+    Watcher current = getWatcher();
+    if (current == null) {
+      rescan = true;
+      return false;
+    }
+    try {
+      keys.add(current.register(dir, this));
+      return true;
+    } catch (IOException e) {
+      // typically the inotify watch limit, scan every time instead
+      LOGGER.log(Level.WARNING, "Cannot watch " + dir + ", the workspace will be scanned on every build", e);
+      rescan = true;
+      return false;
+    }
+  }
+
+  /**
+   * Called by the watcher for every event below a watched folder.
+   */
+  synchronized void changed(Path path) {
+    dirty.add(path);
+  }
+
+  /**
+   * Called by the watcher when events were lost.
+   */
+  synchronized void overflowed() {
+    rescan = true;
+  }
+
+  private boolean load() {
+    if (!indexFile.isFile()) {
+      return false;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 65536));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || !root.toString().equals(in.readUTF())) {
+          return false;
+        }
+        long savedAt = in.readLong();
+        int directoryCount = in.readInt();
+        NavigableMap<StarTeamPath, Long> storedDirectories = new TreeMap<StarTeamPath, Long>();
+        for (int i = 0; i < directoryCount; i++) {
+          storedDirectories.put(StarTeamPath.of(root.resolve(in.readUTF()).toString()), in.readLong());
+        }
+        int fileCount = in.readInt();
+        NavigableMap<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> storedFiles =
+            new TreeMap<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes>();
+        for (int i = 0; i < fileCount; i++) {
+          StarTeamPath file = StarTeamPath.of(root.resolve(in.readUTF()).toString());
+          long size = in.readLong();
+          long lastModified = in.readLong();
+          storedFiles.put(file, new StarTeamWorkspaceScanner.FileAttributes(size, lastModified));
+        }
+        directories = storedDirectories;
+        files = storedFiles;
+        storedAt = savedAt;
+        return true;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Cannot read workspace index " + indexFile + ", scanning the workspace", e);
+      return false;
+    }
+  }
+
+  private void save() {
+    java.io.File tmp = new java.io.File(indexFile.getPath() + ".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(root.toString());
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(directories.size());
+        for (Map.Entry<StarTeamPath, Long> entry : directories.entrySet()) {
+          out.writeUTF(root.relativize(Paths.get(entry.getKey().getPath())).toString());
+          out.writeLong(entry.getValue());
+        }
+        out.writeInt(files.size());
+        for (Map.Entry<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> entry : files.entrySet()) {
+          out.writeUTF(root.relativize(Paths.get(entry.getKey().getPath())).toString());
+          out.writeLong(entry.getValue().getSize());
+          out.writeLong(entry.getValue().getLastModified());
+        }
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(indexFile)) {
+        indexFile.delete();
+        if (!tmp.renameTo(indexFile)) {
+          throw new IOException("Cannot rename " + tmp + " to " + indexFile);
+        }
+      }
+      modified = false;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Cannot store workspace index " + indexFile, e);
+      tmp.delete();
+    }
+  }
+
+  private static synchronized Watcher getWatcher() {
+    if (watcher == null) {
+      try {
+        watcher = new Watcher(FileSystems.getDefault().newWatchService());
+        watcher.start();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "No file watcher available, workspaces will be scanned on every build", e);
+        return null;
+      } catch (UnsupportedOperationException e) {
+        LOGGER.log(Level.WARNING, "No file watcher available, workspaces will be scanned on every build", e);
+        return null;
+      }
+    }
+    return watcher;
+  }
+
+  /**
+   * The one watch service of this JVM, dispatching events to the index of the folder.
+   */
+  private static final class Watcher extends Thread {
+    private final WatchService service;
+    private final Map<WatchKey, Registration> registrations = new ConcurrentHashMap<WatchKey, Registration>();
+
+    Watcher(WatchService service) {
+      super("StarTeam workspace watcher");
+      setDaemon(true);
+      this.service = service;
+    }
+
+    WatchKey register(Path dir, StarTeamWorkspaceIndex index) throws IOException {
+      WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+      registrations.put(key, new Registration(dir, index));
+      return key;
+    }
+
+    void unregister(WatchKey key) {
+      registrations.remove(key);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          dispatch(service.take());
+        }
+      } catch (InterruptedException e) {
+        // exit
+      } catch (ClosedWatchServiceException e) {
+        // exit
+      }
+    }
+
+    /**
+     * Dispatches the events that are already queued.
+     */
+    void drain() {
+      WatchKey key;
+      while ((key = service.poll()) != null) {
+        dispatch(key);
+      }
+    }
+
+    private void dispatch(WatchKey key) {
+      Registration registration = registrations.get(key);
+      List<WatchEvent<?>> events = key.pollEvents();
+      if (registration == null) {
+        key.reset();
+        return;
+      }
+      for (WatchEvent<?> event : events) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          registration.index.overflowed();
+        } else {
+          registration.index.changed(registration.dir.resolve((Path) event.context()));
+        }
+      }
+      if (!key.reset()) {
+        // the folder is gone, its parent reports the deletion
+        registrations.remove(key);
+      }
+    }
+  }
+
+  private static final class Registration {
+    private final Path dir;
+    private final StarTeamWorkspaceIndex index;
+
+    Registration(Path dir, StarTeamWorkspaceIndex index) {
+      this.dir = dir;
+      this.index = index;
+    }
+  }
+}
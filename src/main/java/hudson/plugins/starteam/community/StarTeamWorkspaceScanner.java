@@ -0,0 +1,175 @@
+package hudson.plugins.starteam.community;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lists the files of a workspace with their size and modification time, reading the
+ * attributes of every file once.
+ * <p>
+ * Directories are listed in parallel on a fork/join pool. The number of threads defaults
+ * to the number of processors and can be set with the system property
+ * <tt>hudson.plugins.starteam.community.StarTeamWorkspaceScanner.threads</tt>.
+ */
+final class StarTeamWorkspaceScanner {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamWorkspaceScanner.class.getName());
+
+  private static final int THREADS = Integer.getInteger(StarTeamWorkspaceScanner.class.getName() + ".threads",
+      Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Size and modification time of a local file.
+   */
+  static final class FileAttributes {
+    private final long size;
+    private final long lastModified;
+
+    FileAttributes(long size, long lastModified) {
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    /**
+     * @return the modification time in milliseconds, as {@link java.io.File#lastModified()}
+     */
+    long getLastModified() {
+      return lastModified;
+    }
+  }
+
+  private final int threads;
+
+  StarTeamWorkspaceScanner() {
+    this(THREADS);
+  }
+
+  StarTeamWorkspaceScanner(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Lists the regular files below a folder. Symbolic links are followed, like
+   * {@link java.io.File#isFile()} does; entries that cannot be read are skipped.
+   *
+   * @param workFolder the folder to scan
+   * @return the attributes of every file, by absolute path
+   */
+  Map<StarTeamPath, FileAttributes> scan(java.io.File workFolder) {
+    return scan(workFolder, null);
+  }
+
+  /**
+   * Lists the regular files below a folder and, if asked, the folders themselves.
+   *
+   * @param workFolder  the folder to scan
+   * @param directories receives the modification time of the folder and of every folder
+   *                    below it, or null; filled from several threads
+   * @return the attributes of every file, by absolute path
+   */
+  Map<StarTeamPath, FileAttributes> scan(java.io.File workFolder, Map<Path, Long> directories) {
+    Path root = workFolder.getAbsoluteFile().toPath();
+    if (!Files.isDirectory(root)) {
+      if (Files.isRegularFile(root)) {
+        Map<StarTeamPath, FileAttributes> single = new ConcurrentHashMap<StarTeamPath, FileAttributes>();
+        add(single, root);
+        return single;
+      }
+      return Collections.emptyMap();
+    }
+    if (directories != null) {
+      try {
+        directories.put(root, Files.getLastModifiedTime(root).toMillis());
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Cannot read attributes of " + root, e);
+      }
+    }
+    Map<StarTeamPath, FileAttributes> result = new ConcurrentHashMap<StarTeamPath, FileAttributes>(1024, 0.75f, threads);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.invoke(new ScanDirectory(root, result, directories));
+    } finally {
+      pool.shutdown();
+    }
+    return result;
+  }
+
+  private static void add(Map<StarTeamPath, FileAttributes> result, Path file) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      if (attributes.isRegularFile()) {
+        result.put(StarTeamPath.of(file.toString()), new FileAttributes(attributes.size(),
+            attributes.lastModifiedTime().toMillis()));
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Cannot read attributes of " + file, e);
+    }
+  }
+
+  /**
+   * Lists one directory, recording its files and forking a task per sub directory.
+   */
+  private static final class ScanDirectory extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Path dir;
+    private final Map<StarTeamPath, FileAttributes> result;
+    private final Map<Path, Long> directories;
+
+    ScanDirectory(Path dir, Map<StarTeamPath, FileAttributes> result, Map<Path, Long> directories) {
+      this.dir = dir;
+      this.result = result;
+      this.directories = directories;
+    }
+
+    @Override
+    protected void compute() {
+      List<ScanDirectory> subDirectories = new ArrayList<ScanDirectory>();
+      try {
+        DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+        try {
+          for (Path entry : entries) {
+            BasicFileAttributes attributes;
+            try {
+              attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+            } catch (IOException e) {
+              // dangling link or removed while scanning
+              LOGGER.log(Level.FINE, "Cannot read attributes of " + entry, e);
+              continue;
+            }
+            if (attributes.isRegularFile()) {
+              result.put(StarTeamPath.of(entry.toString()), new FileAttributes(attributes.size(),
+                  attributes.lastModifiedTime().toMillis()));
+            } else if (attributes.isDirectory()) {
+              if (directories != null) {
+                directories.put(entry, attributes.lastModifiedTime().toMillis());
+              }
+              subDirectories.add(new ScanDirectory(entry, result, directories));
+            }
+          }
+        } finally {
+          entries.close();
+        }
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Cannot list " + dir, e);
+      }
+      invokeAll(subDirectories);
+    }
+  }
+}
@@ -0,0 +1,354 @@
+package hudson.plugins.starteam.community;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes files from a workspace by moving them into a trash folder next to it
+ * (<tt>&lt;workspace&gt;@starteam-trash</tt>) and deleting the trash in the background.
+ * <p>
+ * Folders whose whole content is to be removed are moved with a single rename, files are
+ * moved one by one otherwise. Folders left empty are pruned. Anything that cannot be
+ * renamed, for instance because the trash is on another file system, is deleted right away.
+ * Trash left behind by an earlier JVM is deleted along with the next batch.
+ * <p>
+ * Enabled with the system property
+ * <tt>hudson.plugins.starteam.community.StarTeamWorkspaceTrash.enabled</tt> on the agent;
+ * otherwise files are deleted one by one during the checkout, as before.
+ */
+final class StarTeamWorkspaceTrash {
+
+  private static final Logger LOGGER = Logger.getLogger(StarTeamWorkspaceTrash.class.getName());
+
+  static final boolean ENABLED = Boolean.getBoolean(StarTeamWorkspaceTrash.class.getName() + ".enabled");
+
+  static final String TRASH_SUFFIX = "@starteam-trash";
+
+  private static final int THREADS = Integer.getInteger(StarTeamWorkspaceTrash.class.getName() + ".threads",
+      Runtime.getRuntime().availableProcessors());
+
+  private static final ExecutorService CLEANER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "StarTeam trash cleaner");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }
+  });
+
+  /**
+   * What was moved out of the workspace.
+   */
+  static final class Result {
+    private final int moved;
+    private final int deleted;
+    private final int pruned;
+    private final long millis;
+
+    Result(int moved, int deleted, int pruned, long millis) {
+      this.moved = moved;
+      this.deleted = deleted;
+      this.pruned = pruned;
+      this.millis = millis;
+    }
+
+    /**
+     * @return the number of files and folders renamed into the trash.
+     */
+    int getMoved() {
+      return moved;
+    }
+
+    /**
+     * @return the number of files and folders that had to be deleted in place.
+     */
+    int getDeleted() {
+      return deleted;
+    }
+
+    /**
+     * @return the number of folders pruned because they were left empty.
+     */
+    int getPruned() {
+      return pruned;
+    }
+
+    @Override
+    public String toString() {
+      return moved + " moved to trash, " + deleted + " deleted in place, " + pruned + " empty folders pruned in "
+          + millis + " ms";
+    }
+  }
+
+  /**
+   * Batches being filled, which the cleaner leaves alone until the next round.
+   */
+  private static final Set<Path> FILLING = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+  private final Path root;
+  private final Path trash;
+
+  StarTeamWorkspaceTrash(java.io.File workFolder) {
+    this.root = workFolder.getAbsoluteFile().toPath().normalize();
+    this.trash = root.resolveSibling(root.getFileName() + TRASH_SUFFIX);
+  }
+
+  /**
+   * Moves files out of the workspace into a new trash batch.
+   *
+   * @param filesToRemove the files to remove, inside the workspace
+   * @return what was done
+   * @throws IOException if the trash folder cannot be created
+   */
+  Result moveToTrash(Collection<StarTeamPath> filesToRemove) throws IOException {
+    long start = System.currentTimeMillis();
+    Set<Path> removals = new HashSet<Path>();
+    for (StarTeamPath f : filesToRemove) {
+      Path path = f.toFile().getAbsoluteFile().toPath().normalize();
+      if (path.startsWith(root) && !path.equals(root)) {
+        removals.add(path);
+      }
+    }
+    Set<Path> subtrees = subtrees(removals);
+
+    String name = Long.toString(System.currentTimeMillis(), 36);
+    Path batch = trash.resolve(name);
+    for (int i = 0; Files.exists(batch) || !FILLING.add(batch); i++) {
+      batch = trash.resolve(name + "-" + i);
+    }
+    int moved = 0;
+    int deleted = 0;
+    Set<Path> parents = new HashSet<Path>();
+    try {
+      Files.createDirectories(batch);
+      int count = 0;
+      for (Path subtree : subtrees) {
+        if (!Files.exists(subtree, LinkOption.NOFOLLOW_LINKS)) {
+          continue;
+        }
+        parents.add(subtree.getParent());
+        try {
+          Files.move(subtree, batch.resolve(Integer.toString(count++)), StandardCopyOption.ATOMIC_MOVE);
+          moved++;
+        } catch (IOException e) {
+          LOGGER.log(Level.FINE, "Cannot move " + subtree + " to the trash, deleting it", e);
+          delete(subtree);
+          deleted++;
+        }
+      }
+    } finally {
+      FILLING.remove(batch);
+    }
+    int pruned = prune(parents);
+    schedule();
+    return new Result(moved, deleted, pruned, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Replaces files by the highest folder below the workspace root whose whole content is
+   * being removed.
+   */
+  private Set<Path> subtrees(Set<Path> removals) {
+    Map<Path, Boolean> removable = new HashMap<Path, Boolean>();
+    Set<Path> result = new LinkedHashSet<Path>();
+    for (Path path : removals) {
+      Path highest = path;
+      for (Path dir = path.getParent(); dir != null && !dir.equals(root); dir = dir.getParent()) {
+        if (!isRemovable(dir, removals, removable)) {
+          break;
+        }
+        highest = dir;
+      }
+      result.add(highest);
+    }
+    // drop entries that are inside another one
+    List<Path> nested = new ArrayList<Path>();
+    for (Path path : result) {
+      for (Path dir = path.getParent(); dir != null && !dir.equals(root); dir = dir.getParent()) {
+        if (result.contains(dir)) {
+          nested.add(path);
+          break;
+        }
+      }
+    }
+    result.removeAll(nested);
+    return result;
+  }
+
+  private static boolean isRemovable(Path dir, Set<Path> removals, Map<Path, Boolean> removable) {
+    Boolean known = removable.get(dir);
+    if (known != null) {
+      return known;
+    }
+    boolean result = true;
+    try {
+      DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+      try {
+        for (Path entry : entries) {
+          if (removals.contains(entry)) {
+            continue;
+          }
+          if (!Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS) || !isRemovable(entry, removals, removable)) {
+            result = false;
+            break;
+          }
+        }
+      } finally {
+        entries.close();
+      }
+    } catch (IOException e) {
+      result = false;
+    }
+    removable.put(dir, result);
+    return result;
+  }
+
+  /**
+   * Deletes the given folders and their parents, up to the workspace root, while they are empty.
+   */
+  private int prune(Set<Path> dirs) {
+    int pruned = 0;
+    for (Path dir : dirs) {
+      for (Path current = dir; current != null && current.startsWith(root) && !current.equals(root);
+           current = current.getParent()) {
+        try {
+          Files.delete(current);
+          pruned++;
+        } catch (IOException e) {
+          // not empty, already gone or not ours to delete
+          break;
+        }
+      }
+    }
+    return pruned;
+  }
+
+  /**
+   * Deletes the batches in the trash folder of this workspace in the background.
+   */
+  private void schedule() {
+    CLEANER.submit(new Runnable() {
+      public void run() {
+        long start = System.currentTimeMillis();
+        List<DeleteTree> batches = new ArrayList<DeleteTree>();
+        try {
+          DirectoryStream<Path> entries = Files.newDirectoryStream(trash);
+          try {
+            for (Path entry : entries) {
+              if (!FILLING.contains(entry)) {
+                batches.add(new DeleteTree(entry));
+              }
+            }
+          } finally {
+            entries.close();
+          }
+        } catch (IOException e) {
+          LOGGER.log(Level.FINE, "Cannot list " + trash, e);
+          return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, THREADS));
+        try {
+          long[] counts = new long[2];
+          for (DeleteTree batch : batches) {
+            long[] batchCounts = pool.invoke(batch);
+            counts[0] += batchCounts[0];
+            counts[1] += batchCounts[1];
+          }
+          LOGGER.log(Level.INFO, "Emptied StarTeam trash {0}: {1} files, {2} bytes in {3} ms",
+              new Object[]{trash, counts[0], counts[1], System.currentTimeMillis() - start});
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.WARNING, "Cannot empty StarTeam trash " + trash, e);
+        } finally {
+          pool.shutdown();
+        }
+      }
+    });
+  }
+
+  /**
+   * Deletes a file or folder in place, on the calling thread.
+   */
+  private static void delete(Path path) {
+    ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      pool.invoke(new DeleteTree(path));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Deletes a folder, forking a task per sub folder; yields the number of files and bytes deleted.
+   */
+  private static final class DeleteTree extends RecursiveTask<long[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final Path path;
+
+    DeleteTree(Path path) {
+      this.path = path;
+    }
+
+    @Override
+    protected long[] compute() {
+      long[] counts = new long[2];
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      } catch (IOException e) {
+        return counts;
+      }
+      if (attributes.isDirectory()) {
+        List<DeleteTree> children = new ArrayList<DeleteTree>();
+        try {
+          DirectoryStream<Path> entries = Files.newDirectoryStream(path);
+          try {
+            for (Path entry : entries) {
+              children.add(new DeleteTree(entry));
+            }
+          } finally {
+            entries.close();
+          }
+        } catch (IOException e) {
+          LOGGER.log(Level.FINE, "Cannot list " + path, e);
+        }
+        for (DeleteTree child : invokeAll(children)) {
+          long[] childCounts = child.join();
+          counts[0] += childCounts[0];
+          counts[1] += childCounts[1];
+        }
+      } else {
+        counts[0] = 1;
+        counts[1] = attributes.size();
+      }
+      try {
+        Files.delete(path);
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Cannot delete " + path, e);
+      }
+      return counts;
+    }
+  }
+}
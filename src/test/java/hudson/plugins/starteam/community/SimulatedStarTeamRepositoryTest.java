@@ -0,0 +1,221 @@
+package hudson.plugins.starteam.community;
+
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SimulatedStarTeamRepositoryTest {
+
+  private File parent;
+  private File workFolder;
+  private PrintStream logger;
+
+  @Before
+  public void setUp() throws IOException {
+    parent = File.createTempFile("simulated", "");
+    parent.delete();
+    workFolder = new File(parent, "job");
+    workFolder.mkdirs();
+    logger = new PrintStream(new NullOutputStream());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(parent);
+  }
+
+  @Test
+  public void sameSeedGivesSameFiles() throws StarTeamSCMException {
+    List<String> first = describe(new SimulatedStarTeamRepository(7, 20, 500), null);
+    List<String> second = describe(new SimulatedStarTeamRepository(7, 20, 500), null);
+    List<String> other = describe(new SimulatedStarTeamRepository(8, 20, 500), null);
+    Assert.assertEquals(500, first.size());
+    Assert.assertEquals(first, second);
+    Assert.assertFalse(first.equals(other));
+  }
+
+  @Test
+  public void labelsPromotionStatesAndTimesSelectOlderRevisions() throws StarTeamSCMException, ParseException {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(1, 10, 1000);
+    List<String> tip = describe(repository, null);
+    List<String> newestLabel = describe(repository, new StarTeamViewSelector("Build 10", "LABEL"));
+    List<String> oldestLabel = describe(repository, new StarTeamViewSelector("Build 1", "LABEL"));
+    Assert.assertEquals(newestLabel, describe(repository, new StarTeamViewSelector("State 1", "PROMOTION")));
+    Assert.assertEquals(tip, describe(repository, new StarTeamViewSelector("2018/1/1 00:00:00", "TIME")));
+    Assert.assertTrue(describe(repository, new StarTeamViewSelector("2016/12/31 00:00:00", "TIME")).isEmpty());
+    Assert.assertTrue(oldestLabel.size() < newestLabel.size());
+    Assert.assertFalse(tip.equals(newestLabel));
+    try {
+      describe(repository, new StarTeamViewSelector("Build 11", "LABEL"));
+      Assert.fail("there are only 10 labels");
+    } catch (StarTeamSCMException expected) {
+    }
+  }
+
+  @Test
+  public void checksOutAndPollsThroughConnection() throws IOException, StarTeamSCMException {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(3, 15, 800);
+    repository.setAverageFileSize(100);
+    FilePath filePoints = new FilePath(new File(parent, StarTeamConnection.FILE_POINT_FILENAME));
+
+    StarTeamChangeSet changeSet = computeChangeSet(repository, null);
+    Assert.assertEquals(800, changeSet.getFilesToCheckout().size());
+    Assert.assertEquals(800, changeSet.getChangeCount());
+    checkOut(repository, changeSet, filePoints);
+    for (StarTeamItem item : changeSet.getFilesToCheckout()) {
+      File file = new File(item.getFullName());
+      Assert.assertEquals(item.getSize(), file.length());
+      Assert.assertEquals(item.getContentModifiedTime(), file.lastModified());
+      Assert.assertNull(item.describeContentMismatch(file));
+    }
+
+    // the checked out workspace is up to date, with or without file points
+    Collection<StarTeamFilePoint> historic = changeSet.getFilePointsToRemember();
+    Assert.assertFalse(computeChangeSet(repository, historic).hasChanges());
+    Assert.assertFalse(computeChangeSet(repository, null).hasChanges());
+
+    repository.commit(5, 2, 1);
+    changeSet = computeChangeSet(repository, historic);
+    Assert.assertTrue(changeSet.getFilesToCheckout().size() >= 3);
+    Assert.assertTrue(changeSet.getFilesToCheckout().size() <= 7);
+    Assert.assertEquals(1, changeSet.getFilesToRemove().size());
+    checkOut(repository, changeSet, filePoints);
+    Assert.assertFalse(computeChangeSet(repository, changeSet.getFilePointsToRemember()).hasChanges());
+  }
+
+  @Test
+  public void pollStopsAtTheViewWithoutTheWorkspace() throws IOException, StarTeamSCMException {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(4, 10, 300);
+    Collection<StarTeamFilePoint> historic = computeChangeSet(repository, null).getFilePointsToRemember();
+    FileUtils.deleteDirectory(workFolder);
+
+    // nothing is checked out, but the view has the revisions of the file points
+    Assert.assertFalse(pollChanges(repository, historic));
+    Assert.assertTrue(pollChanges(repository, null));
+    Assert.assertFalse(workFolder.exists());
+
+    long calls = repository.getCalls();
+    repository.commit(1, 0, 0);
+    Assert.assertTrue(pollChanges(repository, historic));
+    // opening and listing the view, but no user lookups
+    Assert.assertEquals(calls + 5, repository.getCalls());
+
+    historic = computeChangeSet(repository, null).getFilePointsToRemember();
+    Assert.assertFalse(pollChanges(repository, historic));
+    repository.commit(0, 0, 1);
+    Assert.assertTrue(pollChanges(repository, historic));
+  }
+
+  @Test
+  public void partitionsCheckOutTheListedRevisions() throws IOException, StarTeamSCMException {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(5, 10, 1200);
+    repository.setAverageFileSize(50);
+    StarTeamChangeSet changeSet = computeChangeSet(repository, null);
+    // committed to after the listing, before the partitions list the view
+    repository.commit(300, 0, 0);
+
+    StarTeamConnection connection = connect(repository);
+    connection.setCheckoutThreads(2);
+    try {
+      connection.checkOut(changeSet, workFolder, logger,
+          new FilePath(new File(parent, StarTeamConnection.FILE_POINT_FILENAME)));
+    } finally {
+      connection.close();
+    }
+    for (StarTeamItem item : changeSet.getFilesToCheckout()) {
+      Assert.assertNull(item.describeContentMismatch(new File(item.getFullName())));
+    }
+    Assert.assertTrue(computeChangeSet(repository, changeSet.getFilePointsToRemember()).hasChanges());
+  }
+
+  @Test
+  public void aReportThatCannotBeStoredDoesNotFailTheCheckout() throws IOException, StarTeamSCMException {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(6, 2, 20);
+    // a folder where the report goes
+    Assert.assertTrue(new File(parent, StarTeamCheckoutStats.REPORT_FILENAME).mkdirs());
+    File filePoints = new File(parent, StarTeamConnection.FILE_POINT_FILENAME);
+    checkOut(repository, computeChangeSet(repository, null), new FilePath(filePoints));
+    Assert.assertTrue(filePoints.isFile());
+  }
+
+  @Test
+  public void callsWaitForLatencyAndBandwidth() throws StarTeamSCMException {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(1, 1, 1000);
+    repository.setLatency(20, TimeUnit.MILLISECONDS);
+    repository.setBytesPerSecond(1000 * SimulatedStarTeamRepository.LISTING_BYTES_PER_FILE);
+    long start = System.nanoTime();
+    StarTeamRepository.Snapshot snapshot = repository.open("project", "view", "folder", null, -1,
+        new StarTeamPhaseTimings());
+    snapshot.listFiles(workFolder);
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    // five calls and one second of listing
+    Assert.assertTrue(millis + " ms", millis >= 1100);
+    Assert.assertEquals(5, repository.getCalls());
+    Assert.assertEquals(1000 * SimulatedStarTeamRepository.LISTING_BYTES_PER_FILE, repository.getBytesTransferred());
+  }
+
+  private List<String> describe(SimulatedStarTeamRepository repository, StarTeamViewSelector selector)
+      throws StarTeamSCMException {
+    StarTeamRepository.Snapshot snapshot = repository.open("project", "view", "folder", selector, 1,
+        new StarTeamPhaseTimings());
+    List<String> result = new ArrayList<String>();
+    for (StarTeamItem item : snapshot.listFiles(workFolder)) {
+      result.add(item.getFullName() + " " + item.getRevisionNumber() + " " + item.getModifiedBy() + " "
+          + item.getSize());
+    }
+    snapshot.close();
+    return result;
+  }
+
+  private StarTeamChangeSet computeChangeSet(SimulatedStarTeamRepository repository,
+                                             Collection<StarTeamFilePoint> historic)
+      throws IOException, StarTeamSCMException {
+    StarTeamConnection connection = connect(repository);
+    try {
+      return connection.computeChangeSet(workFolder, historic, logger);
+    } finally {
+      connection.close();
+    }
+  }
+
+  private boolean pollChanges(SimulatedStarTeamRepository repository, Collection<StarTeamFilePoint> historic)
+      throws StarTeamSCMException {
+    StarTeamConnection connection = connect(repository);
+    try {
+      return connection.pollChanges(workFolder, historic, logger);
+    } finally {
+      connection.close();
+    }
+  }
+
+  private void checkOut(SimulatedStarTeamRepository repository, StarTeamChangeSet changeSet, FilePath filePoints)
+      throws IOException, StarTeamSCMException {
+    StarTeamConnection connection = connect(repository);
+    try {
+      connection.checkOut(changeSet, workFolder, logger, filePoints);
+    } finally {
+      connection.close();
+    }
+  }
+
+  private StarTeamConnection connect(SimulatedStarTeamRepository repository) throws StarTeamSCMException {
+    StarTeamConnection connection = new StarTeamConnection("simulator", 1, "user", "password", "project", "view",
+        "folder", null);
+    connection.setRepository(repository);
+    connection.initialize(-1);
+    return connection;
+  }
+}
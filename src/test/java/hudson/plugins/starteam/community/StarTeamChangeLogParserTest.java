@@ -4,13 +4,16 @@ import hudson.model.AbstractBuild;
 import hudson.scm.ChangeLogSet;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.GregorianCalendar;
 import java.util.Iterator;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -105,5 +108,58 @@ public class StarTeamChangeLogParserTest {
 		Assert.assertEquals(3, entry.getRevisionNumber() ) ;
 		Assert.assertFalse(it.hasNext());
 	}
-	
+
+	@Test
+	public void parserReadsWhatWriterWrites() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		StarTeamChangeLogWriter writer = new StarTeamChangeLogWriter(os);
+		writer.write(new StarTeamChangeLogEntry("a&b.txt", 3, new GregorianCalendar(2010, 6, 13, 22, 0, 12).getTime(),
+				"JRuzicka", "fix <b>", "change"));
+		writer.write(new StarTeamChangeLogEntry("c.txt", 4, new GregorianCalendar(2010, 6, 14, 8, 0, 0).getTime(),
+				new String("JRuzicka"), "", new String("change")));
+		writer.close();
+
+		List<StarTeamChangeLogEntry> entries = StarTeamChangeLogParser.parse(null,
+				new ByteArrayInputStream(os.toByteArray())).getHistory();
+		Assert.assertEquals(2, entries.size());
+		StarTeamChangeLogEntry first = entries.get(0);
+		Assert.assertEquals("a&b.txt", first.getFileName());
+		Assert.assertEquals("fix <b>", first.getMsg());
+		Assert.assertEquals(new GregorianCalendar(2010, 6, 13, 22, 0, 12).getTime(), first.getDate());
+		StarTeamChangeLogEntry second = entries.get(1);
+		Assert.assertEquals(4, second.getRevisionNumber());
+		Assert.assertEquals("", second.getMsg());
+		Assert.assertSame(first.getUsername(), second.getUsername());
+		Assert.assertSame(first.getChangeType(), second.getChangeType());
+	}
+
+	@Test
+	public void testParseStrayText() throws IOException {
+		// text outside of the fields, which XMLStreamReader.nextTag() refuses
+		String contents =
+				"<?xml version='1.0' encoding='UTF-8'?>\n" +
+				"<changelog>stray\n" +
+				"	<entry>\n" +
+				"		<fileName>config_file.ini</fileName> stray\n" +
+				"		<revisionNumber>3</revisionNumber>\n" +
+				"		<user>JRuzicka</user>\n" +
+				"	</entry> stray\n" +
+				"</changelog>\n";
+		List<StarTeamChangeLogEntry> entries = StarTeamChangeLogParser.parse(null,
+				new ByteArrayInputStream(contents.getBytes("UTF-8"))).getHistory();
+		Assert.assertEquals(1, entries.size());
+		Assert.assertEquals("config_file.ini", entries.get(0).getFileName());
+		Assert.assertEquals(3, entries.get(0).getRevisionNumber());
+		Assert.assertEquals("JRuzicka", entries.get(0).getUsername());
+	}
+
+	@Test(expected = IOException.class)
+	public void testParseTruncated() throws IOException {
+		String contents =
+				"<?xml version='1.0' encoding='UTF-8'?>\n" +
+				"<changelog>\n" +
+				"	<entry>\n" +
+				"		<fileName>config_file.ini</fileName>\n";
+		StarTeamChangeLogParser.parse(null, new ByteArrayInputStream(contents.getBytes("UTF-8")));
+	}
 }
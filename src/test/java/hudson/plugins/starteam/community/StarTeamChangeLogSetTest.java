@@ -0,0 +1,62 @@
+package hudson.plugins.starteam.community;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class StarTeamChangeLogSetTest {
+
+  @Test
+  public void entriesSurviveCompaction() {
+    List<StarTeamChangeLogEntry> logs = new ArrayList<StarTeamChangeLogEntry>();
+    logs.add(new StarTeamChangeLogEntry("a.txt", 3, new Date(1000L), "alice", "first", "change"));
+    logs.add(new StarTeamChangeLogEntry("b.txt", 4, null, new String("alice"), null, "added"));
+    StarTeamChangeLogSet set = new StarTeamChangeLogSet(null, logs);
+
+    Assert.assertFalse(set.isEmptySet());
+    Assert.assertEquals(2, set.getSize());
+    StarTeamChangeLogEntry first = set.getHistory().get(0);
+    Assert.assertEquals("a.txt", first.getFileName());
+    Assert.assertEquals(3, first.getRevisionNumber());
+    Assert.assertEquals(new Date(1000L), first.getDate());
+    Assert.assertEquals("first", first.getMsg());
+    Assert.assertEquals("change", first.getChangeType());
+    Assert.assertSame(set, first.getParent());
+    StarTeamChangeLogEntry second = set.getHistory().get(1);
+    Assert.assertNull(second.getDate());
+    Assert.assertEquals("", second.getMsg());
+    Assert.assertSame(first.getUsername(), second.getUsername());
+  }
+
+  @Test
+  public void pagesAreClipped() {
+    List<StarTeamChangeLogEntry> logs = new ArrayList<StarTeamChangeLogEntry>();
+    for (int i = 0; i < StarTeamChangeLogSet.PAGE_SIZE + 10; i++) {
+      logs.add(new StarTeamChangeLogEntry("file" + i, i, new Date(), "user", "msg", "change"));
+    }
+    StarTeamChangeLogSet set = new StarTeamChangeLogSet(null, logs);
+
+    Assert.assertEquals(StarTeamChangeLogSet.DIGEST_SIZE, set.getPage(0, set.getDigestSize()).size());
+    List<StarTeamChangeLogEntry> last = set.getPage(StarTeamChangeLogSet.PAGE_SIZE, set.getPageSize());
+    Assert.assertEquals(10, last.size());
+    Assert.assertEquals("file" + StarTeamChangeLogSet.PAGE_SIZE, last.get(0).getFileName());
+    Assert.assertTrue(set.getPage(10000, 5).isEmpty());
+
+    Assert.assertEquals(0, set.getPageStart(null));
+    Assert.assertEquals(0, set.getPageStart("junk"));
+    Assert.assertEquals(0, set.getPageStart("499"));
+    Assert.assertEquals(StarTeamChangeLogSet.PAGE_SIZE, set.getPageStart("505"));
+    Assert.assertEquals(StarTeamChangeLogSet.PAGE_SIZE, set.getPageStart("100000"));
+  }
+
+  @Test
+  public void emptySet() {
+    StarTeamChangeLogSet set = new StarTeamChangeLogSet(null, new ArrayList<StarTeamChangeLogEntry>());
+    Assert.assertTrue(set.isEmptySet());
+    Assert.assertFalse(set.iterator().hasNext());
+    Assert.assertEquals(0, set.getPageStart("3"));
+  }
+}
@@ -0,0 +1,50 @@
+package hudson.plugins.starteam.community;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.GregorianCalendar;
+
+public class StarTeamChangeLogWriterTest {
+
+  @Test
+  public void writesEscapedEntries() throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    StarTeamChangeLogWriter writer = new StarTeamChangeLogWriter(os);
+    writer.write(new StarTeamChangeLogEntry("a&b.txt", 3, new GregorianCalendar(2010, 6, 13, 22, 0, 12).getTime(),
+        "JRuzicka", "fix <b> été", "change"));
+    writer.close();
+
+    Assert.assertEquals(1, writer.getCount());
+    Assert.assertEquals("<?xml version='1.0' encoding='UTF-8'?>\n" +
+        "<changelog>\n" +
+        "\t<entry>\n" +
+        "\t\t<fileName>a&amp;b.txt</fileName>\n" +
+        "\t\t<revisionNumber>3</revisionNumber>\n" +
+        "\t\t<date>2010-07-13 22:00:12</date>\n" +
+        "\t\t<message>fix &lt;b&gt; été</message>\n" +
+        "\t\t<user>JRuzicka</user>\n" +
+        "\t\t<changeType>change</changeType>\n" +
+        "\t</entry>\n" +
+        "</changelog>\n", new String(os.toByteArray(), "UTF-8"));
+  }
+
+  @Test
+  public void changeSetStreamsToWriter() throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    StarTeamChangeLogWriter writer = new StarTeamChangeLogWriter(os);
+    StarTeamChangeSet changeSet = new StarTeamChangeSet();
+    changeSet.setChangeLogWriter(writer);
+    for (int i = 0; i < 1000; i++) {
+      changeSet.addChange(new StarTeamChangeLogEntry("file" + i, i, new java.util.Date(), "user", "msg", "added"));
+    }
+    writer.close();
+
+    Assert.assertTrue(changeSet.hasChanges());
+    Assert.assertEquals(1000, changeSet.getChangeCount());
+    Assert.assertTrue(changeSet.getChanges().isEmpty());
+    Assert.assertEquals(1000, writer.getCount());
+  }
+}
@@ -0,0 +1,58 @@
+package hudson.plugins.starteam.community;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class StarTeamCheckoutStatsTest {
+
+  @Test
+  public void bucketsKeepValuesWithinThreePercent() {
+    long[] values = {0, 1, 31, 63, 64, 65, 1000, 123456789L, Long.MAX_VALUE / 3};
+    for (long value : values) {
+      long highest = StarTeamCheckoutStats.highestValue(StarTeamCheckoutStats.bucket(value));
+      Assert.assertTrue(value + " <= " + highest, value <= highest);
+      Assert.assertTrue(value + " ~ " + highest, highest - value <= value / 32);
+    }
+  }
+
+  @Test
+  public void percentilesAndSlowestFiles() {
+    StarTeamCheckoutStats stats = new StarTeamCheckoutStats(100);
+    for (int i = 1; i <= 100; i++) {
+      stats.fileDone(new File("f" + i), 10, i * 1000000L);
+    }
+    stats.error();
+    Assert.assertEquals(100, stats.getFiles());
+    Assert.assertEquals(1000, stats.getBytes());
+    Assert.assertEquals(1, stats.getErrors());
+    Assert.assertEquals(50, stats.getLatency(0.5) / 1000000.0, 50 / 32.0);
+    Assert.assertEquals(95, stats.getLatency(0.95) / 1000000.0, 95 / 32.0);
+    Assert.assertEquals(100000000L, stats.getLatency(1.0));
+  }
+
+  @Test
+  public void mergesPartitionsIntoOneReport() throws IOException {
+    StarTeamCheckoutStats first = new StarTeamCheckoutStats(30);
+    StarTeamCheckoutStats second = new StarTeamCheckoutStats(0);
+    for (int i = 0; i < 15; i++) {
+      first.fileDone(new File("a" + i), 1, i);
+      second.fileDone(new File("b\"" + i), 2, 1000 + i);
+    }
+    first.merge(second);
+    Assert.assertEquals(30, first.getFiles());
+    Assert.assertEquals(45, first.getBytes());
+
+    StringWriter json = new StringWriter();
+    first.writeJson(json);
+    String report = json.toString();
+    Assert.assertTrue(report, report.contains("\"expectedFiles\": 30,"));
+    Assert.assertTrue(report, report.contains("\"partitions\": 2,"));
+    // the slowest files all come from the second partition, slowest first
+    Assert.assertTrue(report, report.contains("[\n    {\"file\": \"b\\\"14\""));
+    Assert.assertFalse(report, report.contains("\"a"));
+  }
+}
@@ -114,6 +114,13 @@ public class StarTeamConnectionTest {
 		new StarTeamConnection("", 1, "", "", "", "", null, null);
 	}
 
+	@Test(expected = IllegalStateException.class)
+	public void viewConnectionHasNoFolder() throws StarTeamSCMException {
+		StarTeamConnection connection = new StarTeamConnection("host", 1234, null, -1, "user", "passwd", "project", "view");
+		assertThat(connection, is(not(new StarTeamConnection("host", 1234, "user", "passwd", "project", "view", "view", null))));
+		connection.initialize(-1);
+	}
+
 	@Test
 	public void serialization() throws Exception {
 		StarTeamConnection originalConnection = new StarTeamConnection("host", 1234, "user", "passwd", "project", "view", "folder", null);
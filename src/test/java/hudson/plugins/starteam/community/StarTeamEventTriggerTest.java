@@ -0,0 +1,180 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class StarTeamEventTriggerTest {
+
+  private final PrintStream logger = new PrintStream(new NullOutputStream());
+
+  private final List<FakeEventSource> sources = new ArrayList<FakeEventSource>();
+
+  private boolean refuse;
+
+  private final StarTeamEventSource.Factory factory = new StarTeamEventSource.Factory() {
+    public StarTeamEventSource open(StarTeamEventTrigger.Key key, StarTeamEventSource.Listener listener)
+        throws StarTeamSCMException {
+      if (refuse) {
+        throw new StarTeamSCMException("MPX is not available");
+      }
+      FakeEventSource source = new FakeEventSource(listener);
+      sources.add(source);
+      return source;
+    }
+  };
+
+  @Test
+  public void eventsScheduleTheJobsWhoseFolderHasTheItem() {
+    StarTeamEventTrigger trigger = new StarTeamEventTrigger(true, factory, TimeUnit.HOURS.toMillis(1), 0);
+    FakeJob root = new FakeJob("root");
+    FakeJob src = new FakeJob("src");
+    FakeJob docs = new FakeJob("docs");
+    trigger.skipPoll(key("view"), "View", null, root, logger);
+    trigger.skipPoll(key("view"), "View/src", null, src, logger);
+    trigger.skipPoll(key("view"), "View\\docs", null, docs, logger);
+    Assert.assertEquals(1, sources.size());
+
+    fire(StarTeamEventSource.Kind.MODIFIED, "View\\src\\Main.java");
+    Assert.assertEquals(1, root.scheduled);
+    Assert.assertEquals(1, src.scheduled);
+    Assert.assertEquals(0, docs.scheduled);
+    Assert.assertEquals("MODIFIED", src.cause.getKind());
+
+    // a folder the job's folder is in
+    fire(StarTeamEventSource.Kind.MOVED, "view\\");
+    Assert.assertEquals(2, root.scheduled);
+    Assert.assertEquals(2, src.scheduled);
+    Assert.assertEquals(1, docs.scheduled);
+
+    // a sibling with the same prefix is not in the folder
+    fire(StarTeamEventSource.Kind.ADDED, "View\\srcgen\\Gen.java");
+    Assert.assertEquals(2, src.scheduled);
+    Assert.assertEquals(3, root.scheduled);
+    Assert.assertEquals(6, trigger.getScheduled());
+  }
+
+  @Test
+  public void pollsListOnlyAsASafetyNetWhileEventsAreDelivered() {
+    StarTeamEventTrigger trigger = new StarTeamEventTrigger(true, factory, TimeUnit.HOURS.toMillis(1), 0);
+    FakeJob job = new FakeJob("job");
+    Assert.assertFalse("the first poll lists", trigger.skipPoll(key("view"), "View", null, job, logger));
+    Assert.assertTrue(trigger.skipPoll(key("view"), "View", null, job, logger));
+
+    sources.get(0).alive = false;
+    Assert.assertFalse("lost events, the poll lists", trigger.skipPoll(key("view"), "View", null, job, logger));
+    Assert.assertEquals(2, sources.size());
+    Assert.assertTrue(sources.get(0).closed);
+    Assert.assertTrue(trigger.skipPoll(key("view"), "View", null, job, logger));
+
+    StarTeamEventTrigger due = new StarTeamEventTrigger(true, factory, 0, 0);
+    Assert.assertFalse(due.skipPoll(key("view"), "View", null, job, logger));
+    Assert.assertFalse("the safety net is due", due.skipPoll(key("view"), "View", null, job, logger));
+  }
+
+  @Test
+  public void pollsListWithoutEvents() throws Exception {
+    StarTeamEventTrigger disabled = new StarTeamEventTrigger(false, factory, TimeUnit.HOURS.toMillis(1), 0);
+    FakeJob job = new FakeJob("job");
+    Assert.assertFalse(disabled.skipPoll(key("view"), "View", null, job, logger));
+    Assert.assertFalse(disabled.skipPoll(key("view"), "View", null, job, logger));
+    Assert.assertEquals(0, disabled.size());
+
+    StarTeamEventTrigger trigger = new StarTeamEventTrigger(true, factory, TimeUnit.HOURS.toMillis(1), 0);
+    StarTeamViewSelector label = new StarTeamViewSelector("label", "LABEL");
+    Assert.assertFalse(trigger.skipPoll(key("view"), "View", label, job, logger));
+    Assert.assertFalse(trigger.skipPoll(key("view"), "View", label, job, logger));
+    Assert.assertEquals(0, sources.size());
+
+    refuse = true;
+    Assert.assertFalse(trigger.skipPoll(key("view"), "View", null, job, logger));
+    Assert.assertFalse(trigger.skipPoll(key("view"), "View", null, job, logger));
+    Assert.assertEquals(0, sources.size());
+  }
+
+  @Test
+  public void burstsAndJobsThatAreGoneDoNotSchedule() {
+    StarTeamEventTrigger trigger = new StarTeamEventTrigger(true, factory, TimeUnit.HOURS.toMillis(1), 60);
+    FakeJob job = new FakeJob("job");
+    FakeJob gone = new FakeJob("gone");
+    trigger.skipPoll(key("view"), "View", null, job, logger);
+    trigger.skipPoll(key("view"), "View", null, gone, logger);
+    for (int i = 0; i < 100; i++) {
+      fire(StarTeamEventSource.Kind.ADDED, "View\\file" + i + ".txt");
+    }
+    Assert.assertEquals(1, job.scheduled);
+    Assert.assertEquals(1, gone.scheduled);
+
+    // the job moves to another view, the other one is deleted
+    trigger.skipPoll(key("other view"), "View", null, job, logger);
+    gone.current = false;
+    fire(StarTeamEventSource.Kind.DELETED, "View\\file0.txt");
+    Assert.assertEquals(1, gone.scheduled);
+    Assert.assertTrue(sources.get(0).closed);
+    Assert.assertEquals(1, trigger.size());
+
+    trigger.closeAll();
+    Assert.assertTrue(sources.get(1).closed);
+    Assert.assertEquals(0, trigger.size());
+  }
+
+  private void fire(StarTeamEventSource.Kind kind, String path) {
+    for (FakeEventSource source : sources) {
+      if (!source.closed) {
+        source.listener.itemChanged(kind, path);
+      }
+    }
+  }
+
+  private static StarTeamEventTrigger.Key key(String view) {
+    return new StarTeamEventTrigger.Key("host", 49201, null, -1, "user", "password", "project", view);
+  }
+
+  private static final class FakeEventSource implements StarTeamEventSource {
+    private final Listener listener;
+    private boolean alive = true;
+    private boolean closed;
+
+    FakeEventSource(Listener listener) {
+      this.listener = listener;
+    }
+
+    public boolean isAlive() {
+      return alive;
+    }
+
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private static final class FakeJob implements StarTeamEventTrigger.Job {
+    private final String name;
+    private boolean current = true;
+    private int scheduled;
+    private StarTeamEventCause cause;
+
+    FakeJob(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isCurrent() {
+      return current;
+    }
+
+    public boolean schedule(int quietSeconds, StarTeamEventCause cause) {
+      scheduled++;
+      this.cause = cause;
+      return true;
+    }
+  }
+}
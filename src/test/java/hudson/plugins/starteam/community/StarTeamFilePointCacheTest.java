@@ -0,0 +1,176 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class StarTeamFilePointCacheTest {
+
+  private File buildsDir;
+  private File workspace;
+  private ByteArrayOutputStream log;
+
+  @Before
+  public void setUp() throws IOException {
+    buildsDir = File.createTempFile("builds", "");
+    buildsDir.delete();
+    buildsDir.mkdirs();
+    workspace = new File(buildsDir, "workspace");
+    log = new ByteArrayOutputStream();
+    StarTeamFilePointCache.clearMemory();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    StarTeamFilePointCache.clearMemory();
+    FileUtils.deleteDirectory(buildsDir);
+  }
+
+  @Test
+  public void streamsOnceThenReadsFromDisk() throws Exception {
+    List<StarTeamFilePoint> first = points(0);
+    List<StarTeamFilePoint> second = points(1);
+    storeFull(1, first);
+    storeDelta(2, StarTeamFilePointDelta.compute(1, 1, first, second));
+
+    StarTeamFilePointReference reference = reference(2);
+    Assert.assertEquals(2, reference.getBuildNumber());
+    Assert.assertEquals(1, reference.getDepth());
+
+    assertSamePoints(second, load(reference));
+    Assert.assertTrue(log.toString(), log.toString().contains("streamed"));
+
+    StarTeamFilePointCache.clearMemory();
+    log.reset();
+    assertSamePoints(second, load(reference));
+    Assert.assertFalse(log.toString(), log.toString().contains("streamed"));
+
+    log.reset();
+    load(reference);
+    Assert.assertTrue(log.toString(), log.toString().contains("found in memory"));
+  }
+
+  @Test
+  public void streamsOnlyDeltasAfterTheCachedBuild() throws Exception {
+    List<StarTeamFilePoint> first = points(0);
+    List<StarTeamFilePoint> second = points(1);
+    storeFull(1, first);
+    load(reference(1));
+
+    storeDelta(2, StarTeamFilePointDelta.compute(1, 1, first, second));
+    StarTeamFilePointCache.clearMemory();
+    log.reset();
+    assertSamePoints(second, load(reference(2)));
+    Assert.assertTrue(log.toString(), log.toString().contains("cached as of build #1"));
+  }
+
+  @Test
+  public void storedBuildIsFoundWithoutStreaming() throws Exception {
+    List<StarTeamFilePoint> first = points(0);
+    List<StarTeamFilePoint> second = points(1);
+    storeFull(1, first);
+    StarTeamFilePointDelta delta = StarTeamFilePointDelta.compute(1, 1, first, second);
+    storeDelta(2, delta);
+
+    // what a checkout does after storing the delta of build 2
+    String digest = StarTeamFilePointReference.chain(reference(1).getDigest(), md5(2));
+    new StarTeamFilePointCache(workspace).store("job", 2, digest, second);
+    StarTeamFilePointCache.clearMemory();
+
+    assertSamePoints(second, load(reference(2)));
+    Assert.assertFalse(log.toString(), log.toString().contains("streamed"));
+  }
+
+  @Test
+  public void changedFilePointsChangeTheDigest() throws Exception {
+    storeFull(1, points(0));
+    String digest = reference(1).getDigest();
+    Assert.assertEquals(digest, reference(1).getDigest());
+    storeFull(1, points(1).subList(0, 10));
+    Assert.assertFalse(digest.equals(reference(1).getDigest()));
+  }
+
+  @Test
+  public void keepsTheNewestBuilds() throws Exception {
+    StarTeamFilePointCache cache = new StarTeamFilePointCache(workspace);
+    for (int build = 1; build <= 5; build++) {
+      cache.store("job", build, "d" + build, points(build));
+    }
+    File folder = new File(workspace.getPath() + StarTeamFilePointCache.CACHE_SUFFIX);
+    List<Integer> builds = new ArrayList<Integer>();
+    for (String name : folder.list()) {
+      builds.add(StarTeamFilePointCache.buildNumberOf(name));
+    }
+    Assert.assertEquals(3, builds.size());
+    Assert.assertFalse(builds.contains(2));
+    Assert.assertTrue(builds.contains(5));
+  }
+
+  private Collection<StarTeamFilePoint> load(StarTeamFilePointReference reference) throws Exception {
+    return new StarTeamFilePointCache(workspace).load(reference, new PrintStream(log, true));
+  }
+
+  private StarTeamFilePointReference reference(int build) throws IOException {
+    return StarTeamFilePointReference.create("job", build, new File(buildsDir, Integer.toString(build)));
+  }
+
+  private String md5(int build) throws IOException {
+    return StarTeamFilePointReference.toHex(StarTeamFilePointReference.md5().digest(
+        FileUtils.readFileToByteArray(buildFile(build, StarTeamConnection.FILE_POINT_DELTA_FILENAME))));
+  }
+
+  private static List<StarTeamFilePoint> points(int generation) {
+    List<StarTeamFilePoint> points = new ArrayList<StarTeamFilePoint>();
+    for (int i = generation; i < 20 + generation; i++) {
+      points.add(new StarTeamFilePoint("/work/file" + i + ".txt", 1 + (i % 3 == 0 ? generation : 0), 1000L * i));
+    }
+    return points;
+  }
+
+  private void storeFull(int build, Collection<StarTeamFilePoint> points) throws IOException {
+    OutputStream os = new FileOutputStream(buildFile(build, StarTeamConnection.FILE_POINT_FILENAME));
+    try {
+      StarTeamFilePointFunctions.storeCollection(os, points);
+    } finally {
+      os.close();
+    }
+  }
+
+  private void storeDelta(int build, StarTeamFilePointDelta delta) throws IOException {
+    OutputStream os = new FileOutputStream(buildFile(build, StarTeamConnection.FILE_POINT_DELTA_FILENAME));
+    try {
+      delta.write(os);
+    } finally {
+      os.close();
+    }
+  }
+
+  private File buildFile(int build, String name) {
+    File dir = new File(buildsDir, Integer.toString(build));
+    dir.mkdirs();
+    return new File(dir, name);
+  }
+
+  private static void assertSamePoints(Collection<StarTeamFilePoint> expected, Collection<StarTeamFilePoint> actual) {
+    List<StarTeamFilePoint> sorted = StarTeamFilePointDiff.sorted(expected);
+    List<StarTeamFilePoint> loaded = new ArrayList<StarTeamFilePoint>(actual);
+    Assert.assertEquals(sorted.size(), loaded.size());
+    for (int i = 0; i < sorted.size(); i++) {
+      Assert.assertEquals(sorted.get(i).getFullfilepath(), loaded.get(i).getFullfilepath());
+      Assert.assertEquals(sorted.get(i).getRevisionNumber(), loaded.get(i).getRevisionNumber());
+      Assert.assertEquals(sorted.get(i).getLastModifyDate(), loaded.get(i).getLastModifyDate());
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StarTeamFilePointDeltaTest {
+
+  private File buildsDir;
+
+  @Before
+  public void setUp() throws IOException {
+    buildsDir = File.createTempFile("builds", "");
+    buildsDir.delete();
+    buildsDir.mkdirs();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(buildsDir);
+  }
+
+  @Test
+  public void computeAndApply() throws IOException {
+    List<StarTeamFilePoint> historic = new ArrayList<StarTeamFilePoint>();
+    historic.add(new StarTeamFilePoint("/work/a.txt", 1, 10L));
+    historic.add(new StarTeamFilePoint("/work/b.txt", 1, 10L));
+    historic.add(new StarTeamFilePoint("/work/c.txt", 1, 10L));
+    List<StarTeamFilePoint> current = new ArrayList<StarTeamFilePoint>();
+    current.add(new StarTeamFilePoint("/work/a.txt", 1, 10L));
+    current.add(new StarTeamFilePoint("/work/b.txt", 2, 20L));
+    current.add(new StarTeamFilePoint("/work/d.txt", 1, 30L));
+
+    StarTeamFilePointDelta delta = StarTeamFilePointDelta.compute(7, 1, historic, current);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    delta.write(os);
+    delta = StarTeamFilePointDelta.read(new ByteArrayInputStream(os.toByteArray()));
+
+    Assert.assertEquals(7, delta.getBaseBuildNumber());
+    Assert.assertEquals(1, delta.getDepth());
+    Assert.assertEquals(2, delta.getChanged().size());
+    Assert.assertEquals(1, delta.getRemoved().size());
+
+    Map<StarTeamPath, StarTeamFilePoint> points = new HashMap<StarTeamPath, StarTeamFilePoint>();
+    for (StarTeamFilePoint point : historic) {
+      points.put(point.getPath(), point);
+    }
+    delta.applyTo(points);
+    assertSamePoints(current, points.values());
+  }
+
+  @Test
+  public void replaysChainOnCheckpoint() throws Exception {
+    List<StarTeamFilePoint> first = points(0);
+    List<StarTeamFilePoint> second = points(1);
+    List<StarTeamFilePoint> third = points(2);
+    storeFull(1, first);
+    storeDelta(2, StarTeamFilePointDelta.compute(1, 1, first, second));
+    storeDelta(3, StarTeamFilePointDelta.compute(2, 2, second, third));
+
+    StarTeamFilePointReference reference = reference(3);
+    Assert.assertEquals(2, reference.getDepth());
+    Assert.assertEquals(0, reference(1).getDepth());
+    Assert.assertNull(reference(4));
+    assertSamePoints(third, new StarTeamFilePointCache(new File(buildsDir, "workspace")).load(reference,
+        new PrintStream(new NullOutputStream())));
+  }
+
+  @Test
+  public void rebuildsRevisionStateFromChain() throws Exception {
+    List<StarTeamFilePoint> first = points(0);
+    List<StarTeamFilePoint> second = points(1);
+    storeFull(1, first);
+    storeDelta(2, StarTeamFilePointDelta.compute(1, 1, first, second));
+
+    assertSamePoints(second, reference(2).read());
+    StarTeamRevisionState state = StarTeamRevisionState.ofStoredFilePoints(2, new File(buildsDir, "2"), "/work");
+    Assert.assertEquals(StarTeamRevisionState.ofFilePoints(second, "/work/", 1000L), state);
+    Assert.assertEquals(-1L, state.getServerTime());
+    Assert.assertNull(StarTeamRevisionState.ofStoredFilePoints(3, new File(buildsDir, "3"), "/work"));
+
+    // checked out on a Windows agent
+    List<StarTeamFilePoint> windows = new ArrayList<StarTeamFilePoint>();
+    for (StarTeamFilePoint point : second) {
+      windows.add(new StarTeamFilePoint("C:" + point.getFullfilepath().replace('/', '\\'), point.getRevisionNumber(),
+          1000L));
+    }
+    StarTeamRevisionState onWindows = StarTeamRevisionState.ofFilePoints(windows, "C:\\work", -1);
+    Assert.assertEquals(state, onWindows);
+    Assert.assertEquals(state.getPaths(), onWindows.getPaths());
+  }
+
+  @Test(expected = IOException.class)
+  public void depthsOutOfOrderAreCorrupt() throws IOException {
+    List<StarTeamFilePoint> first = points(0);
+    List<StarTeamFilePoint> second = points(1);
+    List<StarTeamFilePoint> third = points(2);
+    storeFull(1, first);
+    storeDelta(2, StarTeamFilePointDelta.compute(1, 2, first, second));
+    storeDelta(3, StarTeamFilePointDelta.compute(2, 2, second, third));
+    reference(3);
+  }
+
+  @Test
+  public void brokenChainLoadsNothing() throws IOException {
+    List<StarTeamFilePoint> first = points(0);
+    List<StarTeamFilePoint> second = points(1);
+    storeDelta(2, StarTeamFilePointDelta.compute(1, 1, first, second));
+
+    Assert.assertNull(reference(2));
+  }
+
+  private StarTeamFilePointReference reference(int build) throws IOException {
+    return StarTeamFilePointReference.create("job", build, new File(buildsDir, Integer.toString(build)));
+  }
+
+  private static List<StarTeamFilePoint> points(int generation) {
+    List<StarTeamFilePoint> points = new ArrayList<StarTeamFilePoint>();
+    for (int i = generation; i < 20 + generation; i++) {
+      points.add(new StarTeamFilePoint("/work/file" + i + ".txt", 1 + (i % 3 == 0 ? generation : 0), 1000L * i));
+    }
+    return points;
+  }
+
+  private void storeFull(int build, Collection<StarTeamFilePoint> points) throws IOException {
+    OutputStream os = new FileOutputStream(buildFile(build, StarTeamConnection.FILE_POINT_FILENAME));
+    try {
+      StarTeamFilePointFunctions.storeCollection(os, points);
+    } finally {
+      os.close();
+    }
+  }
+
+  private void storeDelta(int build, StarTeamFilePointDelta delta) throws IOException {
+    OutputStream os = new FileOutputStream(buildFile(build, StarTeamConnection.FILE_POINT_DELTA_FILENAME));
+    try {
+      delta.write(os);
+    } finally {
+      os.close();
+    }
+  }
+
+  private File buildFile(int build, String name) {
+    File dir = new File(buildsDir, Integer.toString(build));
+    dir.mkdirs();
+    return new File(dir, name);
+  }
+
+  private static void assertSamePoints(Collection<StarTeamFilePoint> expected, Collection<StarTeamFilePoint> actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+    Map<String, StarTeamFilePoint> byPath = new HashMap<String, StarTeamFilePoint>();
+    for (StarTeamFilePoint point : actual) {
+      byPath.put(point.getFullfilepath(), point);
+    }
+    for (StarTeamFilePoint point : expected) {
+      StarTeamFilePoint other = byPath.get(point.getFullfilepath());
+      Assert.assertNotNull(point.getFullfilepath(), other);
+      Assert.assertEquals(point.getRevisionNumber(), other.getRevisionNumber());
+      Assert.assertEquals(point.getLastModifyDate(), other.getLastModifyDate());
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package hudson.plugins.starteam.community;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+public class StarTeamFilePointDiffTest {
+
+  @Test
+  public void reportsEveryPathInOrder() {
+    List<StarTeamFilePoint> current = Arrays.asList(
+        point("/w/a", 1, 10), point("/w/b", 3, 10), point("/w/c", 1, 10), point("/w/d", 2, 10), point("/w/f", 1, 10));
+    List<StarTeamFilePoint> historic = Arrays.asList(
+        point("/w/b", 2, 10), point("/w/c", 2, 10), point("/w/d", 2, 10), point("/w/e", 1, 10));
+    Assert.assertEquals(Arrays.asList(
+        "added /w/a 1", "changed /w/b 3 2", "rolledBack /w/c 1 2", "sameRevision /w/d 2 2", "removed /w/e 1",
+        "added /w/f 1"), diff(current, historic));
+  }
+
+  @Test
+  public void sortsUnsortedSides() {
+    Collection<StarTeamFilePoint> current = new HashSet<StarTeamFilePoint>(Arrays.asList(
+        point("/w/z", 1, 10), point("/w/m", 2, 10), point("/w/a", 1, 10)));
+    List<StarTeamFilePoint> historic = new ArrayList<StarTeamFilePoint>(Arrays.asList(
+        point("/w/z", 1, 10), point("/w/b", 1, 10), point("/w/m", 1, 10)));
+    Assert.assertEquals(Arrays.asList(
+        "added /w/a 1", "removed /w/b 1", "changed /w/m 2 1", "sameRevision /w/z 1 1"), diff(current, historic));
+    // an unsorted list is copied, not sorted in place
+    Assert.assertEquals("/w/z", historic.get(0).getFullfilepath());
+  }
+
+  @Test
+  public void lastOfDuplicatePathsCounts() {
+    List<StarTeamFilePoint> current = Arrays.asList(point("/w/a", 1, 10), point("/w/a", 4, 10), point("/w/b", 1, 10));
+    List<StarTeamFilePoint> historic = Arrays.asList(point("/w/b", 5, 10), point("/w/b", 1, 10));
+    Assert.assertEquals(Arrays.asList("added /w/a 4", "sameRevision /w/b 1 1"), diff(current, historic));
+  }
+
+  @Test
+  public void emptySides() {
+    List<StarTeamFilePoint> none = new ArrayList<StarTeamFilePoint>();
+    List<StarTeamFilePoint> some = Arrays.asList(point("/w/a", 1, 10));
+    Assert.assertEquals(new ArrayList<String>(), diff(none, none));
+    Assert.assertEquals(Arrays.asList("added /w/a 1"), diff(some, none));
+    Assert.assertEquals(Arrays.asList("removed /w/a 1"), diff(none, some));
+  }
+
+  private static StarTeamFilePoint point(String path, int revision, long lastModified) {
+    return new StarTeamFilePoint(path, revision, lastModified);
+  }
+
+  private static List<String> diff(Collection<StarTeamFilePoint> current, Collection<StarTeamFilePoint> historic) {
+    final List<String> result = new ArrayList<String>();
+    StarTeamFilePointDiff.diff(current, historic, new StarTeamFilePointDiff.Visitor() {
+      public void added(StarTeamFilePoint current) {
+        result.add("added " + current.getFullfilepath() + " " + current.getRevisionNumber());
+      }
+
+      public void removed(StarTeamFilePoint historic) {
+        result.add("removed " + historic.getFullfilepath() + " " + historic.getRevisionNumber());
+      }
+
+      public void changed(StarTeamFilePoint current, StarTeamFilePoint historic) {
+        add("changed", current, historic);
+      }
+
+      public void rolledBack(StarTeamFilePoint current, StarTeamFilePoint historic) {
+        add("rolledBack", current, historic);
+      }
+
+      public void sameRevision(StarTeamFilePoint current, StarTeamFilePoint historic) {
+        add("sameRevision", current, historic);
+      }
+
+      private void add(String kind, StarTeamFilePoint current, StarTeamFilePoint historic) {
+        result.add(kind + " " + current.getFullfilepath() + " " + current.getRevisionNumber() + " "
+            + historic.getRevisionNumber());
+      }
+    });
+    return result;
+  }
+}
@@ -0,0 +1,143 @@
+package hudson.plugins.starteam.community;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+public class StarTeamFilePointFileTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("starteam-filepoints", ".dat");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    List<StarTeamFilePoint> points = createPoints(100);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    StarTeamFilePointFunctions.storeCollection(os, points);
+
+    Collection<StarTeamFilePoint> loaded = StarTeamFilePointFile.read(new ByteArrayInputStream(os.toByteArray()));
+
+    Assert.assertEquals(points.size(), loaded.size());
+    Iterator<StarTeamFilePoint> it = loaded.iterator();
+    for (StarTeamFilePoint expected : points) {
+      StarTeamFilePoint actual = it.next();
+      Assert.assertEquals(expected.getFullfilepath(), actual.getFullfilepath());
+      Assert.assertEquals(expected.getRevisionNumber(), actual.getRevisionNumber());
+      Assert.assertEquals(expected.getLastModifyDate(), actual.getLastModifyDate());
+    }
+  }
+
+  @Test
+  public void iteratesInPathOrder() throws IOException {
+    List<StarTeamFilePoint> points = new ArrayList<StarTeamFilePoint>();
+    points.add(new StarTeamFilePoint("/work/b.txt", 2, 20L));
+    points.add(new StarTeamFilePoint("/work/a, with comma.txt", 1, 10L));
+    points.add(new StarTeamFilePoint("/work/été.txt", 3, 30L));
+    store(points);
+
+    Iterator<StarTeamFilePoint> it = StarTeamFilePointFunctions.loadCollection(file).iterator();
+    Assert.assertEquals("/work/a, with comma.txt", it.next().getFullfilepath());
+    Assert.assertEquals("/work/b.txt", it.next().getFullfilepath());
+    Assert.assertEquals("/work/été.txt", it.next().getFullfilepath());
+    Assert.assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void emptyCollection() throws IOException {
+    store(new ArrayList<StarTeamFilePoint>());
+
+    Assert.assertEquals(0, StarTeamFilePointFunctions.loadCollection(file).size());
+  }
+
+  @Test
+  public void readsVersion1Files() throws IOException {
+    // sorted by plain string order, so "a-b" comes before the folder "a"
+    DataOutputStream data = new DataOutputStream(new FileOutputStream(file));
+    data.writeInt(StarTeamFilePointFile.MAGIC);
+    data.writeInt(1);
+    data.writeInt(2);
+    data.writeInt(StarTeamFilePointFile.RESTART_INTERVAL);
+    data.writeByte(0);
+    data.writeByte(9);
+    data.write("/work/a-b".getBytes("UTF-8"));
+    data.writeByte(0);
+    data.writeByte(13);
+    data.write("/work/a/c.txt".getBytes("UTF-8"));
+    int columns = data.size();
+    data.writeInt(1);
+    data.writeLong(10L);
+    data.writeInt(2);
+    data.writeLong(20L);
+    data.writeInt(16);
+    data.writeInt(columns);
+    data.writeInt(1);
+    data.writeInt(StarTeamFilePointFile.MAGIC);
+    data.close();
+
+    Iterator<StarTeamFilePoint> it = StarTeamFilePointFunctions.loadCollection(file).iterator();
+    Assert.assertEquals(1, it.next().getRevisionNumber());
+    Assert.assertEquals(2, it.next().getRevisionNumber());
+    Assert.assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void readsLegacyCsv() throws IOException {
+    OutputStream os = new FileOutputStream(file);
+    os.write(("3,1278000000000,/work/a.txt\n"
+        + "4,1278000001000,/work/with, comma.txt\n"
+        + "5,/work/old format.txt\n").getBytes("ISO-8859-1"));
+    os.close();
+
+    Iterator<StarTeamFilePoint> it = StarTeamFilePointFunctions.loadCollection(file).iterator();
+    StarTeamFilePoint point = it.next();
+    Assert.assertEquals("/work/a.txt", point.getFullfilepath());
+    Assert.assertEquals(3, point.getRevisionNumber());
+    Assert.assertEquals(1278000000000L, point.getLastModifyDate());
+    point = it.next();
+    Assert.assertEquals("/work/with, comma.txt", point.getFullfilepath());
+    Assert.assertEquals(1278000001000L, point.getLastModifyDate());
+    point = it.next();
+    Assert.assertEquals("/work/old format.txt", point.getFullfilepath());
+    Assert.assertEquals(5, point.getRevisionNumber());
+    Assert.assertEquals(0L, point.getLastModifyDate());
+  }
+
+  private void store(Collection<StarTeamFilePoint> points) throws IOException {
+    OutputStream os = new FileOutputStream(file);
+    try {
+      StarTeamFilePointFunctions.storeCollection(os, points);
+    } finally {
+      os.close();
+    }
+  }
+
+  private static List<StarTeamFilePoint> createPoints(int count) {
+    List<StarTeamFilePoint> points = new ArrayList<StarTeamFilePoint>();
+    for (int i = 0; i < count; i++) {
+      points.add(new StarTeamFilePoint(String.format("/work/src/file%04d.java", i), i % 7, 1278000000000L + i));
+    }
+    return points;
+  }
+}
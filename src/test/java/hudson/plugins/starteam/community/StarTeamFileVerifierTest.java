@@ -0,0 +1,80 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StarTeamFileVerifierTest {
+
+  private File workFolder;
+  private PrintStream logger;
+
+  @Before
+  public void setUp() throws IOException {
+    workFolder = File.createTempFile("verifier", "");
+    workFolder.delete();
+    workFolder.mkdirs();
+    logger = new PrintStream(new NullOutputStream());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(workFolder);
+  }
+
+  @Test
+  public void reportsMismatchesAndMissingFilesInTheOrderGiven() throws Exception {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(4, 10, 300);
+    repository.setAverageFileSize(2000);
+    StarTeamRepository.Snapshot snapshot = repository.open("project", "view", "view", null, -1,
+        new StarTeamPhaseTimings());
+    List<StarTeamItem> files = new ArrayList<StarTeamItem>(snapshot.listFiles(workFolder));
+    snapshot.checkOut(files, new StarTeamRepository.CheckoutObserver() {
+      public void startFile() {
+      }
+
+      public void progress(File workingFile, long size, String error) {
+        Assert.assertNull(error);
+      }
+    }, logger, "");
+
+    List<StarTeamItem> expected = new ArrayList<StarTeamItem>();
+    for (int i = 0; i < files.size(); i++) {
+      File local = new File(files.get(i).getFullName());
+      switch (i % 4) {
+        case 1:
+          // same content, another time: matches by content
+          Assert.assertTrue(local.setLastModified(local.lastModified() - 60000));
+          break;
+        case 2:
+          FileUtils.writeStringToFile(local, "changed locally", "UTF-8");
+          Assert.assertTrue(local.setLastModified(local.lastModified() - 60000));
+          expected.add(files.get(i));
+          break;
+        case 3:
+          Assert.assertTrue(local.delete());
+          expected.add(files.get(i));
+          break;
+        default:
+          // as checked out
+      }
+    }
+
+    final List<StarTeamItem> mismatches = new ArrayList<StarTeamItem>();
+    new StarTeamFileVerifier(4).verify(files, logger, new StarTeamFileVerifier.Callback() {
+      public void mismatch(StarTeamItem file) {
+        mismatches.add(file);
+      }
+    });
+    Assert.assertEquals(expected, mismatches);
+  }
+}
@@ -0,0 +1,60 @@
+package hudson.plugins.starteam.community;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class StarTeamPathTest {
+
+  @Test
+  public void folderComesBeforeSiblingsSharingItsName() {
+    List<StarTeamPath> paths = new ArrayList<StarTeamPath>();
+    for (String path : Arrays.asList("/w/a-b", "/w/a/z", "/w/a.txt", "/w/a/b/c", "/w/a")) {
+      paths.add(StarTeamPath.of(path));
+    }
+    Collections.sort(paths);
+    Assert.assertEquals("[/w/a, /w/a/b/c, /w/a/z, /w/a-b, /w/a.txt]", paths.toString());
+    for (StarTeamPath a : paths) {
+      for (StarTeamPath b : paths) {
+        Assert.assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(StarTeamPath.compare(a.getPath(), b.getPath())));
+      }
+    }
+  }
+
+  @Test
+  public void equalPathsHaveEqualHashes() {
+    StarTeamPath path = StarTeamPath.of("/w/src/Main.java");
+    StarTeamPath same = StarTeamPath.of(new File("/w/src/Main.java"));
+    Assert.assertEquals(path, same);
+    Assert.assertEquals(path.hashCode(), same.hashCode());
+    Assert.assertEquals(0, path.compareTo(same));
+    Assert.assertEquals("/w/src/Main.java", path.toString());
+    Assert.assertFalse(path.equals(StarTeamPath.of("/w/src/Main.jav")));
+  }
+
+  @Test
+  public void caseFollowsThePolicy() {
+    StarTeamPath upper = StarTeamPath.of("/w/src/Main.java");
+    StarTeamPath lower = StarTeamPath.of("/w/src/main.java");
+    Assert.assertEquals(StarTeamPath.IGNORE_CASE, upper.equals(lower));
+    Assert.assertEquals(StarTeamPath.IGNORE_CASE, upper.hashCode() == lower.hashCode());
+    Assert.assertEquals(StarTeamPath.IGNORE_CASE, StarTeamPath.compare(upper.getPath(), lower.getPath()) == 0);
+    // the path keeps its case either way
+    Assert.assertEquals("/w/src/Main.java", upper.getPath());
+  }
+
+  @Test
+  public void childrenAndDescendants() {
+    StarTeamPath folder = StarTeamPath.of("/w/src");
+    Assert.assertTrue(StarTeamPath.of("/w/src/a.txt").isChildOf(folder));
+    Assert.assertFalse(StarTeamPath.of("/w/src/main/a.txt").isChildOf(folder));
+    Assert.assertTrue(StarTeamPath.of("/w/src/main/a.txt").isBelow(folder));
+    Assert.assertFalse(StarTeamPath.of("/w/src2/a.txt").isBelow(folder));
+    Assert.assertFalse(StarTeamPath.of("/w/src").isBelow(folder));
+  }
+}
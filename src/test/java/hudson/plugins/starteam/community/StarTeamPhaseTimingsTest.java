@@ -0,0 +1,80 @@
+package hudson.plugins.starteam.community;
+
+import hudson.plugins.starteam.community.StarTeamPhaseTimings.Phase;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+
+public class StarTeamPhaseTimingsTest {
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = File.createTempFile("timings", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  // recorded phases take a little longer than they are said to
+  private static final double RECORDING = 0.001;
+
+  @Test
+  public void nestedPhasesAreNotCountedTwice() {
+    StarTeamPhaseTimings timings = new StarTeamPhaseTimings();
+    timings.record(Phase.DIFF, System.nanoTime() - 5000000000L);
+    timings.move(Phase.DIFF, Phase.USER_RESOLUTION, 2000000000L);
+    timings.move(Phase.DIFF, Phase.CHANGELOG_WRITE, 4000000000L);
+    Assert.assertEquals(0.0, timings.getSeconds(Phase.DIFF), RECORDING);
+    Assert.assertEquals(2.0, timings.getSeconds(Phase.USER_RESOLUTION), 0.0);
+    Assert.assertEquals(3.0, timings.getSeconds(Phase.CHANGELOG_WRITE), RECORDING);
+    Assert.assertEquals(5.0, timings.getTotalSeconds(), RECORDING);
+  }
+
+  @Test
+  public void storedTimingsAreReadBack() throws IOException {
+    StarTeamPhaseTimings timings = new StarTeamPhaseTimings();
+    timings.record(Phase.CONNECT, System.nanoTime() - 1500000L);
+    timings.record(Phase.CHECKOUT, System.nanoTime() - 12345678901L);
+    Writer writer = new OutputStreamWriter(new FileOutputStream(new File(dir, StarTeamPhaseTimings.FILENAME)), "UTF-8");
+    try {
+      timings.writePrometheus(writer, Collections.<String, String>emptyMap());
+    } finally {
+      writer.close();
+    }
+
+    StarTeamPhaseTimings loaded = StarTeamPhaseTimings.load(dir);
+    Assert.assertEquals(timings.getSeconds(Phase.CONNECT), loaded.getSeconds(Phase.CONNECT), 1e-6);
+    Assert.assertEquals(timings.getSeconds(Phase.CHECKOUT), loaded.getSeconds(Phase.CHECKOUT), 1e-6);
+    Assert.assertEquals(12.345679, loaded.getSeconds(Phase.CHECKOUT), RECORDING);
+    Assert.assertEquals(0.0, loaded.getSeconds(Phase.LOGON), 0.0);
+    Assert.assertNull(StarTeamPhaseTimings.load(new File(dir, "missing")));
+  }
+
+  @Test
+  public void exportsOneFilePerJob() throws IOException {
+    StarTeamPhaseTimings timings = new StarTeamPhaseTimings();
+    timings.record(Phase.POPULATE, System.nanoTime() - 250000000L);
+    StarTeamTimingsAction.export(dir, "folder/my \"job\"", 42, timings);
+
+    String text = FileUtils.readFileToString(new File(dir, "starteam_folder_my__job_.prom"), "UTF-8");
+    Assert.assertTrue(text, text.contains("# TYPE starteam_scm_phase_seconds gauge\n"));
+    Assert.assertTrue(text, text.contains(
+        "starteam_scm_phase_seconds{job=\"folder/my \\\"job\\\"\",build=\"42\",phase=\"populate\"} 0.250"));
+    Assert.assertFalse(new File(dir, "starteam_folder_my__job_.prom.tmp").exists());
+  }
+}
@@ -0,0 +1,132 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StarTeamPollCoalescerTest {
+
+  private final PrintStream logger = new PrintStream(new NullOutputStream());
+
+  @Test
+  public void pollsWithinTheWindowShareOneListing() throws Exception {
+    StarTeamPollCoalescer polls = new StarTeamPollCoalescer(TimeUnit.MINUTES.toMillis(1));
+    AtomicInteger listed = new AtomicInteger();
+    StarTeamRevisionState first = polls.poll(key("view"), listing(listed, null), Long.MIN_VALUE, logger);
+    StarTeamRevisionState second = polls.poll(key("view"), listing(listed, null), Long.MIN_VALUE, logger);
+    Assert.assertSame(first, second);
+    Assert.assertEquals(1, listed.get());
+
+    polls.poll(key("other view"), listing(listed, null), Long.MIN_VALUE, logger);
+    Assert.assertEquals(2, listed.get());
+    Assert.assertEquals(2, polls.size());
+    Assert.assertEquals(2, polls.getListings());
+    Assert.assertEquals(1, polls.getShared());
+  }
+
+  @Test
+  public void pollsJoinAListingInProgress() throws Exception {
+    final StarTeamPollCoalescer polls = new StarTeamPollCoalescer(0);
+    final AtomicInteger listed = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<StarTeamRevisionState> owner = executor.submit(new Callable<StarTeamRevisionState>() {
+        public StarTeamRevisionState call() throws Exception {
+          return polls.poll(key("view"), listing(listed, release), Long.MIN_VALUE, logger);
+        }
+      });
+      while (polls.getListings() == 0) {
+        Thread.sleep(1);
+      }
+      Future<StarTeamRevisionState> joined = executor.submit(new Callable<StarTeamRevisionState>() {
+        public StarTeamRevisionState call() throws Exception {
+          return polls.poll(key("view"), listing(listed, null), Long.MIN_VALUE, logger);
+        }
+      });
+      while (polls.getShared() == 0) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+      Assert.assertSame(owner.get(10, TimeUnit.SECONDS), joined.get(10, TimeUnit.SECONDS));
+      Assert.assertEquals(1, listed.get());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // with no window, a finished listing is not shared
+    Thread.sleep(5);
+    polls.poll(key("view"), listing(listed, null), Long.MIN_VALUE, logger);
+    Assert.assertEquals(2, listed.get());
+  }
+
+  @Test
+  public void aJobThatBuiltAfterTheSharedListingListsAgain() throws Exception {
+    StarTeamPollCoalescer polls = new StarTeamPollCoalescer(TimeUnit.MINUTES.toMillis(1));
+    AtomicInteger listed = new AtomicInteger();
+    // job A polls, then job B builds a newer commit, its baseline taken at server time 1500
+    StarTeamRevisionState forA = polls.poll(key("view"), listing(listed, null), 0, logger);
+    Assert.assertEquals(1000, forA.getServerTime());
+    StarTeamRevisionState baselineOfB = new StarTeamRevisionState("digest of B", 2, 1500, null);
+
+    StarTeamRevisionState forB = polls.poll(key("view"), listing(listed, null), baselineOfB.getServerTime(), logger);
+    Assert.assertEquals("B does not get the listing older than its build", 2, listed.get());
+    Assert.assertEquals(2000, forB.getServerTime());
+    Assert.assertEquals(0, polls.getShared());
+
+    // A shares the newer listing, B too until the next build
+    Assert.assertSame(forB, polls.poll(key("view"), listing(listed, null), forA.getServerTime(), logger));
+    Assert.assertSame(forB, polls.poll(key("view"), listing(listed, null), baselineOfB.getServerTime(), logger));
+    Assert.assertEquals(2, listed.get());
+    Assert.assertEquals(2, polls.getShared());
+
+    // a baseline of unknown server time only compares with a listing of its own
+    polls.poll(key("view"), listing(listed, null), Long.MAX_VALUE, logger);
+    Assert.assertEquals(3, listed.get());
+  }
+
+  @Test
+  public void failedListingsAreNotShared() throws Exception {
+    StarTeamPollCoalescer polls = new StarTeamPollCoalescer(TimeUnit.MINUTES.toMillis(1));
+    try {
+      polls.poll(key("view"), new Callable<StarTeamRevisionState>() {
+        public StarTeamRevisionState call() throws StarTeamSCMException {
+          throw new StarTeamSCMException("Couldn't find view");
+        }
+      }, Long.MIN_VALUE, logger);
+      Assert.fail("the listing failed");
+    } catch (StarTeamSCMException expected) {
+      Assert.assertEquals("Couldn't find view", expected.getMessage());
+    }
+    AtomicInteger listed = new AtomicInteger();
+    polls.poll(key("view"), listing(listed, null), Long.MIN_VALUE, logger);
+    Assert.assertEquals(1, listed.get());
+  }
+
+  private static StarTeamPollCoalescer.Key key(String view) {
+    return new StarTeamPollCoalescer.Key("host", 49201, null, 0, "user", "password", "project", view, "folder",
+        null);
+  }
+
+  private static Callable<StarTeamRevisionState> listing(final AtomicInteger listed, final CountDownLatch release) {
+    return new Callable<StarTeamRevisionState>() {
+      public StarTeamRevisionState call() throws InterruptedException {
+        int count = listed.incrementAndGet();
+        if (release != null) {
+          release.await();
+        }
+        // the server time advances with every listing
+        return new StarTeamRevisionState("digest" + count, count, count * 1000L, null);
+      }
+    };
+  }
+}
@@ -0,0 +1,189 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+
+public class StarTeamRevisionStateTest {
+
+  private File parent;
+  private PrintStream logger;
+
+  @Before
+  public void setUp() throws IOException {
+    parent = File.createTempFile("revisions", "");
+    parent.delete();
+    parent.mkdirs();
+    logger = new PrintStream(new NullOutputStream());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(parent);
+  }
+
+  @Test
+  public void checkoutAndListingAgreeAnywhere() throws Exception {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(5, 10, 400);
+    File workspace = new File(parent, "workspace");
+    StarTeamConnection connection = connect(repository);
+    StarTeamRevisionState checkedOut;
+    try {
+      checkedOut = StarTeamRevisionState.ofFilePoints(
+          connection.computeChangeSet(workspace, null, logger).getFilePointsToRemember(), workspace,
+          connection.getServerTimeMillis());
+    } finally {
+      connection.close();
+    }
+    Assert.assertEquals(400, checkedOut.getFileCount());
+    Assert.assertEquals(checkedOut, poll(repository, new File(parent, "job")));
+
+    repository.commit(1, 0, 0);
+    StarTeamRevisionState modified = poll(repository, new File(parent, "job"));
+    Assert.assertFalse(checkedOut.equals(modified));
+    Assert.assertEquals(400, modified.getFileCount());
+  }
+
+  @Test
+  public void modifiedSinceAsksOnlyForChanges() throws Exception {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(6, 10, 500);
+    File folder = new File(parent, "job");
+    StarTeamRevisionState baseline = poll(repository, folder);
+    Assert.assertTrue(baseline.getServerTime() > 0);
+
+    long bytes = repository.getBytesTransferred();
+    StarTeamRevisionState unchanged = checkModifiedSince(repository, null, baseline);
+    Assert.assertEquals(baseline, unchanged);
+    Assert.assertTrue(repository.getBytesTransferred() - bytes < 500 * SimulatedStarTeamRepository.LISTING_BYTES_PER_FILE / 10);
+
+    repository.commit(2, 0, 0);
+    Assert.assertNull(checkModifiedSince(repository, null, baseline));
+    baseline = poll(repository, folder);
+    // the commit is within the margin of the new baseline, the files are listed once more
+    Assert.assertNull(checkModifiedSince(repository, null, baseline));
+
+    // deleted files are not modified, but their folders have fewer files
+    repository.commit(0, 0, 0);
+    repository.commit(0, 0, 0);
+    baseline = poll(repository, folder);
+    Assert.assertNotNull(checkModifiedSince(repository, null, baseline));
+    repository.commit(0, 0, 1);
+    Assert.assertNull(checkModifiedSince(repository, null, baseline));
+  }
+
+  @Test
+  public void modifiedSinceSeesFilesSwappedBetweenFolders() throws Exception {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(7, 10, 500);
+    repository.commit(0, 0, 0);
+    repository.commit(0, 0, 0);
+    StarTeamRevisionState baseline = poll(repository, new File(parent, "job"));
+    Assert.assertNotNull(checkModifiedSince(repository, null, baseline));
+
+    // no revision and the same number of files in every folder
+    int other = 1;
+    while (!repository.swapFolders(0, other)) {
+      other++;
+    }
+    repository.commit(0, 0, 0);
+    repository.commit(0, 0, 0);
+    Assert.assertNull(checkModifiedSince(repository, null, baseline));
+    StarTeamRevisionState swapped = poll(repository, new File(parent, "job"));
+    Assert.assertFalse(baseline.equals(swapped));
+    Assert.assertEquals(baseline.getFileCount(), swapped.getFileCount());
+  }
+
+  @Test
+  public void modifiedSinceListsAfterTooManyPollsWithoutListing() throws Exception {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(8, 10, 100);
+    repository.commit(0, 0, 0);
+    repository.commit(0, 0, 0);
+    StarTeamRevisionState baseline = poll(repository, new File(parent, "job"));
+    for (int i = 0; i < StarTeamConnection.MAX_UNLISTED_POLLS; i++) {
+      baseline = checkModifiedSince(repository, null, baseline);
+      Assert.assertNotNull(baseline);
+    }
+    Assert.assertEquals(StarTeamConnection.MAX_UNLISTED_POLLS, baseline.getUnlisted());
+    Assert.assertNull(checkModifiedSince(repository, null, baseline));
+    Assert.assertEquals(0, poll(repository, new File(parent, "job")).getUnlisted());
+  }
+
+  @Test
+  public void modifiedSinceFallsBackWhenUnreliable() throws Exception {
+    SimulatedStarTeamRepository repository = new SimulatedStarTeamRepository(6, 10, 500);
+    StarTeamRevisionState baseline = poll(repository, new File(parent, "job"));
+    Assert.assertNull(checkModifiedSince(repository, new StarTeamViewSelector("Build 1", "LABEL"), baseline));
+    Assert.assertNull(checkModifiedSince(repository, null,
+        new StarTeamRevisionState(baseline.getDigest(), baseline.getFileCount())));
+    // a server time ahead of the server
+    Assert.assertNull(checkModifiedSince(repository, null, baseline.at(baseline.getServerTime() + 1)));
+  }
+
+  @Test
+  public void loadsWhatWasWritten() throws IOException {
+    Assert.assertNull(StarTeamRevisionState.load(parent));
+    StarTeamRevisionState state = new StarTeamRevisionState("0123456789abcdef0123456789abcdef", 42, 1000L,
+        "fedcba9876543210fedcba9876543210");
+    Writer writer = new OutputStreamWriter(new FileOutputStream(new File(parent, StarTeamRevisionState.FILENAME)),
+        "UTF-8");
+    try {
+      state.write(writer);
+    } finally {
+      writer.close();
+    }
+    StarTeamRevisionState loaded = StarTeamRevisionState.load(parent);
+    Assert.assertEquals(state, loaded);
+    Assert.assertEquals(42, loaded.getFileCount());
+    Assert.assertEquals(1000L, loaded.getServerTime());
+    Assert.assertEquals(state.getPaths(), loaded.getPaths());
+
+    FileUtils.writeStringToFile(new File(parent, StarTeamRevisionState.FILENAME), "0123456789abcdef 7\n", "UTF-8");
+    loaded = StarTeamRevisionState.load(parent);
+    Assert.assertEquals(7, loaded.getFileCount());
+    Assert.assertEquals(-1L, loaded.getServerTime());
+    Assert.assertNull(loaded.getPaths());
+  }
+
+  private StarTeamRevisionState checkModifiedSince(SimulatedStarTeamRepository repository,
+                                                   StarTeamViewSelector selector, StarTeamRevisionState baseline)
+      throws StarTeamSCMException {
+    StarTeamConnection connection = connect(repository, selector);
+    try {
+      return connection.checkModifiedSince(new File(parent, "other job"), baseline, logger);
+    } finally {
+      connection.close();
+    }
+  }
+
+  private StarTeamRevisionState poll(SimulatedStarTeamRepository repository, File folder)
+      throws StarTeamSCMException {
+    StarTeamConnection connection = connect(repository);
+    try {
+      return connection.computeRevisionState(folder, logger);
+    } finally {
+      connection.close();
+    }
+  }
+
+  private StarTeamConnection connect(SimulatedStarTeamRepository repository) throws StarTeamSCMException {
+    return connect(repository, null);
+  }
+
+  private StarTeamConnection connect(SimulatedStarTeamRepository repository, StarTeamViewSelector selector)
+      throws StarTeamSCMException {
+    StarTeamConnection connection = new StarTeamConnection("simulator", 1, "user", "password", "project", "view",
+        "folder", selector);
+    connection.setRepository(repository);
+    connection.initialize(-1);
+    return connection;
+  }
+}
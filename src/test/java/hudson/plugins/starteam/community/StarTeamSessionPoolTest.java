@@ -0,0 +1,138 @@
+package hudson.plugins.starteam.community;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StarTeamSessionPoolTest {
+
+  private static final StarTeamSessionPool.Key KEY_A =
+      new StarTeamSessionPool.Key("host", 49201, "user", "passwd", "project", "viewA", null);
+  private static final StarTeamSessionPool.Key KEY_B =
+      new StarTeamSessionPool.Key("host", 49201, "user", "passwd", "project", "viewB", null);
+
+  @Test
+  public void releasedSessionIsLeasedAgain() throws StarTeamSCMException {
+    StarTeamSessionPool pool = new StarTeamSessionPool(4, 60000, 1000);
+    FakeFactory factory = new FakeFactory(KEY_A);
+
+    StarTeamSession first = pool.lease(KEY_A, factory);
+    pool.release(first);
+    StarTeamSession second = pool.lease(KEY_A, factory);
+
+    Assert.assertSame(first, second);
+    Assert.assertEquals(1, factory.opened);
+    Assert.assertEquals(1, pool.getStatistics().getHits());
+    Assert.assertEquals(1, pool.getStatistics().getMisses());
+    Assert.assertEquals(1, pool.getStatistics().getLeased());
+  }
+
+  @Test
+  public void differentKeysDoNotShareSessions() throws StarTeamSCMException {
+    StarTeamSessionPool pool = new StarTeamSessionPool(4, 60000, 1000);
+
+    pool.release(pool.lease(KEY_A, new FakeFactory(KEY_A)));
+    FakeFactory factoryB = new FakeFactory(KEY_B);
+    pool.lease(KEY_B, factoryB);
+
+    Assert.assertEquals(1, factoryB.opened);
+    Assert.assertEquals(0, pool.getStatistics().getHits());
+    Assert.assertEquals(1, pool.getStatistics().getIdle());
+  }
+
+  @Test
+  public void invalidSessionIsReplaced() throws StarTeamSCMException {
+    StarTeamSessionPool pool = new StarTeamSessionPool(4, 60000, 1000);
+    FakeFactory factory = new FakeFactory(KEY_A);
+
+    FakeSession first = (FakeSession) pool.lease(KEY_A, factory);
+    pool.release(first);
+    first.valid = false;
+    StarTeamSession second = pool.lease(KEY_A, factory);
+
+    Assert.assertNotSame(first, second);
+    Assert.assertTrue(first.closed);
+    Assert.assertEquals(1, pool.getStatistics().getEvictions());
+    Assert.assertEquals(0, pool.getStatistics().getHits());
+  }
+
+  @Test
+  public void idleSessionsExpire() throws StarTeamSCMException {
+    StarTeamSessionPool pool = new StarTeamSessionPool(4, 0, 1000);
+
+    FakeSession first = (FakeSession) pool.lease(KEY_A, new FakeFactory(KEY_A));
+    pool.release(first);
+
+    Assert.assertTrue(first.closed);
+    Assert.assertEquals(0, pool.getStatistics().getIdle());
+    Assert.assertEquals(1, pool.getStatistics().getEvictions());
+  }
+
+  @Test
+  public void eldestIdleSessionIsEvictedWhenFull() throws StarTeamSCMException {
+    StarTeamSessionPool pool = new StarTeamSessionPool(1, 60000, 1000);
+
+    FakeSession first = (FakeSession) pool.lease(KEY_A, new FakeFactory(KEY_A));
+    pool.release(first);
+    pool.lease(KEY_B, new FakeFactory(KEY_B));
+
+    Assert.assertTrue(first.closed);
+    Assert.assertEquals(1, pool.getStatistics().getEvictions());
+  }
+
+  @Test(expected = StarTeamSCMException.class)
+  public void leaseTimesOutWhenAllSessionsAreInUse() throws StarTeamSCMException {
+    StarTeamSessionPool pool = new StarTeamSessionPool(1, 60000, 10);
+
+    pool.lease(KEY_A, new FakeFactory(KEY_A));
+    pool.lease(KEY_A, new FakeFactory(KEY_A));
+  }
+
+  @Test
+  public void failedOpenReleasesTheSlot() throws StarTeamSCMException {
+    StarTeamSessionPool pool = new StarTeamSessionPool(1, 60000, 10);
+    try {
+      pool.lease(KEY_A, new StarTeamSessionPool.SessionFactory() {
+        public StarTeamSession open() throws StarTeamSCMException {
+          throw new StarTeamSCMException("Could not log on");
+        }
+      });
+      Assert.fail("expected the factory failure");
+    } catch (StarTeamSCMException expected) {
+      // the slot must be free again
+    }
+    Assert.assertNotNull(pool.lease(KEY_A, new FakeFactory(KEY_A)));
+  }
+
+  private static final class FakeFactory implements StarTeamSessionPool.SessionFactory {
+    private final StarTeamSessionPool.Key key;
+    int opened;
+
+    FakeFactory(StarTeamSessionPool.Key key) {
+      this.key = key;
+    }
+
+    public StarTeamSession open() {
+      opened++;
+      return new FakeSession(key);
+    }
+  }
+
+  private static final class FakeSession extends StarTeamSession {
+    boolean valid = true;
+    boolean closed;
+
+    FakeSession(StarTeamSessionPool.Key key) {
+      super(key, null, null, null);
+    }
+
+    @Override
+    boolean isValid() {
+      return valid;
+    }
+
+    @Override
+    void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package hudson.plugins.starteam.community;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class StarTeamUserDirectoryTest {
+
+  @Test
+  public void resolvesEmailLocalPartWithOneLoad() {
+    StarTeamUserDirectory directory = new StarTeamUserDirectory(60000, 60000);
+    CountingLoader loader = new CountingLoader();
+    loader.accounts.put("Jan Ruzicka", "JRuzicka@example.com");
+    loader.accounts.put("No Mail", "");
+
+    Assert.assertEquals("JRuzicka", directory.getUsername("Jan Ruzicka", loader));
+    Assert.assertEquals("No Mail", directory.getUsername("No Mail", loader));
+    Assert.assertEquals("JRuzicka", directory.getUsername("Jan Ruzicka", loader));
+    Assert.assertEquals(1, loader.loads);
+  }
+
+  @Test
+  public void missesAreRefreshedOncePerInterval() {
+    StarTeamUserDirectory directory = new StarTeamUserDirectory(60000, 60000);
+    CountingLoader loader = new CountingLoader();
+
+    Assert.assertEquals("New User", directory.getUsername("New User", loader));
+    loader.accounts.put("New User", "nuser@example.com");
+    Assert.assertEquals("New User", directory.getUsername("New User", loader));
+    Assert.assertEquals("Other User", directory.getUsername("Other User", loader));
+    Assert.assertEquals(1, loader.loads);
+  }
+
+  @Test
+  public void missTriggersReloadAfterInterval() {
+    StarTeamUserDirectory directory = new StarTeamUserDirectory(60000, 0);
+    CountingLoader loader = new CountingLoader();
+
+    Assert.assertEquals("New User", directory.getUsername("New User", loader));
+    loader.accounts.put("New User", "nuser@example.com");
+    Assert.assertEquals("nuser", directory.getUsername("New User", loader));
+  }
+
+  @Test
+  public void missingPermissionIsCached() {
+    StarTeamUserDirectory directory = new StarTeamUserDirectory(60000, 0);
+    CountingLoader loader = new CountingLoader();
+    loader.denied = true;
+
+    Assert.assertEquals("Jan Ruzicka", directory.getUsername("Jan Ruzicka", loader));
+    Assert.assertEquals("Jan Ruzicka", directory.getUsername("Jan Ruzicka", loader));
+    Assert.assertEquals(1, loader.loads);
+  }
+
+  private static final class CountingLoader implements StarTeamUserDirectory.AccountLoader {
+    final Map<String, String> accounts = new HashMap<String, String>();
+    boolean denied;
+    int loads;
+
+    public Map<String, String> loadEmailAddresses() {
+      loads++;
+      if (denied) {
+        throw new IllegalStateException("no permission to administer user accounts");
+      }
+      return new HashMap<String, String>(accounts);
+    }
+  }
+}
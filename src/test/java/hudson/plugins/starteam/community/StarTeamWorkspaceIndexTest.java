@@ -0,0 +1,91 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+public class StarTeamWorkspaceIndexTest {
+
+  private File parent;
+  private File workFolder;
+
+  @Before
+  public void setUp() throws IOException {
+    parent = File.createTempFile("workspaces", "");
+    parent.delete();
+    workFolder = new File(parent, "job");
+    workFolder.mkdirs();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(parent);
+  }
+
+  @Test
+  public void followsChangesBetweenSnapshots() throws IOException, InterruptedException {
+    File kept = new File(workFolder, "src/kept.txt");
+    File removed = new File(workFolder, "src/removed.txt");
+    FileUtils.writeStringToFile(kept, "kept");
+    FileUtils.writeStringToFile(removed, "removed");
+    StarTeamWorkspaceIndex index = new StarTeamWorkspaceIndex(workFolder, new StarTeamWorkspaceScanner(2));
+    Assert.assertEquals(2, index.snapshot().size());
+
+    removed.delete();
+    File added = new File(workFolder, "lib/deep/added.txt");
+    FileUtils.writeStringToFile(added, "added");
+    FileUtils.writeStringToFile(kept, "changed content");
+    Thread.sleep(200);
+
+    Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> files = index.snapshot();
+    Assert.assertEquals(new StarTeamWorkspaceScanner(1).scan(workFolder).keySet(), files.keySet());
+    Assert.assertEquals(15, files.get(StarTeamPath.of(kept.getAbsoluteFile())).getSize());
+  }
+
+  @Test
+  public void storedIndexIsRevalidated() throws IOException {
+    File kept = new File(workFolder, "src/kept.txt");
+    File removed = new File(workFolder, "gone/removed.txt");
+    FileUtils.writeStringToFile(kept, "kept");
+    FileUtils.writeStringToFile(removed, "removed");
+    new StarTeamWorkspaceIndex(workFolder, new StarTeamWorkspaceScanner(1)).snapshot();
+    Assert.assertTrue(new File(parent, "job" + StarTeamWorkspaceIndex.INDEX_SUFFIX).isFile());
+
+    // changed while no index was watching
+    FileUtils.deleteDirectory(removed.getParentFile());
+    File added = new File(workFolder, "src/added.txt");
+    FileUtils.writeStringToFile(added, "added");
+    kept.setLastModified(1000000000000L);
+
+    Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> files =
+        new StarTeamWorkspaceIndex(workFolder, new StarTeamWorkspaceScanner(1)).snapshot();
+    Assert.assertEquals(new StarTeamWorkspaceScanner(1).scan(workFolder).keySet(), files.keySet());
+    Assert.assertEquals(1000000000000L, files.get(StarTeamPath.of(kept.getAbsoluteFile())).getLastModified());
+  }
+
+  @Test
+  public void revalidationOnlyDropsTheChildrenOfTheRelistedFolder() throws IOException {
+    // siblings whose names extend the folder's sort next to its files
+    String[] paths = {"a/one.txt", "a/sub/two.txt", "a/sub/deeper/three.txt", "a-b/four.txt", "a0/five.txt",
+        "ab/six.txt", "a/z.txt"};
+    for (String path : paths) {
+      FileUtils.writeStringToFile(new File(workFolder, path), path);
+    }
+    new StarTeamWorkspaceIndex(workFolder, new StarTeamWorkspaceScanner(1)).snapshot();
+
+    new File(workFolder, "a/one.txt").delete();
+    FileUtils.deleteDirectory(new File(workFolder, "a/sub/deeper"));
+    new File(workFolder, "a0/five.txt").delete();
+
+    Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> files =
+        new StarTeamWorkspaceIndex(workFolder, new StarTeamWorkspaceScanner(1)).snapshot();
+    Assert.assertEquals(new StarTeamWorkspaceScanner(1).scan(workFolder).keySet(), files.keySet());
+    Assert.assertEquals(4, files.size());
+  }
+}
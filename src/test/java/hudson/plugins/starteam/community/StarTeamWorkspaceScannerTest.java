@@ -0,0 +1,54 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+public class StarTeamWorkspaceScannerTest {
+
+  private File workFolder;
+
+  @Before
+  public void setUp() throws IOException {
+    workFolder = File.createTempFile("workspace", "");
+    workFolder.delete();
+    workFolder.mkdirs();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(workFolder);
+  }
+
+  @Test
+  public void listsFilesWithAttributes() throws IOException {
+    File top = new File(workFolder, "top.txt");
+    FileUtils.writeStringToFile(top, "hello");
+    top.setLastModified(1000000000000L);
+    for (int i = 0; i < 20; i++) {
+      FileUtils.writeStringToFile(new File(workFolder, "dir" + (i % 4) + "/sub/file" + i + ".txt"), "x");
+    }
+    new File(workFolder, "empty").mkdirs();
+
+    Map<StarTeamPath, StarTeamWorkspaceScanner.FileAttributes> files = new StarTeamWorkspaceScanner(3).scan(workFolder);
+
+    Assert.assertEquals(21, files.size());
+    StarTeamWorkspaceScanner.FileAttributes attributes = files.get(StarTeamPath.of(top.getAbsoluteFile()));
+    Assert.assertNotNull(attributes);
+    Assert.assertEquals(5, attributes.getSize());
+    Assert.assertEquals(top.lastModified(), attributes.getLastModified());
+    Assert.assertTrue(files.containsKey(StarTeamPath.of(new File(workFolder, "dir3/sub/file19.txt").getAbsoluteFile())));
+    Assert.assertEquals(files.keySet().size(), StarTeamFilePointFunctions.listAllFiles(workFolder).size());
+  }
+
+  @Test
+  public void missingFolderHasNoFiles() {
+    Assert.assertTrue(new StarTeamWorkspaceScanner().scan(new File(workFolder, "missing")).isEmpty());
+  }
+}
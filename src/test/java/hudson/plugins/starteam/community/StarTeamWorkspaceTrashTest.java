@@ -0,0 +1,87 @@
+package hudson.plugins.starteam.community;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StarTeamWorkspaceTrashTest {
+
+  private File parent;
+  private File workFolder;
+
+  @Before
+  public void setUp() throws IOException {
+    parent = File.createTempFile("workspaces", "");
+    parent.delete();
+    workFolder = new File(parent, "job");
+    workFolder.mkdirs();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(parent);
+  }
+
+  @Test
+  public void movesWholeFoldersAndPrunesEmptyOnes() throws IOException, InterruptedException {
+    File kept = new File(workFolder, "src/kept.txt");
+    File removed = new File(workFolder, "src/removed.txt");
+    File deep1 = new File(workFolder, "lib/a/one.jar");
+    File deep2 = new File(workFolder, "lib/b/two.jar");
+    File alone = new File(workFolder, "doc/only/readme.txt");
+    for (File file : Arrays.asList(kept, removed, deep1, deep2, alone)) {
+      FileUtils.writeStringToFile(file, file.getName());
+    }
+
+    StarTeamWorkspaceTrash.Result result = new StarTeamWorkspaceTrash(workFolder)
+        .moveToTrash(paths(removed, deep1, deep2, alone));
+
+    // src/removed.txt, lib and doc
+    Assert.assertEquals(3, result.getMoved());
+    Assert.assertEquals(0, result.getDeleted());
+    Assert.assertTrue(kept.isFile());
+    Assert.assertFalse(removed.exists());
+    Assert.assertFalse(new File(workFolder, "lib").exists());
+    Assert.assertFalse(new File(workFolder, "doc").exists());
+
+    File trash = new File(parent, "job" + StarTeamWorkspaceTrash.TRASH_SUFFIX);
+    for (int i = 0; i < 100 && trash.list() != null && trash.list().length > 0; i++) {
+      Thread.sleep(50);
+    }
+    Assert.assertEquals(0, trash.list().length);
+  }
+
+  @Test
+  public void prunesFoldersLeftEmpty() throws IOException {
+    File kept = new File(workFolder, "src/kept.txt");
+    File removed = new File(workFolder, "src/old/removed.txt");
+    File other = new File(workFolder, "src/old/other.txt");
+    FileUtils.writeStringToFile(kept, "kept");
+    FileUtils.writeStringToFile(removed, "removed");
+    FileUtils.writeStringToFile(other, "other");
+    other.delete();
+
+    StarTeamWorkspaceTrash.Result result = new StarTeamWorkspaceTrash(workFolder)
+        .moveToTrash(paths(removed, new File(workFolder, "src/missing.txt")));
+
+    Assert.assertEquals(1, result.getMoved());
+    Assert.assertFalse(new File(workFolder, "src/old").exists());
+    Assert.assertTrue(kept.isFile());
+  }
+
+  private static List<StarTeamPath> paths(File... files) {
+    List<StarTeamPath> result = new ArrayList<StarTeamPath>();
+    for (File file : files) {
+      result.add(StarTeamPath.of(file));
+    }
+    return result;
+  }
+}